@@ -0,0 +1,75 @@
+package com.cafeqr.app;
+
+import static org.junit.Assert.*;
+
+import android.content.Context;
+import android.content.Intent;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// SunmiPrinter against SunmiStandInService (debug builds), bound like the vendor service
+@RunWith(AndroidJUnit4.class)
+public class SunmiPrinterTest {
+
+  private SunmiPrinter printer;
+
+  private static final class Result implements SunmiPrinter.Callback {
+    final CountDownLatch done = new CountDownLatch(1);
+    volatile boolean ok;
+    volatile int code;
+    volatile String message;
+
+    @Override
+    public void onResult(boolean ok, int code, String message) {
+      this.ok = ok;
+      this.code = code;
+      this.message = message;
+      done.countDown();
+    }
+
+    Result await() throws InterruptedException {
+      assertTrue("no result from the printer", done.await(10, TimeUnit.SECONDS));
+      return this;
+    }
+  }
+
+  @Before
+  public void bindStandIn() {
+    Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    Intent standIn = new Intent(SunmiPrinter.SERVICE_ACTION).setClass(ctx, SunmiStandInService.class);
+    printer = new SunmiPrinter(ctx, standIn);
+  }
+
+  @Test
+  public void printRawCommitsOneTransaction() throws Exception {
+    byte[] ticket = "Table 4\n1 x Masala dosa\n".getBytes(StandardCharsets.US_ASCII);
+    Result r = new Result();
+    printer.printRaw(ticket, r);
+    r.await();
+
+    assertTrue(r.message, r.ok);
+    assertEquals(0, r.code);
+    assertArrayEquals(ticket, SunmiStandInService.lastPrinted());
+  }
+
+  @Test
+  public void printerErrorReachesCallback() throws Exception {
+    SunmiStandInService.failNext();
+    Result r = new Result();
+    printer.printRaw(new byte[] { 'x', '\n' }, r);
+    r.await();
+
+    assertFalse(r.ok);
+    assertEquals(1, r.code);
+    assertEquals("stand-in: out of paper", r.message);
+  }
+}
@@ -0,0 +1,125 @@
+package com.cafeqr.app;
+
+import android.app.Service;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import woyou.aidlservice.jiuiv5.ICallback;
+import woyou.aidlservice.jiuiv5.ITax;
+import woyou.aidlservice.jiuiv5.IWoyouService;
+import woyou.aidlservice.jiuiv5.TransBean;
+
+// Debug builds only: a local service implementing the Sunmi printer AIDL, so
+// SunmiPrinter can be exercised on any device or emulator. Buffered commands
+// are collected and "printed" to logcat on commit; failNext() makes the next
+// transaction report a printer error.
+public class SunmiStandInService extends Service {
+
+  private static final String TAG = "SunmiStandIn";
+
+  private static volatile byte[] lastPrinted;
+  private static volatile boolean failNext;
+
+  static byte[] lastPrinted() {
+    return lastPrinted;
+  }
+
+  static void failNext() {
+    failNext = true;
+  }
+
+  private final IWoyouService.Stub binder = new IWoyouService.Stub() {
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private boolean buffering;
+
+    private synchronized void put(byte[] b, ICallback cb) throws RemoteException {
+      buffer.write(b, 0, b.length);
+      if (!buffering) flush(cb);
+    }
+
+    private synchronized void flush(ICallback cb) throws RemoteException {
+      byte[] out = buffer.toByteArray();
+      buffer.reset();
+      if (failNext) {
+        failNext = false;
+        if (cb != null) cb.onPrintResult(1, "stand-in: out of paper");
+        return;
+      }
+      lastPrinted = out;
+      Log.i(TAG, "Printed " + out.length + " bytes:\n" + new String(out, StandardCharsets.ISO_8859_1));
+      if (cb != null) cb.onPrintResult(0, "stand-in printed " + out.length + " bytes");
+    }
+
+    @Override public void updateFirmware() {}
+    @Override public int getFirmwareStatus() { return 0; }
+    @Override public String getServiceVersion() { return "stand-in"; }
+    @Override public void printerInit(ICallback cb) throws RemoteException { if (cb != null) cb.onRunResult(true); }
+    @Override public void printerSelfChecking(ICallback cb) throws RemoteException { if (cb != null) cb.onRunResult(true); }
+    @Override public String getPrinterSerialNo() { return "STANDIN"; }
+    @Override public String getPrinterVersion() { return "1.0"; }
+    @Override public String getPrinterModal() { return "stand-in"; }
+    @Override public void getPrintedLength(ICallback cb) throws RemoteException { if (cb != null) cb.onReturnString("0"); }
+
+    @Override
+    public void lineWrap(int n, ICallback cb) throws RemoteException {
+      byte[] lf = new byte[Math.max(0, n)];
+      Arrays.fill(lf, (byte) 0x0a);
+      put(lf, cb);
+    }
+
+    @Override public void sendRAWData(byte[] data, ICallback cb) throws RemoteException { put(data, cb); }
+    @Override public void setAlignment(int alignment, ICallback cb) throws RemoteException { put(new byte[]{ 0x1b, 'a', (byte) alignment }, cb); }
+    @Override public void setFontName(String typeface, ICallback cb) {}
+    @Override public void setFontSize(float size, ICallback cb) {}
+    @Override public void printTextWithFont(String text, String typeface, float size, ICallback cb) throws RemoteException { printText(text, cb); }
+    @Override public void printColumnsText(String[] cols, int[] widths, int[] aligns, ICallback cb) throws RemoteException { printText(String.join(" ", cols) + "\n", cb); }
+    @Override public void printBitmap(Bitmap bitmap, ICallback cb) throws RemoteException { printText("[bitmap]\n", cb); }
+    @Override public void printBarCode(String data, int symbology, int height, int width, int textPosition, ICallback cb) throws RemoteException { printText("[barcode " + data + "]\n", cb); }
+    @Override public void printQRCode(String data, int moduleSize, int errorLevel, ICallback cb) throws RemoteException { printText("[qr " + data + "]\n", cb); }
+    @Override public void printText(String text, ICallback cb) throws RemoteException { put(text.getBytes(StandardCharsets.UTF_8), cb); }
+    @Override public void printOriginalText(String text, ICallback cb) throws RemoteException { printText(text, cb); }
+
+    @Override
+    public void commitPrint(TransBean[] beans, ICallback cb) throws RemoteException {
+      for (TransBean b : beans) {
+        if (b.getData() != null) put(b.getData(), null);
+      }
+      flush(cb);
+    }
+
+    @Override
+    public synchronized void enterPrinterBuffer(boolean clean) {
+      if (clean) buffer.reset();
+      buffering = true;
+    }
+
+    @Override
+    public synchronized void exitPrinterBuffer(boolean commit) throws RemoteException {
+      exitPrinterBufferWithCallback(commit, null);
+    }
+
+    @Override public void tax(byte[] data, ITax cb) {}
+    @Override public void getPrinterFactory(ICallback cb) throws RemoteException { if (cb != null) cb.onReturnString("stand-in"); }
+    @Override public synchronized void clearBuffer() { buffer.reset(); }
+    @Override public synchronized void commitPrinterBufferWithCallback(ICallback cb) throws RemoteException { flush(cb); }
+
+    @Override
+    public synchronized void exitPrinterBufferWithCallback(boolean commit, ICallback cb) throws RemoteException {
+      buffering = false;
+      if (commit) flush(cb);
+      else buffer.reset();
+    }
+  };
+
+  @Override
+  public IBinder onBind(Intent intent) {
+    return binder;
+  }
+}
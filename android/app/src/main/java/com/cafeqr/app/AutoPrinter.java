@@ -0,0 +1,205 @@
+package com.cafeqr.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Opt-in native auto-print for new orders. When an FCM data message carries a
+// KOT - "ticket" (EscPosComposer JSON, optionally with a "templateId" naming a
+// template stored via configure()) or raw "kotBase64" - it is rendered and
+// queued here without waiting for the WebView. Each orderId prints once; the
+// outcome is logged and reported to the web app (autoPrint event).
+class AutoPrinter {
+
+  private static final String TAG = "AutoPrinter";
+  private static final String PREFS = "auto_print";
+  private static final int MAX_SEEN = 200;
+  private static final int MAX_LOG = 50;
+
+  interface Listener {
+    void onAutoPrint(JSObject result);
+  }
+
+  private static AutoPrinter instance;
+
+  static synchronized AutoPrinter get(Context ctx) {
+    if (instance == null) instance = new AutoPrinter(ctx.getApplicationContext());
+    return instance;
+  }
+
+  private final Context ctx;
+  private final SharedPreferences prefs;
+  private final LinkedHashSet<String> seen = new LinkedHashSet<>();
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+  private JSONArray log;
+
+  private AutoPrinter(Context ctx) {
+    this.ctx = ctx;
+    this.prefs = ctx.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    try {
+      JSONArray arr = new JSONArray(prefs.getString("seen", "[]"));
+      for (int i = 0; i < arr.length(); i++) seen.add(arr.getString(i));
+      log = new JSONArray(prefs.getString("log", "[]"));
+    } catch (Exception e) {
+      log = new JSONArray();
+    }
+  }
+
+  void addListener(Listener l) {
+    listeners.add(l);
+  }
+
+  void removeListener(Listener l) {
+    listeners.remove(l);
+  }
+
+  boolean isEnabled() {
+    return prefs.getBoolean("enabled", false);
+  }
+
+  // { enabled, address, nameContains, templates: { id: ticket defaults } }
+  void configure(JSONObject opts) {
+    SharedPreferences.Editor ed = prefs.edit();
+    if (opts.has("enabled")) ed.putBoolean("enabled", opts.optBoolean("enabled"));
+    if (opts.has("address")) ed.putString("address", opts.isNull("address") ? null : opts.optString("address"));
+    if (opts.has("nameContains")) ed.putString("nameContains", opts.isNull("nameContains") ? null : opts.optString("nameContains"));
+    JSONObject templates = opts.optJSONObject("templates");
+    if (templates != null) ed.putString("templates", templates.toString());
+    ed.apply();
+  }
+
+  // Called from the FCM service. Returns true when a ticket was queued.
+  boolean handle(Map<String, String> data) {
+    if (!isEnabled()) return false;
+    String orderId = data.get("orderId");
+    if (orderId == null || orderId.isEmpty()) return false;
+    if (!data.containsKey("ticket") && !data.containsKey("kotBase64")) return false;
+    if (!markSeen(orderId)) {
+      Log.d(TAG, "Order " + orderId + " already auto-printed, skipping redelivery");
+      return false;
+    }
+
+    byte[] bytes;
+    try {
+      bytes = render(data);
+    } catch (Exception e) {
+      report(orderId, null, "failed", e.getMessage());
+      return false;
+    }
+    try {
+      PrintDispatcher.get(ctx).submit(bytes, prefs.getString("address", null), prefs.getString("nameContains", null),
+        PrintJob.Priority.KOT, j -> report(orderId, j.id, j.state.name().toLowerCase(), j.error));
+      return true;
+    } catch (Exception e) {
+      unmarkSeen(orderId); // queue full: let a redelivery try again
+      report(orderId, null, "failed", e.getMessage());
+      return false;
+    }
+  }
+
+  // Printers this order will print on, as { address, nameContains }: the
+  // auto-print target when handle() takes it, else the stations its ticket's
+  // lines route to; empty when unknown
+  List<String[]> printersFor(Map<String, String> data) {
+    List<String[]> out = new ArrayList<>();
+    if (isEnabled() && (data.containsKey("ticket") || data.containsKey("kotBase64"))) {
+      out.add(new String[] { prefs.getString("address", null), prefs.getString("nameContains", null) });
+      return out;
+    }
+    StationRouter router = StationRouter.get(ctx);
+    String ticket = data.get("ticket");
+    if (ticket == null || !router.isConfigured()) return out;
+    try {
+      for (StationRouter.Ticket t : router.split(new JSONObject(ticket)).tickets) {
+        out.add(new String[] { t.station.address, t.station.nameContains });
+      }
+    } catch (Exception e) {
+      Log.w(TAG, "No stations for order " + data.get("orderId") + ": " + e.getMessage());
+    }
+    return out;
+  }
+
+  private byte[] render(Map<String, String> data) throws Exception {
+    String raw = data.get("kotBase64");
+    if (raw != null) return Base64.decode(raw, Base64.DEFAULT);
+    JSONObject ticket = new JSONObject(data.get("ticket"));
+    String templateId = ticket.optString("templateId", "");
+    if (!templateId.isEmpty()) {
+      JSONObject base = new JSONObject(prefs.getString("templates", "{}")).optJSONObject(templateId);
+      if (base != null) {
+        // Payload fields win over the stored template
+        for (Iterator<String> it = ticket.keys(); it.hasNext(); ) {
+          String k = it.next();
+          base.put(k, ticket.get(k));
+        }
+        ticket = base;
+      }
+    }
+    return EscPosComposer.compose(ticket, null, TextRaster.get(ctx));
+  }
+
+  private synchronized boolean markSeen(String orderId) {
+    if (!seen.add(orderId)) return false;
+    Iterator<String> it = seen.iterator();
+    while (seen.size() > MAX_SEEN && it.hasNext()) {
+      it.next();
+      it.remove();
+    }
+    saveSeen();
+    return true;
+  }
+
+  private synchronized void unmarkSeen(String orderId) {
+    if (seen.remove(orderId)) saveSeen();
+  }
+
+  private void saveSeen() {
+    // commit(): a redelivery may start a new process right after this one dies
+    prefs.edit().putString("seen", new JSONArray(seen).toString()).commit();
+  }
+
+  private void report(String orderId, String jobId, String state, String error) {
+    JSObject r = new JSObject();
+    r.put("orderId", orderId);
+    if (jobId != null) r.put("jobId", jobId);
+    r.put("state", state);
+    if (error != null) r.put("error", error);
+    r.put("at", System.currentTimeMillis());
+    synchronized (this) {
+      log.put(r);
+      if (log.length() > MAX_LOG) log.remove(0);
+      prefs.edit().putString("log", log.toString()).apply();
+    }
+    Log.i(TAG, "Auto-print " + orderId + ": " + state + (error != null ? " (" + error + ")" : ""));
+    for (Listener l : listeners) l.onAutoPrint(r);
+  }
+
+  synchronized JSObject toJson() {
+    JSObject o = new JSObject();
+    o.put("enabled", isEnabled());
+    o.put("address", prefs.getString("address", null));
+    o.put("nameContains", prefs.getString("nameContains", null));
+    JSArray ids = new JSArray();
+    try {
+      JSONObject templates = new JSONObject(prefs.getString("templates", "{}"));
+      for (Iterator<String> it = templates.keys(); it.hasNext(); ) ids.put(it.next());
+    } catch (Exception ignored) {}
+    o.put("templates", ids);
+    o.put("recent", log);
+    return o;
+  }
+}
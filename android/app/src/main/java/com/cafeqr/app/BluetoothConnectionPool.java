@@ -0,0 +1,258 @@
+package com.cafeqr.app;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Keeps RFCOMM sockets open between print jobs, keyed by device address.
+// Back-to-back tickets reuse the socket and skip the 1-3 s connect handshake.
+class BluetoothConnectionPool {
+
+  private static final String TAG = "BtPool";
+  static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+  static final long DEFAULT_IDLE_TIMEOUT_MS = 90_000;
+  static final int NOT_PROBED = -2;
+
+  private static BluetoothConnectionPool instance;
+
+  static synchronized BluetoothConnectionPool shared() {
+    if (instance == null) instance = new BluetoothConnectionPool();
+    return instance;
+  }
+
+  private static final class Entry {
+    final String address;
+    final ReentrantLock lock = new ReentrantLock();
+    BluetoothSocket socket;
+    OutputStream out;
+    InputStream in;
+    boolean reflective;
+    long lastUsedAt;
+
+    Entry(String address) { this.address = address; }
+  }
+
+  private final Map<String, Entry> entries = new HashMap<>();
+  private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "bt-pool-reaper");
+    t.setDaemon(true);
+    return t;
+  });
+  private volatile long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+
+  private BluetoothConnectionPool() {
+    reaper.scheduleWithFixedDelay(this::evictIdle, 15, 15, TimeUnit.SECONDS);
+  }
+
+  void setIdleTimeoutMs(long ms) {
+    idleTimeoutMs = Math.max(1_000, ms);
+  }
+
+  long getIdleTimeoutMs() {
+    return idleTimeoutMs;
+  }
+
+  private synchronized Entry entryFor(String address) {
+    String key = address.toUpperCase();
+    Entry e = entries.get(key);
+    if (e == null) {
+      e = new Entry(key);
+      entries.put(key, e);
+    }
+    return e;
+  }
+
+  // Runs work on a pooled connection. A reused socket that fails before the
+  // first byte went out is reopened once and the work retried; a fresh socket,
+  // or one that failed mid-ticket (rerunning would print the start twice), is
+  // not. Returns true when that retry happened. An IOException from work marks
+  // the socket dead.
+  boolean execute(BluetoothDevice dev, PrinterTransport.Work work) throws IOException {
+    Entry e = entryFor(dev.getAddress());
+    e.lock.lock();
+    try {
+      boolean reused = isHealthy(e);
+      boolean retried = false;
+      if (!reused) open(e, dev);
+      CountingOutputStream out = new CountingOutputStream(e.out);
+      try {
+        work.run(out, e.in);
+      } catch (IOException first) {
+        close(e);
+        if (!reused || out.written() > 0) throw first;
+        Log.w(TAG, "Pooled socket to " + e.address + " went stale, reconnecting: " + first.getMessage());
+        open(e, dev);
+        retried = true;
+        try {
+          work.run(e.out, e.in);
+        } catch (IOException second) {
+          close(e);
+          throw second;
+        }
+      }
+      e.lastUsedAt = System.currentTimeMillis();
+      return retried;
+    } finally {
+      e.lock.unlock();
+    }
+  }
+
+  // Opens (or validates) the pooled socket without writing anything
+  void connect(BluetoothDevice dev) throws IOException {
+    Entry e = entryFor(dev.getAddress());
+    e.lock.lock();
+    try {
+      if (!isHealthy(e)) open(e, dev);
+      e.lastUsedAt = System.currentTimeMillis();
+    } finally {
+      e.lock.unlock();
+    }
+  }
+
+  // DLE EOT status check over an idle pooled socket. Returns the status byte,
+  // -1 when the printer stayed silent, or NOT_PROBED when there is no idle
+  // socket (busy or closed); never opens one and does not count as use, so
+  // idle eviction is unaffected. A dead link is closed and thrown.
+  int probe(String address, int timeoutMs) throws IOException {
+    Entry e = entryFor(address);
+    if (!e.lock.tryLock()) return NOT_PROBED;
+    try {
+      if (!isHealthy(e)) return NOT_PROBED;
+      try {
+        return PacedWriter.settle(e.out, e.in, new PacingProfile("probe", 16, 0, 0, timeoutMs, true));
+      } catch (IOException ex) {
+        close(e);
+        throw ex;
+      }
+    } finally {
+      e.lock.unlock();
+    }
+  }
+
+  // True when an idle, still-connected socket is available for this address.
+  boolean isWarm(String address) {
+    Entry e = entryFor(address);
+    if (!e.lock.tryLock()) return true; // busy means connected
+    try {
+      return isHealthy(e);
+    } finally {
+      e.lock.unlock();
+    }
+  }
+
+  private boolean isHealthy(Entry e) {
+    if (e.socket == null || e.out == null) return false;
+    if (!e.socket.isConnected()) return false;
+    if (System.currentTimeMillis() - e.lastUsedAt > idleTimeoutMs) return false;
+    try {
+      // Throws once the remote side has dropped the link
+      e.in.available();
+      return true;
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+
+  private void open(Entry e, BluetoothDevice dev) throws IOException {
+    close(e);
+    try { BluetoothAdapter.getDefaultAdapter().cancelDiscovery(); } catch (Exception ignored) {}
+
+    BluetoothSocket sock = null;
+    try {
+      try {
+        sock = dev.createInsecureRfcommSocketToServiceRecord(SPP_UUID);
+      } catch (Exception ex) {
+        sock = dev.createRfcommSocketToServiceRecord(SPP_UUID);
+      }
+      sock.connect();
+      e.reflective = false;
+    } catch (IOException primary) {
+      closeQuietly(sock);
+      // Fallback reflection socket (channel 1) for clones with a broken SDP record
+      try {
+        sock = (BluetoothSocket) dev.getClass()
+          .getMethod("createRfcommSocket", int.class).invoke(dev, 1);
+        sock.connect();
+        e.reflective = true;
+      } catch (Exception ex) {
+        closeQuietly(sock);
+        throw primary;
+      }
+    }
+    e.socket = sock;
+    e.out = sock.getOutputStream();
+    e.in = sock.getInputStream();
+    e.lastUsedAt = System.currentTimeMillis();
+  }
+
+  private void close(Entry e) {
+    if (e.out != null) {
+      try { e.out.close(); } catch (Exception ignored) {}
+    }
+    if (e.in != null) {
+      try { e.in.close(); } catch (Exception ignored) {}
+    }
+    closeQuietly(e.socket);
+    e.in = null;
+    e.out = null;
+    e.socket = null;
+  }
+
+  private static void closeQuietly(BluetoothSocket s) {
+    if (s == null) return;
+    try { s.close(); } catch (Exception ignored) {}
+  }
+
+  private void evictIdle() {
+    long now = System.currentTimeMillis();
+    for (Entry e : snapshot()) {
+      if (!e.lock.tryLock()) continue; // in use
+      try {
+        if (e.socket != null && now - e.lastUsedAt > idleTimeoutMs) {
+          Log.d(TAG, "Evicting idle socket " + e.address);
+          close(e);
+        }
+      } finally {
+        e.lock.unlock();
+      }
+    }
+  }
+
+  void closeAll() {
+    for (Entry e : snapshot()) {
+      e.lock.lock();
+      try {
+        close(e);
+      } finally {
+        e.lock.unlock();
+      }
+    }
+  }
+
+  private synchronized List<Entry> snapshot() {
+    return new ArrayList<>(entries.values());
+  }
+
+  // Addresses with a currently open socket (diagnostics)
+  List<String> openAddresses() {
+    List<String> out = new ArrayList<>();
+    for (Entry e : snapshot()) {
+      if (e.socket != null) out.add(e.address);
+    }
+    return out;
+  }
+}
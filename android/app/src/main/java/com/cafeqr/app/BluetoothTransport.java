@@ -0,0 +1,27 @@
+package com.cafeqr.app;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.io.IOException;
+
+// RFCOMM to one bonded printer through the shared connection pool
+final class BluetoothTransport implements PrinterTransport {
+
+  private final BluetoothConnectionPool pool;
+  private final BluetoothDevice device;
+
+  BluetoothTransport(BluetoothConnectionPool pool, BluetoothDevice device) {
+    this.pool = pool;
+    this.device = device;
+  }
+
+  @Override
+  public String name() {
+    return "bt";
+  }
+
+  @Override
+  public boolean execute(Work work) throws IOException {
+    return pool.execute(device, work);
+  }
+}
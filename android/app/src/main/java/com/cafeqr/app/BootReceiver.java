@@ -1,8 +1,10 @@
 package com.cafeqr.app;
 
+import android.bluetooth.BluetoothAdapter;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Build;
 import android.util.Log;
 
@@ -13,6 +15,7 @@ public class BootReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
+        Startup.launchedBy("boot");
         String action = intent.getAction();
         Log.d(TAG, "Received action: " + action);
 
@@ -26,6 +29,45 @@ public class BootReceiver extends BroadcastReceiver {
                 context.startService(serviceIntent);
             }
             Log.d(TAG, "Foreground service restarted");
+
+            if (PrintHubServer.get(context).isEnabled()) {
+                PrintHubService.start(context);
+                Log.d(TAG, "Print hub restarted");
+            }
+
+            replayWhenBluetoothOn(context.getApplicationContext());
         }
     }
+
+    // Reprint tickets that were spooled but not confirmed before the reboot.
+    // Right after boot Bluetooth is usually still off and every replayed job
+    // would fail and be dropped, so wait for STATE_ON. Without Bluetooth (and
+    // for USB, whose permission is granted again through the app) the plugin
+    // replays the spool when the app opens.
+    private static void replayWhenBluetoothOn(Context app) {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null) return;
+        BroadcastReceiver onBluetooth = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context c, Intent intent) {
+                if (intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, -1) != BluetoothAdapter.STATE_ON) return;
+                app.unregisterReceiver(this);
+                replay(app);
+            }
+        };
+        // Registered before checking (both on the main thread), so turning on in between is not missed
+        ContextCompat.registerReceiver(app, onBluetooth, new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED),
+                ContextCompat.RECEIVER_NOT_EXPORTED);
+        if (adapter.getState() == BluetoothAdapter.STATE_ON) {
+            app.unregisterReceiver(onBluetooth);
+            replay(app);
+        } else {
+            Log.d(TAG, "Spool replay waits for Bluetooth");
+        }
+    }
+
+    // Once per process, so a replay the plugin already ran makes this a no-op
+    private static void replay(Context app) {
+        new Thread(() -> PrintDispatcher.get(app).replaySpool(), "print-spool-replay").start();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.cafeqr.app;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Counts the bytes the underlying stream accepted, so a failed job can tell
+// whether any of it may already be on paper. Plain java.io only.
+final class CountingOutputStream extends FilterOutputStream {
+
+  private long written;
+
+  CountingOutputStream(OutputStream out) {
+    super(out);
+  }
+
+  long written() {
+    return written;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    out.write(b);
+    written++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    out.write(b, off, len);
+    written += len;
+  }
+}
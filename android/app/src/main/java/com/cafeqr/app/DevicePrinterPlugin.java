@@ -2,6 +2,7 @@
 
 package com.cafeqr.app;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
@@ -10,17 +11,11 @@ import com.getcapacitor.annotation.CapacitorPlugin;
 
 import android.Manifest;
 import android.app.AlertDialog;
-import android.app.PendingIntent;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.hardware.usb.*;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
@@ -28,10 +23,9 @@ import android.os.Looper;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
-import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
-import java.util.UUID;
 
 @CapacitorPlugin(name = "DevicePrinter")
 public class DevicePrinterPlugin extends Plugin {
@@ -39,6 +33,35 @@ public class DevicePrinterPlugin extends Plugin {
   private static final int REQ_BT = 901;
   private String pendingPermCallbackId = null;
 
+  private final PrintJob.Listener jobListener = j -> notifyListeners("printJob", j.toJson());
+  // Retained so a result that lands before JS subscribes is still delivered
+  private final AutoPrinter.Listener autoPrintListener = r -> notifyListeners("autoPrint", r, true);
+  private PrintStreams printStreams;
+
+  @Override
+  public void load() {
+    // Runs while the bridge starts: only the job listener is wired here, the
+    // rest is deferred off the main thread
+    long t0 = Startup.begin("printer-plugin-load");
+    Context ctx = getContext();
+    PrintDispatcher dispatcher = PrintDispatcher.get(ctx);
+    dispatcher.addListener(jobListener);
+    Startup.end("printer-plugin-load", t0);
+
+    Startup.defer("auto-print-listener", () -> AutoPrinter.get(ctx).addListener(autoPrintListener));
+    Startup.defer("print-streams", this::printStreams);
+    // Bound for the life of the process; no-op on devices without the service
+    Startup.defer("sunmi-bind", () -> SunmiPrinter.get(ctx).bind());
+    // Tickets spooled before a crash/reboot go out now (no-op if BootReceiver already did it)
+    Startup.defer("print-spool-replay", dispatcher::replaySpool);
+  }
+
+  // Created on first use; the constructor sweeps stale upload files from disk
+  private synchronized PrintStreams printStreams() {
+    if (printStreams == null) printStreams = new PrintStreams(getContext().getFilesDir());
+    return printStreams;
+  }
+
   // Ask runtime permissions (Android 12+ uses BLUETOOTH_CONNECT/SCAN)
   @PluginMethod()
   public void ensurePermissions(PluginCall call) {
@@ -87,114 +110,163 @@ public class DevicePrinterPlugin extends Plugin {
       String b64 = call.getString("base64");
       if (b64 == null) { call.reject("base64 required"); return; }
       byte[] data = android.util.Base64.decode(b64, android.util.Base64.DEFAULT);
-      UsbManager mgr = (UsbManager) getContext().getSystemService(Context.USB_SERVICE);
-      for (UsbDevice dev : mgr.getDeviceList().values()) {
-        for (int i=0;i<dev.getInterfaceCount();i++) {
-          UsbInterface intf = dev.getInterface(i);
-          for (int j=0;j<intf.getEndpointCount();j++) {
-            UsbEndpoint ep = intf.getEndpoint(j);
-            if (ep.getDirection() == UsbConstants.USB_DIR_OUT) {
-              PendingIntent pi = PendingIntent.getBroadcast(getContext(), 0, new Intent("USB_PERMISSION"), PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_MUTABLE);
-              if (!mgr.hasPermission(dev)) { mgr.requestPermission(dev, pi); }
-              UsbDeviceConnection conn = mgr.openDevice(dev);
-              conn.claimInterface(intf, true);
-              conn.bulkTransfer(ep, data, data.length, 5000);
-              conn.close();
-              call.resolve();
-              return;
-            }
-          }
-        }
+      if (UsbSessionManager.get(getContext()).write(data)) {
+        call.resolve();
+      } else {
+        call.reject("No USB OUT endpoint");
       }
-      call.reject("No USB OUT endpoint");
     } catch (Exception e) { call.reject(e.getMessage()); }
   }
 
+  // Built-in printer on Sunmi terminals: { text, align: "left" | "center" | "right",
+  // feed: 3, cut: false }. One buffered transaction; resolves once printed.
   @PluginMethod()
   public void printSunmiText(PluginCall call) {
-    try {
-      String text = call.getString("text", "");
-      // SunmiPrinterService via AIDL; bind and print
-      // ... bind service and send text with line feeds + cut
-      call.resolve();
-    } catch (Exception e) { call.reject(e.getMessage()); }
+    SunmiPrinter sunmi = SunmiPrinter.get(getContext());
+    if (!sunmi.isAvailable()) { call.reject("No Sunmi printer on this device"); return; }
+    String text = call.getString("text", "");
+    String alignName = call.getString("align", "left");
+    int align = "center".equals(alignName) ? 1 : "right".equals(alignName) ? 2 : 0;
+    int feed = Math.max(0, Math.min(10, call.getInt("feed", 3)));
+    boolean cut = call.getBoolean("cut", false);
+    sunmi.transact(s -> {
+      s.setAlignment(align, null);
+      s.printText(text.endsWith("\n") ? text : text + "\n", null);
+      s.lineWrap(feed, null);
+      if (cut) s.sendRAWData(new byte[]{ 0x1d, 'V', 1 }, null);
+    }, (ok, code, msg) -> resolveSunmi(call, ok, code, msg));
   }
 
-  // One‑time picker dialog: short discovery, list bonded + found, return {name,address}
-@PluginMethod()
-public void pickPrinter(PluginCall call) {
-  BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
-  if (adapter == null || !adapter.isEnabled()) {
-    call.reject("Bluetooth disabled");
-    return;
+  // Raw ESC/POS to the Sunmi printer: { base64 }, one buffered transaction
+  @PluginMethod()
+  public void printSunmiRaw(PluginCall call) {
+    SunmiPrinter sunmi = SunmiPrinter.get(getContext());
+    if (!sunmi.isAvailable()) { call.reject("No Sunmi printer on this device"); return; }
+    String b64 = call.getString("base64");
+    if (b64 == null) { call.reject("base64 required"); return; }
+    byte[] data = android.util.Base64.decode(b64, android.util.Base64.DEFAULT);
+    sunmi.printRaw(data, (ok, code, msg) -> resolveSunmi(call, ok, code, msg));
   }
 
-  ArrayList<BluetoothDevice> devices = new ArrayList<>();
-  ArrayList<String> labels = new ArrayList<>();
-
-  try {
-    Set<BluetoothDevice> bonded = adapter.getBondedDevices();
-    if (bonded != null) {
-      for (BluetoothDevice d : bonded) {
-        devices.add(d);
-        String n = (d.getName() == null ? "Unknown" : d.getName());
-        labels.add("Paired • " + n + " (" + d.getAddress() + ")");
-      }
-    }
-  } catch (Exception ignored) {}
+  @PluginMethod()
+  public void getSunmiStatus(PluginCall call) {
+    call.resolve(SunmiPrinter.get(getContext()).toJson());
+  }
 
-  android.widget.ArrayAdapter<String> arrayAdapter =
-      new android.widget.ArrayAdapter<>(getActivity(),
-        android.R.layout.select_dialog_item, labels);
+  private static void resolveSunmi(PluginCall call, boolean ok, int code, String msg) {
+    if (!ok) { call.reject(msg != null ? msg : "Sunmi print failed (" + code + ")"); return; }
+    JSObject r = new JSObject();
+    r.put("code", code);
+    if (msg != null) r.put("message", msg);
+    call.resolve(r);
+  }
 
-  AlertDialog.Builder b = new AlertDialog.Builder(getActivity());
-  b.setTitle("Select printer");
-  b.setAdapter(arrayAdapter, (dialog, which) -> {
-    if (devices.isEmpty()) {
-      call.reject("No devices");
+  // Picker dialog: opens at once with bonded and recently discovered devices,
+  // best candidates first (PrinterDiscovery), while a bounded scan adds new
+  // ones in place. Resolves with { name, address }.
+  @PluginMethod()
+  public void pickPrinter(PluginCall call) {
+    BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+    if (adapter == null || !adapter.isEnabled()) {
+      call.reject("Bluetooth disabled");
       return;
     }
-    int idx = Math.max(0, Math.min(which, devices.size() - 1));
-    BluetoothDevice chosen = devices.get(idx);
-    JSObject out = new JSObject();
-    out.put("name", chosen.getName());
-    out.put("address", chosen.getAddress());
-    call.resolve(out);
-  });
-  b.setOnCancelListener(d -> call.reject("Picker cancelled"));
-  AlertDialog dialog = b.show();
-
-  BroadcastReceiver receiver = new BroadcastReceiver() {
-    @Override
-    public void onReceive(Context ctx, Intent intent) {
-      String action = intent.getAction();
-      if (BluetoothDevice.ACTION_FOUND.equals(action)) {
-        BluetoothDevice d = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-        if (d == null) return;
-        for (BluetoothDevice e : devices) {
-          if (e.getAddress().equals(d.getAddress())) return;
-        }
-        devices.add(d);
-        String n = (d.getName() == null ? "Unknown" : d.getName());
-        labels.add(n + " (" + d.getAddress() + ")");
-        arrayAdapter.notifyDataSetChanged();
-      } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
-        try { getContext().unregisterReceiver(this); } catch (Exception ignored) {}
+    getActivity().runOnUiThread(() -> showPicker(call, adapter));
+  }
+
+  // Main thread
+  private void showPicker(PluginCall call, BluetoothAdapter adapter) {
+    PrinterDiscovery discovery = PrinterDiscovery.get(getContext());
+    List<PrinterDiscovery.Candidate> shown = new ArrayList<>(discovery.ranked(adapter));
+    ArrayList<String> labels = new ArrayList<>();
+    for (PrinterDiscovery.Candidate c : shown) labels.add(pickerLabel(c));
+
+    android.widget.ArrayAdapter<String> arrayAdapter =
+      new android.widget.ArrayAdapter<>(getActivity(), android.R.layout.select_dialog_item, labels);
+    PrinterDiscovery.Listener updates = (ranked, finished, error) -> {
+      shown.clear();
+      shown.addAll(ranked);
+      labels.clear();
+      for (PrinterDiscovery.Candidate c : ranked) labels.add(pickerLabel(c));
+      arrayAdapter.notifyDataSetChanged();
+    };
+
+    AlertDialog.Builder b = new AlertDialog.Builder(getActivity());
+    b.setTitle("Select printer");
+    b.setAdapter(arrayAdapter, (dialog, which) -> {
+      if (shown.isEmpty()) {
+        call.reject("No devices");
+        return;
       }
-    }
-  };
+      PrinterDiscovery.Candidate chosen = shown.get(Math.max(0, Math.min(which, shown.size() - 1)));
+      JSObject out = new JSObject();
+      out.put("name", chosen.name);
+      out.put("address", chosen.address);
+      call.resolve(out);
+    });
+    b.setOnCancelListener(d -> call.reject("Picker cancelled"));
+    // Ends the scan too, unless discoverPrinters is also waiting on it
+    b.setOnDismissListener(d -> discovery.removeListener(updates));
+    b.show();
+
+    discovery.addListener(updates);
+    discovery.scan(adapter, PrinterDiscovery.DEFAULT_SCAN_MS, false);
+  }
 
-  try {
-    IntentFilter f = new IntentFilter();
-    f.addAction(BluetoothDevice.ACTION_FOUND);
-    f.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
-    getContext().registerReceiver(receiver, f);
-    try { adapter.cancelDiscovery(); } catch (Exception ignored) {}
-    adapter.startDiscovery();
-  } catch (Exception e) {
-    try { getContext().unregisterReceiver(receiver); } catch (Exception ignored) {}
+  private static String pickerLabel(PrinterDiscovery.Candidate c) {
+    String n = c.name.isEmpty() ? "Unknown" : c.name;
+    if (c.bonded) return "Paired • " + n + " (" + c.address + ")";
+    return n + " (" + c.address + ")" + (c.hasRssi() ? " • " + c.rssi + " dBm" : "");
+  }
+
+  // Bounded Bluetooth scan: { durationMs: 10000, force, ttlMs }. Emits
+  // "printerDiscovery" { printers, finished } as results change; resolves with
+  // { printers, scanned } when done, or at once from the cache when the last
+  // scan is recent and force is not set.
+  @PluginMethod()
+  public void discoverPrinters(PluginCall call) {
+    BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+    if (adapter == null || !adapter.isEnabled()) { call.reject("Bluetooth disabled"); return; }
+    long duration = call.getLong("durationMs", PrinterDiscovery.DEFAULT_SCAN_MS);
+    boolean force = call.getBoolean("force", false);
+    Long ttl = call.getLong("ttlMs");
+    new Handler(Looper.getMainLooper()).post(() -> {
+      PrinterDiscovery discovery = PrinterDiscovery.get(getContext());
+      discovery.configure(ttl);
+      boolean[] done = { false };
+      PrinterDiscovery.Listener[] self = new PrinterDiscovery.Listener[1];
+      self[0] = (ranked, finished, error) -> {
+        JSArray printers = PrinterDiscovery.toJson(ranked);
+        notifyListeners("printerDiscovery", new JSObject().put("printers", printers).put("finished", finished));
+        if (!finished || done[0]) return;
+        done[0] = true;
+        discovery.removeListener(self[0]);
+        if (error != null) call.reject(error);
+        else call.resolve(new JSObject().put("printers", printers).put("scanned", true));
+      };
+      discovery.addListener(self[0]);
+      if (!discovery.scan(adapter, duration, force) && !done[0]) {
+        done[0] = true;
+        discovery.removeListener(self[0]);
+        call.resolve(new JSObject().put("printers", PrinterDiscovery.toJson(discovery.ranked(adapter))).put("scanned", false));
+      }
+    });
+  }
+
+  // Bonded plus cached discovery results, ranked, without scanning
+  @PluginMethod()
+  public void getDiscoveredPrinters(PluginCall call) {
+    BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+    if (adapter == null || !adapter.isEnabled()) { call.reject("Bluetooth disabled"); return; }
+    new Handler(Looper.getMainLooper()).post(() -> {
+      PrinterDiscovery discovery = PrinterDiscovery.get(getContext());
+      JSObject out = new JSObject();
+      out.put("printers", PrinterDiscovery.toJson(discovery.ranked(adapter)));
+      out.put("scanning", discovery.isScanning());
+      out.put("ttlMs", discovery.getTtlMs());
+      call.resolve(out);
+    });
   }
-} 
 
   // Optional: trigger system pairing (PIN often 0000/1234 on POS printers)
   @PluginMethod()
@@ -232,234 +304,565 @@ public void pickPrinter(PluginCall call) {
     } catch (Exception e) { call.reject(e.getMessage()); }
   }
 
-  // Print raw ESC/POS (runs on a worker thread)
+  // Indexed printers with transport, capabilities and last connect latency
+  @PluginMethod()
+  public void getPrinters(PluginCall call) {
+    JSObject out = new JSObject();
+    out.put("printers", PrinterIndex.get(getContext()).toJson());
+    call.resolve(out);
+  }
+
+  // Pacing used for a Bluetooth printer (learned or pinned)
+  @PluginMethod()
+  public void getPacing(PluginCall call) {
+    String addr = call.getString("address");
+    if (addr == null || addr.isEmpty()) { call.reject("address required"); return; }
+    call.resolve(PacingStore.get(getContext()).toJson(addr));
+  }
+
+  // profile: "auto" | "legacy" | "balanced" | "fast", optionally with
+  // chunkSize / chunkDelayMs / resetDelayMs / settleDelayMs / waitForStatus overrides
+  @PluginMethod()
+  public void setPacing(PluginCall call) {
+    String addr = call.getString("address");
+    if (addr == null || addr.isEmpty()) { call.reject("address required"); return; }
+    PacingStore store = PacingStore.get(getContext());
+    store.configure(addr, call.getData());
+    call.resolve(store.toJson(addr));
+  }
+
+  // Tune how long pooled Bluetooth sockets stay open between jobs
+  @PluginMethod()
+  public void configureConnectionPool(PluginCall call) {
+    BluetoothConnectionPool pool = BluetoothConnectionPool.shared();
+    Long idle = call.getLong("idleTimeoutMs");
+    if (idle != null) pool.setIdleTimeoutMs(idle);
+    if (Boolean.TRUE.equals(call.getBoolean("closeAll", false))) pool.closeAll();
+    JSObject out = new JSObject();
+    out.put("idleTimeoutMs", pool.getIdleTimeoutMs());
+    out.put("open", new JSArray(pool.openAddresses()));
+    call.resolve(out);
+  }
+
+  // Native auto-print of KOTs from FCM: { enabled, address, nameContains,
+  // templates: { id: ticket defaults } }. Resolves with the config and recent results.
+  @PluginMethod()
+  public void configureAutoPrint(PluginCall call) {
+    AutoPrinter auto = AutoPrinter.get(getContext());
+    auto.configure(call.getData());
+    call.resolve(auto.toJson());
+  }
+
+  @PluginMethod()
+  public void getAutoPrint(PluginCall call) {
+    call.resolve(AutoPrinter.get(getContext()).toJson());
+  }
+
+  // Stage latency histograms (queue, route, connect, write, settle; p50/p90/p99/max)
+  // and retry/fallback/failure counters per printer+transport and per transport
+  @PluginMethod()
+  public void getPrinterStats(PluginCall call) {
+    call.resolve(PrintStats.shared().toJson());
+  }
+
+  // { logIntervalMs } logs a summary line per printer periodically (0 = off); { reset: true }
+  @PluginMethod()
+  public void configurePrinterStats(PluginCall call) {
+    PrintStats stats = PrintStats.shared();
+    Long interval = call.getLong("logIntervalMs");
+    if (interval != null) stats.setLogIntervalMs(interval);
+    if (Boolean.TRUE.equals(call.getBoolean("reset", false))) stats.reset();
+    call.resolve(stats.toJson());
+  }
+
+  // Cold start timeline: { launchedBy, timeToFirstFrameMs, timeToReadyMs,
+  // sections: [{ name, startMs, durationMs, deferred }] }, ms since process start
+  @PluginMethod()
+  public void getStartupTrace(PluginCall call) {
+    call.resolve(Startup.toJson());
+  }
+
+  // Called by the web app once its first screen has rendered
+  @PluginMethod()
+  public void markStartupReady(PluginCall call) {
+    long ms = Startup.markReady(getActivity());
+    call.resolve(new JSObject().put("timeToReadyMs", ms));
+  }
+
+  // Circuit breaker state per Bluetooth printer (closed / open / half_open)
+  @PluginMethod()
+  public void getPrinterHealth(PluginCall call) {
+    call.resolve(PrinterHealth.get(getContext()).toJson());
+  }
+
+  // { intervalMs (0 = no background probes), failureThreshold, reset: address | true }
+  @PluginMethod()
+  public void configurePrinterHealth(PluginCall call) {
+    PrinterHealth health = PrinterHealth.get(getContext());
+    Long interval = call.getLong("intervalMs");
+    if (interval != null) health.setIntervalMs(interval);
+    Integer threshold = call.getInt("failureThreshold");
+    if (threshold != null) health.setFailureThreshold(threshold);
+    Object reset = call.getData().opt("reset");
+    if (Boolean.TRUE.equals(reset)) health.reset(null);
+    else if (reset instanceof String) health.reset((String) reset);
+    call.resolve(health.toJson());
+  }
+
+  // Routing debug info: { budgetMs, lastGood: { printer: "usb"|"bt" }, recent: [decision] }
+  @PluginMethod()
+  public void getRoutes(PluginCall call) {
+    call.resolve(RouteSelector.get(getContext()).toJson());
+  }
+
+  // { budgetMs } before hedging to the other transport; { forget: printerKey | true }
+  // clears remembered routes
+  @PluginMethod()
+  public void configureRouting(PluginCall call) {
+    RouteSelector routes = RouteSelector.get(getContext());
+    Long budget = call.getLong("budgetMs");
+    if (budget != null) routes.setBudgetMs(budget);
+    Object forget = call.getData().opt("forget");
+    if (Boolean.TRUE.equals(forget)) routes.forget(null);
+    else if (forget instanceof String) routes.forget((String) forget);
+    call.resolve(routes.toJson());
+  }
+
+  // Network printers ("tcp://host[:port]" as address): { connectTimeoutMs,
+  // writeTimeoutMs, idleMs } and the open connections
+  @PluginMethod()
+  public void configureNetworkPrinting(PluginCall call) {
+    TcpConnectionPool pool = TcpConnectionPool.shared();
+    pool.setTimeouts(call.getInt("connectTimeoutMs"), call.getInt("writeTimeoutMs"), call.getLong("idleMs"));
+    JSObject out = new JSObject();
+    out.put("connectTimeoutMs", pool.getConnectTimeoutMs());
+    out.put("writeTimeoutMs", pool.getWriteTimeoutMs());
+    out.put("idleMs", pool.getIdleMs());
+    JSArray list = new JSArray();
+    for (java.util.Map.Entry<String, long[]> e : pool.stats().entrySet()) {
+      JSObject c = new JSObject();
+      c.put("printer", e.getKey());
+      c.put("open", e.getValue()[0] == 1);
+      c.put("jobs", e.getValue()[1]);
+      c.put("reconnects", e.getValue()[2]);
+      list.put(c);
+    }
+    out.put("connections", list);
+    call.resolve(out);
+  }
+
+  // Order as last received by FCM (or saved by cacheOrder), for rendering a
+  // tapped notification before the network fetch: { orderId } ->
+  // { found, orderId, receivedAt, updatedAt, data, order? }
+  @PluginMethod()
+  public void getCachedOrder(PluginCall call) {
+    String orderId = call.getString("orderId");
+    if (orderId == null) { call.reject("orderId required"); return; }
+    JSObject o = OrderStore.get(getContext()).get(orderId);
+    if (o == null) o = new JSObject().put("orderId", orderId);
+    o.put("found", o.has("data"));
+    call.resolve(o);
+  }
+
+  // Replace the cached copy with a fresh one: { orderId, order }
+  @PluginMethod()
+  public void cacheOrder(PluginCall call) {
+    String orderId = call.getString("orderId");
+    JSObject order = call.getObject("order");
+    if (orderId == null || order == null) { call.reject("orderId and order required"); return; }
+    OrderStore.get(getContext()).put(orderId, new JSObject().put("order", order));
+    call.resolve();
+  }
+
+  // { limit: 50 } -> { orders: [{ orderId, receivedAt, updatedAt }] newest first, stats }
+  @PluginMethod()
+  public void listCachedOrders(PluginCall call) {
+    OrderStore store = OrderStore.get(getContext());
+    JSObject out = new JSObject();
+    out.put("orders", store.list(Math.max(1, call.getInt("limit", 50))));
+    out.put("stats", store.stats());
+    call.resolve(out);
+  }
+
+  // { maxOrders: 300, maxAgeMs: 86400000, clear }
+  @PluginMethod()
+  public void configureOrderCache(PluginCall call) {
+    OrderStore store = OrderStore.get(getContext());
+    if (call.getBoolean("clear", false)) store.clear();
+    store.configure(call.getInt("maxOrders"), call.getLong("maxAgeMs"));
+    call.resolve(store.stats());
+  }
+
+  // Makes this device a print hub for others on the LAN: serves the same
+  // POST /printRaw { printerName, dataBase64 } as print-hub-win, in a foreground
+  // service that also comes back after reboot. Options (kept when omitted):
+  // { port: 3333, rawPort: 0, maxPerClient: 2, token?, defaultPrinter?,
+  //   printers: { "Kitchen": { address?, nameContains? } } }
+  // rawPort needs defaultPrinter: raw jobs name no printer.
+  @PluginMethod()
+  public void startPrintHub(PluginCall call) {
+    PrintHubServer hub = PrintHubServer.get(getContext());
+    JSObject cfg = call.getData();
+    if (cfg.optInt("rawPort", 0) > 0 && (!cfg.has("defaultPrinter") || cfg.isNull("defaultPrinter"))) {
+      call.reject("rawPort needs a defaultPrinter");
+      return;
+    }
+    hub.save(cfg.length() > 0 ? cfg : null, true);
+    PrintHubService.start(getContext());
+    call.resolve(hub.toJson());
+  }
+
+  @PluginMethod()
+  public void stopPrintHub(PluginCall call) {
+    PrintHubServer hub = PrintHubServer.get(getContext());
+    hub.save(null, false);
+    PrintHubService.stop(getContext());
+    call.resolve(hub.toJson());
+  }
+
+  // { enabled, running, port, addresses, clients: [{ ip, inFlight, jobs, rejected }], lastError? }
+  @PluginMethod()
+  public void getPrintHubStatus(PluginCall call) {
+    call.resolve(PrintHubServer.get(getContext()).toJson());
+  }
+
+  @Override
+  protected void handleOnDestroy() {
+    PrintDispatcher.get(getContext()).removeListener(jobListener);
+    AutoPrinter.get(getContext()).removeListener(autoPrintListener);
+    BluetoothConnectionPool.shared().closeAll();
+    UsbSessionManager.get(getContext()).closeAll();
+    TcpConnectionPool.shared().closeAll();
+    super.handleOnDestroy();
+  }
+
+  // Print raw ESC/POS (runs on the target printer's queue worker).
+  // Resolves when printed; pass wait:false to resolve as soon as the job is queued.
+  // priority: "kot" | "receipt" (default) | "report", see PrintQueue.
   @PluginMethod()
   public void printRaw(PluginCall call) {
     String base64 = call.getString("base64");
-    String btAddress = call.getString("address");
-    String nameContains = call.getString("nameContains");
+    if (base64 == null) { call.reject("base64 required"); return; }
     byte[] data = android.util.Base64.decode(base64, android.util.Base64.DEFAULT);
+    submitJob(call, data);
+  }
 
-    new Thread(() -> {
-      try {
-        if (tryUsb(getContext(), data)) {
-          call.resolve(new JSObject().put("via", "usb"));
-          return;
-        }
-        if (tryBluetooth(getContext(), data, btAddress, nameContains)) {
-          call.resolve(new JSObject().put("via", "bt"));
-          return;
-        }
-        call.reject("No USB/Bluetooth path");
-      } catch (Exception e) {
-        call.reject(e.getMessage());
-      }
-    }).start();
+  // Print a file without loading it: { uri } is a content:// URI from our
+  // FileProvider, a file:// URI or an app-private path. Same options as printRaw.
+  @PluginMethod()
+  public void printFile(PluginCall call) {
+    String uri = call.getString("uri");
+    if (uri == null || uri.isEmpty()) { call.reject("uri required"); return; }
+    PrintPayload payload = PrintPayload.fromUriString(getContext(), uri);
+    if (payload.length() == 0) { call.reject("Empty or unreadable file"); return; }
+    submitJob(call, payload, null);
   }
 
-  private boolean tryUsb(Context ctx, byte[] data) throws Exception {
-    UsbManager mgr = (UsbManager) ctx.getSystemService(Context.USB_SERVICE);
-    if (mgr == null) return false;
-    for (UsbDevice dev : mgr.getDeviceList().values()) {
-      if (!mgr.hasPermission(dev)) {
-        PendingIntent pi = PendingIntent.getBroadcast(ctx, 0, new Intent("USB_PERMISSION"), PendingIntent.FLAG_IMMUTABLE);
-        mgr.requestPermission(dev, pi);
-        continue;
-      }
-      UsbInterface iface = null;
-      for (int i = 0; i < dev.getInterfaceCount(); i++) {
-        UsbInterface cand = dev.getInterface(i);
-        for (int a = 0; a < cand.getEndpointCount(); a++) {
-          if (cand.getEndpoint(a).getDirection() == UsbConstants.USB_DIR_OUT) {
-            iface = cand;
-            break;
-          }
-        }
-        if (iface != null) break;
-      }
-      if (iface == null) continue;
-      UsbDeviceConnection conn = mgr.openDevice(dev);
-      if (conn == null) continue;
-      if (!conn.claimInterface(iface, true)) {
-        conn.close();
-        continue;
-      }
-      UsbEndpoint out = null;
-      for (int a = 0; a < iface.getEndpointCount(); a++) {
-        UsbEndpoint ep = iface.getEndpoint(a);
-        if (ep.getDirection() == UsbConstants.USB_DIR_OUT) {
-          out = ep;
-          break;
-        }
-      }
-      if (out == null) {
-        conn.releaseInterface(iface);
-        conn.close();
-        continue;
-      }
-      int sent = conn.bulkTransfer(out, data, data.length, 5000);
-      conn.releaseInterface(iface);
-      conn.close();
-      if (sent > 0) return true;
-    }
-    return false;
-  }
-
-  // NEW: helper to prefer printer-like bonded devices (SimulatePrinter, POS printer etc.)
-  private BluetoothDevice findPrinterLike(Set<BluetoothDevice> bonded) {
-    if (bonded == null || bonded.isEmpty()) return null;
-    BluetoothDevice fallback = null;
-    for (BluetoothDevice d : bonded) {
-      if (d == null) continue;
-      String n = d.getName() == null ? "" : d.getName();
-      String lower = n.toLowerCase();
-      if (lower.contains("printer") || lower.contains("pos") || lower.contains("simu") || lower.contains("i9100")) {
-        return d;
-      }
-      if (fallback == null) {
-        fallback = d;
-      }
+  // Chunked upload for large jobs: openPrintStream() -> { streamId },
+  // appendPrintStream({ streamId, base64 }) per chunk (keep chunks ~32-64 KB),
+  // then closePrintStream({ streamId, ...printRaw options }) prints it.
+  @PluginMethod()
+  public void openPrintStream(PluginCall call) {
+    try {
+      call.resolve(new JSObject().put("streamId", printStreams().open()));
+    } catch (java.io.IOException e) {
+      call.reject(e.getMessage());
     }
-    return fallback;
   }
 
-  private boolean tryBluetooth(Context ctx, byte[] data, String targetAddress, String nameContains) throws Exception {
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-      if (ctx.checkSelfPermission(Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
-        throw new SecurityException("BLUETOOTH_CONNECT not granted");
-      }
+  @PluginMethod()
+  public void appendPrintStream(PluginCall call) {
+    String id = call.getString("streamId");
+    String base64 = call.getString("base64");
+    if (id == null || base64 == null) { call.reject("streamId and base64 required"); return; }
+    try {
+      long total = printStreams().append(id, android.util.Base64.decode(base64, android.util.Base64.DEFAULT));
+      call.resolve(new JSObject().put("bytes", total));
+    } catch (java.io.IOException e) {
+      call.reject(e.getMessage());
     }
-    BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
-    if (adapter == null || !adapter.isEnabled()) return false;
+  }
 
-    try { adapter.cancelDiscovery(); } catch (Exception ignored) {}
+  @PluginMethod()
+  public void closePrintStream(PluginCall call) {
+    String id = call.getString("streamId");
+    if (id == null) { call.reject("streamId required"); return; }
+    if (Boolean.TRUE.equals(call.getBoolean("abort", false))) {
+      printStreams().abort(id);
+      call.resolve();
+      return;
+    }
+    try {
+      submitJob(call, printStreams().close(id), null);
+    } catch (java.io.IOException e) {
+      call.reject(e.getMessage());
+    }
+  }
 
-    Set<BluetoothDevice> bonded = adapter.getBondedDevices();
-    if (bonded == null || bonded.isEmpty()) return false;
+  private void submitJob(PluginCall call, byte[] data) {
+    submitJob(call, PrintPayload.of(data), null);
+  }
 
-    // 1) Exact address (what you already use for external BT printers)
-    BluetoothDevice chosen = null;
-    if (targetAddress != null && !targetAddress.isEmpty()) {
-      for (BluetoothDevice d : bonded) {
-        if (d.getAddress() != null && d.getAddress().equalsIgnoreCase(targetAddress)) {
-          chosen = d;
-          break;
+  // Queues data for the printer named in the call and settles the call per its wait flag.
+  // imageKey (may be null) is echoed back in the result.
+  private void submitJob(PluginCall call, PrintPayload data, String imageKey) {
+    String btAddress = call.getString("address");
+    String nameContains = call.getString("nameContains");
+    boolean wait = call.getBoolean("wait", true);
+    PrintJob.Priority priority = PrintJob.Priority.parse(call.getString("priority"), PrintJob.Priority.RECEIPT);
+    PrintJob job;
+    try {
+      job = PrintDispatcher.get(getContext()).submit(data, btAddress, nameContains, priority, j -> {
+        if (!wait) return;
+        if (j.state == PrintJob.State.DONE) {
+          JSObject res = new JSObject().put("via", j.via).put("jobId", j.id);
+          if (j.pacing != null) res.put("pacing", j.pacing);
+          if (imageKey != null) res.put("imageKey", imageKey);
+          call.resolve(res);
+        } else {
+          call.reject(j.error);
         }
-      }
-      if (chosen == null) return false;
-      return connectAndWrite(chosen, data);
+      });
+    } catch (java.util.concurrent.RejectedExecutionException e) {
+      call.reject(e.getMessage());
+      return;
     }
+    if (!wait) {
+      JSObject res = new JSObject().put("jobId", job.id).put("queued", true);
+      if (imageKey != null) res.put("imageKey", imageKey);
+      call.resolve(res);
+    }
+  }
 
-    // 2) Name hint, then printer-like fallback (covers SimulatePrinter)
-    if (nameContains != null && !nameContains.isEmpty()) {
-      for (BluetoothDevice d : bonded) {
-        String n = d.getName() == null ? "" : d.getName();
-        if (n.toLowerCase().contains(nameContains.toLowerCase())) {
-          chosen = d;
-          break;
-        }
-      }
-      if (chosen != null) {
-        return connectAndWrite(chosen, data);
-      }
+  // Print a structured ticket composed natively (see EscPosComposer for the shape).
+  // Same routing/queue options as printRaw.
+  @PluginMethod()
+  public void printTicket(PluginCall call) {
+    JSObject ticket = call.getObject("ticket");
+    if (ticket == null) { call.reject("ticket required"); return; }
+    byte[] data;
+    try {
+      data = composeTicket(ticket);
+    } catch (Exception e) {
+      call.reject(e.getMessage());
+      return;
+    }
+    submitJob(call, data);
+  }
+
+  private byte[] composeTicket(org.json.JSONObject ticket) throws Exception {
+    org.json.JSONObject logo = ticket.optJSONObject("logo");
+    return EscPosComposer.compose(ticket, logo == null ? null : rasterFor(logo, null), TextRaster.get(getContext()));
+  }
 
-      // NEW: nothing matched hint → prefer any device whose name looks like a printer
-      BluetoothDevice printerLike = findPrinterLike(bonded);
-      if (printerLike != null) {
-        return connectAndWrite(printerLike, data);
+  // Print an order in one round trip: { jobs: [{ base64 | ticket, address?,
+  // nameContains?, copies?, priority? }], address?, nameContains?, priority?, wait }.
+  // Jobs for the same printer share one connection, reset and settle. Resolves with
+  // { ok, groups, results: [{ index, copies, jobId, printer, state, ok, via, error }] },
+  // one result per input job.
+  @PluginMethod()
+  public void printBatch(PluginCall call) {
+    JSArray jobs = call.getArray("jobs");
+    if (jobs == null || jobs.length() == 0) { call.reject("jobs required"); return; }
+    String defAddress = call.getString("address");
+    String defName = call.getString("nameContains");
+    PrintJob.Priority defPriority = PrintJob.Priority.parse(call.getString("priority"), PrintJob.Priority.RECEIPT);
+    PrintBatch batch = new PrintBatch();
+    try {
+      for (int i = 0; i < jobs.length(); i++) {
+        org.json.JSONObject j = jobs.getJSONObject(i);
+        byte[] data;
+        if (j.has("ticket")) data = composeTicket(j.getJSONObject("ticket"));
+        else if (j.has("base64")) data = android.util.Base64.decode(j.getString("base64"), android.util.Base64.DEFAULT);
+        else throw new Exception("jobs[" + i + "]: base64 or ticket required");
+        String address = j.has("address") && !j.isNull("address") ? j.getString("address") : defAddress;
+        String name = j.has("nameContains") && !j.isNull("nameContains") ? j.getString("nameContains") : defName;
+        PrintJob.Priority priority = PrintJob.Priority.parse(j.optString("priority", null), defPriority);
+        int copies = Math.max(1, j.optInt("copies", 1));
+        batch.add(address, name, data, copies, priority);
       }
-      return false;
+    } catch (Exception e) {
+      call.reject(e.getMessage());
+      return;
     }
 
-    // 3) No explicit hint → prefer printer-like, else first bonded (unchanged behaviour)
-    BluetoothDevice printerLike = findPrinterLike(bonded);
-    if (printerLike != null) {
-      return connectAndWrite(printerLike, data);
+    boolean wait = call.getBoolean("wait", true);
+    batch.submit(PrintDispatcher.get(getContext()), wait ? () -> call.resolve(batch.results()) : null);
+    if (!wait) call.resolve(batch.results().put("queued", true));
+  }
+
+  // Category -> station table for printOrder (see StationRouter for the shape).
+  // Replaces the stored table.
+  @PluginMethod()
+  public void configureStations(PluginCall call) {
+    try {
+      StationRouter.get(getContext()).configure(call.getData());
+    } catch (Exception e) {
+      call.reject(e.getMessage());
+      return;
     }
+    call.resolve(StationRouter.get(getContext()).toJson());
+  }
 
-    BluetoothDevice[] arr = bonded.toArray(new BluetoothDevice[0]);
-    if (arr.length == 0) return false;
-    return connectAndWrite(arr[0], data);
+  @PluginMethod()
+  public void getStations(PluginCall call) {
+    call.resolve(StationRouter.get(getContext()).toJson());
   }
 
-  private boolean connectAndWrite(BluetoothDevice dev, byte[] data) {
-    BluetoothSocket sock = null;
+  // Split an order across stations and print every station's ticket at once:
+  // { order: <ticket whose lines carry category>, wait }. Stations sharing a
+  // printer share its connection. Kitchen stations print as KOTs, stations
+  // marked "all" (billing) as receipts. Resolves with { ok, groups, unrouted: [names],
+  // results: [{ station, items, jobId, printer, state, ok, via, error }] }.
+  @PluginMethod()
+  public void printOrder(PluginCall call) {
+    JSObject order = call.getObject("order");
+    if (order == null) { call.reject("order required"); return; }
+    StationRouter router = StationRouter.get(getContext());
+    if (!router.isConfigured()) { call.reject("No stations configured"); return; }
+    StationRouter.Plan plan;
+    PrintBatch batch = new PrintBatch();
     try {
-      try { BluetoothAdapter.getDefaultAdapter().cancelDiscovery(); } catch (Exception ignored) {}
-
-      // Create RFCOMM socket
-      try {
-        sock = dev.createInsecureRfcommSocketToServiceRecord(
-          UUID.fromString("00001101-0000-1000-8000-00805F9B34FB")
-        );
-      } catch (Exception e) {
-        sock = dev.createRfcommSocketToServiceRecord(
-          UUID.fromString("00001101-0000-1000-8000-00805F9B34FB")
-        );
+      plan = router.split(order);
+      for (StationRouter.Ticket t : plan.tickets) {
+        batch.add(t.station.address, t.station.nameContains, composeTicket(t.ticket), t.station.copies,
+          t.station.all ? PrintJob.Priority.RECEIPT : PrintJob.Priority.KOT);
       }
+    } catch (Exception e) {
+      call.reject(e.getMessage());
+      return;
+    }
+    if (plan.tickets.isEmpty()) { call.reject("No station takes any item of this order"); return; }
+
+    boolean wait = call.getBoolean("wait", true);
+    batch.submit(PrintDispatcher.get(getContext()), wait ? () -> call.resolve(stationResults(batch, plan)) : null);
+    if (!wait) call.resolve(stationResults(batch, plan).put("queued", true));
+  }
 
-      sock.connect();
-      OutputStream os = sock.getOutputStream();
-
-      // HARD RESET BEFORE EACH JOB
-      os.write(new byte[]{ 0x1b, '@' });  // ESC @
-      os.flush();
-      try { Thread.sleep(80); } catch (InterruptedException ignored) {}
-
-      // CHUNKED WRITE
-      final int CHUNK = 256;
-      int offset = 0;
-      while (offset < data.length) {
-        int len = Math.min(CHUNK, data.length - offset);
-        os.write(data, offset, len);
-        os.flush();
-        offset += len;
-        try { Thread.sleep(15); } catch (InterruptedException ignored) {}
+  private JSObject stationResults(PrintBatch batch, StationRouter.Plan plan) {
+    JSObject out = batch.results();
+    try {
+      org.json.JSONArray list = out.getJSONArray("results");
+      for (int i = 0; i < list.length(); i++) {
+        StationRouter.Ticket t = plan.tickets.get(i);
+        list.getJSONObject(i).put("station", t.station.id).put("items", t.items);
       }
+    } catch (org.json.JSONException ignored) {}
+    out.put("unrouted", plan.unrouted);
+    return out;
+  }
 
-      os.write(new byte[]{ 0x0a, 0x0a });  // 2 LF
-      os.flush();
-      try { Thread.sleep(350); } catch (InterruptedException ignored) {}
-
-      os.close();
-      return true;
-
-    } catch (Exception ex) {
-      // Fallback reflection socket
-      try {
-        BluetoothSocket alt = (BluetoothSocket) dev.getClass()
-          .getMethod("createRfcommSocket", int.class).invoke(dev, 1);
-        alt.connect();
-        OutputStream os = alt.getOutputStream();
-
-        os.write(new byte[]{ 0x1b, '@' });
-        os.flush();
-        try { Thread.sleep(80); } catch (InterruptedException ignored) {}
-
-        final int CHUNK = 256;
-        int offset = 0;
-        while (offset < data.length) {
-          int len = Math.min(CHUNK, data.length - offset);
-          os.write(data, offset, len);
-          os.flush();
-          offset += len;
-          try { Thread.sleep(15); } catch (InterruptedException ignored) {}
-        }
+  // Print a logo / QR / any bitmap: { image (base64 PNG/JPEG) | imageKey, width: 384,
+  // dither: true, mode: "raster" | "column", feed, cut } plus printRaw routing options.
+  // Resolves with imageKey; later calls can send just the key.
+  @PluginMethod()
+  public void printImage(PluginCall call) {
+    JSObject info = new JSObject();
+    byte[] data;
+    try {
+      byte[] raster = rasterFor(call.getData(), info);
+      int feed = Math.max(0, Math.min(10, call.getInt("feed", 3)));
+      String cut = call.getString("cut", "none");
+      java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream(raster.length + 16);
+      out.write(new byte[]{ 0x1b, 'a', 1 });
+      out.write(raster);
+      out.write(new byte[]{ 0x1b, 'a', 0 });
+      for (int i = 0; i < feed; i++) out.write(0x0a);
+      if ("full".equals(cut)) out.write(new byte[]{ 0x1d, 'V', 0 });
+      else if ("partial".equals(cut)) out.write(new byte[]{ 0x1d, 'V', 1 });
+      data = out.toByteArray();
+    } catch (Exception e) {
+      call.reject(e.getMessage());
+      return;
+    }
+    String key = info.getString("imageKey");
+    submitJob(call, PrintPayload.of(data), key);
+  }
 
-        os.write(new byte[]{ 0x0a, 0x0a });
-        os.flush();
-        try { Thread.sleep(350); } catch (InterruptedException ignored) {}
+  // Text in any script as ESC/POS image bytes, for the web layer to splice
+  // into printRaw data: { lines: [{ text, bold?, align?, size?: 24 }],
+  // width: 384, mode: "raster" | "column" }. Resolves with { base64, bytes, atlas }.
+  @PluginMethod()
+  public void rasterizeText(PluginCall call) {
+    JSArray lines = call.getArray("lines");
+    if (lines == null || lines.length() == 0) { call.reject("lines required"); return; }
+    int width = Math.max(8, Math.min(832, call.getInt("width", 384)));
+    RasterEncoder.Mode mode = "column".equals(call.getString("mode")) ? RasterEncoder.Mode.COLUMN : RasterEncoder.Mode.RASTER;
+    TextRaster text = TextRaster.get(getContext());
+    byte[] data = text.lines(lines, width, mode);
+    JSObject out = new JSObject();
+    out.put("base64", android.util.Base64.encodeToString(data, android.util.Base64.NO_WRAP));
+    out.put("bytes", data.length);
+    out.put("atlas", text.stats());
+    call.resolve(out);
+  }
 
-        os.close();
-        alt.close();
-        return true;
-      } catch (Exception ignored) {
-        return false;
-      }
-    } finally {
-      if (sock != null) {
-        try { sock.close(); } catch (Exception ignored) {}
-      }
-    }
+  // Memory budget of the word atlas behind rasterized text: { maxBytes }
+  @PluginMethod()
+  public void configureTextRaster(PluginCall call) {
+    TextRaster text = TextRaster.get(getContext());
+    text.configure(call.getInt("maxBytes"));
+    call.resolve(text.stats());
+  }
+
+  // Memory budget and disk copy for encoded images
+  @PluginMethod()
+  public void configureRasterCache(PluginCall call) {
+    RasterCache cache = RasterCache.get(getContext().getCacheDir());
+    cache.configure(call.getInt("maxBytes"), call.getBoolean("disk"));
+    call.resolve(cache.stats());
+  }
+
+  // Encoded ESC/POS image for spec, from the cache when possible. Puts imageKey into info.
+  private byte[] rasterFor(org.json.JSONObject spec, JSObject info) throws Exception {
+    RasterCache cache = RasterCache.get(getContext().getCacheDir());
+    int width = Math.max(8, Math.min(832, spec.optInt("width", 384)));
+    boolean dither = spec.optBoolean("dither", true);
+    RasterEncoder.Mode mode = "column".equals(spec.optString("mode")) ? RasterEncoder.Mode.COLUMN : RasterEncoder.Mode.RASTER;
+
+    String b64 = spec.optString("image", "");
+    byte[] image = b64.isEmpty() ? null : android.util.Base64.decode(b64, android.util.Base64.DEFAULT);
+    String contentKey = image != null ? RasterCache.contentKey(image) : spec.optString("imageKey", "");
+    if (contentKey.isEmpty()) throw new Exception("image or imageKey required");
+    if (image == null && !RasterCache.isContentKey(contentKey)) throw new Exception("imageKey not cached; send image");
+    if (info != null) info.put("imageKey", contentKey);
+
+    String key = RasterCache.variantKey(contentKey, width, dither, mode);
+    byte[] raster = cache.lookup(key);
+    if (raster != null) return raster;
+    if (image == null) throw new Exception("imageKey not cached; send image");
+    raster = RasterEncoder.encode(image, width, dither, mode);
+    cache.store(key, raster);
+    return raster;
+  }
+
+  // Pending and in-flight jobs per printer
+  @PluginMethod()
+  public void getQueue(PluginCall call) {
+    call.resolve(PrintQueue.shared().snapshot());
+  }
+
+  // Cancel a job that has not started printing yet
+  @PluginMethod()
+  public void cancelJob(PluginCall call) {
+    String jobId = call.getString("jobId");
+    if (jobId == null) { call.reject("jobId required"); return; }
+    JSObject out = new JSObject();
+    out.put("cancelled", PrintQueue.shared().cancel(jobId));
+    call.resolve(out);
+  }
+
+  // Queue depth limit, what happens when it is hit ("reject" | "dropOldest")
+  // and agingMs, the head start each priority class gets over the next one
+  @PluginMethod()
+  public void configureQueue(PluginCall call) {
+    PrintQueue q = PrintQueue.shared();
+    Integer aging = call.getInt("agingMs");
+    q.configure(call.getInt("maxDepth"), call.getString("rejectPolicy"), aging == null ? null : aging.longValue());
+    JSObject out = new JSObject();
+    out.put("maxDepth", q.getMaxDepth());
+    out.put("rejectPolicy", q.getRejectPolicy());
+    out.put("agingMs", q.getAgingMs());
+    call.resolve(out);
   }
 }
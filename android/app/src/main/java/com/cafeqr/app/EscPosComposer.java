@@ -0,0 +1,398 @@
+package com.cafeqr.app;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Builds ESC/POS bytes from a structured ticket instead of a pre-rendered
+// base64 string from the web layer.
+//
+// {
+//   width: 32, codepage: 0, scale: "normal" | "large",
+//   templateId: "shop-42",            // header/footer are compiled once and cached
+//   header: ["CAFE", "Addr"], footer: ["Thank you"],
+//   title: "*** KOT ***", meta: ["Order: #AB12", "For: Table 3"],
+//   lines: [{ name, qty, amount?, modifiers?: [..], note? }],
+//   totals: [{ label, value, bold? }],
+//   qr: "upi://...", feed: 3, cut: "full" | "partial" | "none",
+//   logo: { image | imageKey, width?, dither? }  // encoded by RasterEncoder, see printTicket
+//   text: "auto" | "codepage", dots: 384 (58 mm) | 576 (80 mm), rasterMode: "raster" | "column"
+// }
+//
+// Static parts live in cached byte segments; each ticket only encodes its
+// variable fields into a reusable per-thread buffer. With a TextRaster and
+// text "auto" (default), rows holding characters the code page lacks (Hindi,
+// Tamil, Arabic item names) print as image rows on the same column grid;
+// "codepage" prints them as '?' like the JS encoder.
+final class EscPosComposer {
+
+  private static final byte ESC = 0x1b;
+  private static final byte GS = 0x1d;
+  private static final byte LF = 0x0a;
+  private static final int MAX_TEMPLATES = 16;
+  private static final int AMOUNT_COLS = 10;
+  private static final int QTY_COLS = 5;
+
+  private static final byte[] BOLD_ON = { ESC, 'E', 1 };
+  private static final byte[] BOLD_OFF = { ESC, 'E', 0 };
+  private static final byte[] ALIGN_LEFT = { ESC, 'a', 0 };
+  private static final byte[] ALIGN_CENTER = { ESC, 'a', 1 };
+  private static final byte[] CUT_FULL = { GS, 'V', 0 };
+  private static final byte[] CUT_PARTIAL = { GS, 'V', 1 };
+  private static final byte[] QR_MODEL2 = { GS, '(', 'k', 4, 0, 49, 65, 50, 0 };
+  private static final byte[] QR_SIZE = { GS, '(', 'k', 3, 0, 49, 67 };
+  private static final byte[] QR_ECC_M = { GS, '(', 'k', 3, 0, 49, 69, 49 };
+  private static final byte[] QR_STORE = { GS, '(', 'k' };
+  private static final byte[] QR_PRINT = { GS, '(', 'k', 3, 0, 49, 81, 48 };
+
+  // Pre-encoded static parts of one shop's tickets
+  static final class Template {
+    final int width;
+    final byte[] prefix;  // codepage + character size
+    final byte[] header;
+    final byte[] footer;
+    final byte[] rule;    // full-width dashes + LF
+
+    Template(int width, byte[] prefix, byte[] header, byte[] footer, byte[] rule) {
+      this.width = width;
+      this.prefix = prefix;
+      this.header = header;
+      this.footer = footer;
+      this.rule = rule;
+    }
+  }
+
+  private static final Map<String, Template> templates =
+    new LinkedHashMap<String, Template>(MAX_TEMPLATES, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+        return size() > MAX_TEMPLATES;
+      }
+    };
+
+  // Where rows that need TextRaster go; null prints every row as text
+  private static final class TextImages {
+    final TextRaster raster;
+    final TextRaster.Page page;
+
+    TextImages(TextRaster raster, TextRaster.Page page) {
+      this.raster = raster;
+      this.page = page;
+    }
+  }
+
+  private static final ThreadLocal<Buf> BUFFERS = new ThreadLocal<Buf>() {
+    @Override
+    protected Buf initialValue() {
+      return new Buf(8 * 1024);
+    }
+  };
+
+  private EscPosComposer() {}
+
+  // logo: pre-encoded image bytes printed centered above the header, or null.
+  // text: renders rows the code page can't hold, or null to print them as '?'.
+  static byte[] compose(JSONObject t, byte[] logo, TextRaster text) throws Exception {
+    TextImages img = textImages(t, text);
+    Template tpl = templateFor(t, img);
+    int w = tpl.width;
+    Buf b = BUFFERS.get();
+    b.reset();
+
+    b.put(tpl.prefix);
+    if (logo != null) b.put(ALIGN_CENTER).put(logo).put(ALIGN_LEFT);
+    b.put(tpl.header);
+
+    String title = t.optString("title", "");
+    if (!title.isEmpty() && !image(b, img, "", title, w, null, true, TextRaster.CENTER)) {
+      b.put(ALIGN_CENTER).put(BOLD_ON);
+      b.text(title, 0, title.length()).put(LF);
+      b.put(BOLD_OFF).put(ALIGN_LEFT);
+    }
+    JSONArray meta = t.optJSONArray("meta");
+    if (meta != null) {
+      for (int i = 0; i < meta.length(); i++) {
+        String m = meta.optString(i, "");
+        if (!image(b, img, "", m, w, null, false, TextRaster.LEFT)) wrap(b, m, 0, w);
+      }
+    }
+    if (title.length() > 0 || (meta != null && meta.length() > 0)) b.put(tpl.rule);
+
+    JSONArray lines = t.optJSONArray("lines");
+    if (lines != null) {
+      for (int i = 0; i < lines.length(); i++) {
+        JSONObject line = lines.optJSONObject(i);
+        if (line != null) itemLine(b, img, line, w);
+      }
+      b.put(tpl.rule);
+    }
+
+    JSONArray totals = t.optJSONArray("totals");
+    if (totals != null && totals.length() > 0) {
+      for (int i = 0; i < totals.length(); i++) {
+        JSONObject row = totals.optJSONObject(i);
+        if (row == null) continue;
+        boolean bold = row.optBoolean("bold", false);
+        if (bold) b.put(BOLD_ON);
+        String label = row.optString("label", "");
+        String value = row.optString("value", "");
+        int labelCols = Math.max(1, w - value.length() - 1);
+        if (!image(b, img, "", label, labelCols, value, bold, TextRaster.LEFT)) wrap(b, label, 0, labelCols, value, w);
+        if (bold) b.put(BOLD_OFF);
+      }
+      b.put(tpl.rule);
+    }
+
+    String qr = t.optString("qr", "");
+    if (!qr.isEmpty()) qr(b, qr, t.optInt("qrSize", 6));
+
+    b.put(tpl.footer);
+
+    int feed = Math.max(0, Math.min(10, t.optInt("feed", 3)));
+    for (int i = 0; i < feed; i++) b.put(LF);
+    String cut = t.optString("cut", "full");
+    if ("partial".equals(cut)) b.put(CUT_PARTIAL);
+    else if (!"none".equals(cut)) b.put(CUT_FULL);
+
+    return b.toByteArray();
+  }
+
+  // "2 x Paneer Tikka ........ 240.00" (receipt) or "Paneer Tikka ...... 2" (KOT)
+  private static void itemLine(Buf b, TextImages img, JSONObject line, int w) {
+    String name = line.optString("name", "Item");
+    String qty = line.optString("qty", "1");
+    String amount = line.optString("amount", "");
+    if (amount.isEmpty()) {
+      if (!image(b, img, "", name, w - QTY_COLS, qty, false, TextRaster.LEFT)) wrap(b, name, 0, w - QTY_COLS, qty, w);
+    } else {
+      int qtyPrefix = qty.length() + 3;
+      int cols = w - AMOUNT_COLS - qtyPrefix;
+      if (needsImage(img, name, amount)) {
+        image(b, img, qty + " x ", name, cols, amount, false, TextRaster.LEFT);
+      } else {
+        b.text(qty, 0, qty.length()).ascii(" x ");
+        wrap(b, name, qtyPrefix, cols, amount, w);
+      }
+    }
+    JSONArray mods = line.optJSONArray("modifiers");
+    if (mods != null) {
+      for (int i = 0; i < mods.length(); i++) {
+        String mod = mods.optString(i, "");
+        if (image(b, img, "  + ", mod, w - 4, null, false, TextRaster.LEFT)) continue;
+        b.ascii("  + ");
+        wrap(b, mod, 4, w - 4);
+      }
+    }
+    String note = line.optString("note", "");
+    if (!note.isEmpty() && !image(b, img, "  * ", note, w - 4, null, false, TextRaster.LEFT)) {
+      b.ascii("  * ");
+      wrap(b, note, 4, w - 4);
+    }
+  }
+
+  private static boolean needsImage(TextImages img, String s, String right) {
+    return img != null && (TextRaster.needsRaster(s) || (right != null && TextRaster.needsRaster(right)));
+  }
+
+  // Prints the row as an image when its text needs one; false when it prints as text.
+  // lead starts row 1 (e.g. "2 x "), s wraps within cols after it, right ends row 1.
+  private static boolean image(Buf b, TextImages img, String lead, String s, int cols, String right,
+                               boolean bold, int align) {
+    if (!needsImage(img, s, right)) return false;
+    b.put(img.raster.columns(img.page, lead, s, cols, right, bold, align));
+    return true;
+  }
+
+  private static TextImages textImages(JSONObject t, TextRaster raster) {
+    if (raster == null || "codepage".equals(t.optString("text"))) return null;
+    int w = Math.max(16, Math.min(64, t.optInt("width", 32)));
+    int dots = Math.max(w, Math.min(832, t.optInt("dots", w <= 32 ? 384 : 576)));
+    RasterEncoder.Mode mode = "column".equals(t.optString("rasterMode")) ? RasterEncoder.Mode.COLUMN : RasterEncoder.Mode.RASTER;
+    return new TextImages(raster, new TextRaster.Page(dots, w, "large".equals(t.optString("scale")), mode));
+  }
+
+  private static void wrap(Buf b, String s, int indent, int cols) {
+    wrap(b, s, indent, cols, null, 0);
+  }
+
+  // Word-wraps s into cols-wide rows without allocating substrings.
+  // The first row is assumed to already have `indent` columns written; later
+  // rows are indented to match. right, if given, ends row 1 at lineWidth.
+  private static void wrap(Buf b, String s, int indent, int cols, String right, int lineWidth) {
+    cols = Math.max(1, cols);
+    int len = s.length();
+    int start = 0;
+    boolean first = true;
+    while (true) {
+      while (start < len && s.charAt(start) == ' ') start++;
+      int end = Math.min(len, start + cols);
+      if (end < len && s.charAt(end) != ' ') {
+        int sp = end;
+        while (sp > start && s.charAt(sp - 1) != ' ') sp--;
+        if (sp > start) end = sp;
+      }
+      int stop = end;
+      while (stop > start && s.charAt(stop - 1) == ' ') stop--;
+      if (!first) b.spaces(indent);
+      b.text(s, start, stop);
+      if (first && right != null) {
+        int used = indent + (stop - start);
+        b.spaces(Math.max(1, lineWidth - used - right.length()));
+        b.text(right, 0, right.length());
+      }
+      b.put(LF);
+      first = false;
+      start = end;
+      if (start >= len) break;
+    }
+  }
+
+  // Native QR: model 2, module size n, error level M, store then print
+  private static void qr(Buf b, String data, int size) {
+    int n = data.length() + 3;
+    b.put(ALIGN_CENTER);
+    b.put(QR_MODEL2);
+    b.put(QR_SIZE).put((byte) Math.max(1, Math.min(16, size)));
+    b.put(QR_ECC_M);
+    b.put(QR_STORE).put((byte) (n & 0xff)).put((byte) ((n >> 8) & 0xff)).put((byte) 49).put((byte) 80).put((byte) 48);
+    b.text(data, 0, data.length());
+    b.put(QR_PRINT);
+    b.put(LF).put(ALIGN_LEFT);
+  }
+
+  private static Template templateFor(JSONObject t, TextImages img) throws Exception {
+    String id = t.optString("templateId", "");
+    boolean hasStatic = t.has("header") || t.has("footer");
+    if (!id.isEmpty() && !hasStatic) {
+      synchronized (templates) {
+        Template cached = templates.get(id);
+        if (cached != null) return cached;
+      }
+      throw new Exception("Unknown templateId " + id + "; send header/footer once");
+    }
+    Template tpl = compile(t, img);
+    if (!id.isEmpty()) {
+      synchronized (templates) {
+        templates.put(id, tpl);
+      }
+    }
+    return tpl;
+  }
+
+  private static Template compile(JSONObject t, TextImages img) {
+    int w = Math.max(16, Math.min(64, t.optInt("width", 32)));
+    Buf b = new Buf(256);
+
+    b.put(new byte[]{ ESC, 't', (byte) (t.optInt("codepage", 0) & 0xff) });
+    b.put(new byte[]{ GS, '!', (byte) ("large".equals(t.optString("scale")) ? 0x01 : 0x00) });
+    byte[] prefix = b.toByteArray();
+
+    b.reset();
+    for (int i = 0; i < w; i++) b.put((byte) '-');
+    b.put(LF);
+    byte[] rule = b.toByteArray();
+
+    b.reset();
+    JSONArray header = t.optJSONArray("header");
+    if (header != null && header.length() > 0) {
+      b.put(ALIGN_CENTER).put(BOLD_ON);
+      for (int i = 0; i < header.length(); i++) {
+        String h = header.optString(i, "");
+        if (!image(b, img, "", h, w, null, i == 0, TextRaster.CENTER)) wrap(b, h, 0, w);
+        if (i == 0) b.put(BOLD_OFF);
+      }
+      b.put(BOLD_OFF).put(ALIGN_LEFT).put(rule);
+    }
+    byte[] head = b.toByteArray();
+
+    b.reset();
+    JSONArray footer = t.optJSONArray("footer");
+    if (footer != null && footer.length() > 0) {
+      b.put(ALIGN_CENTER);
+      for (int i = 0; i < footer.length(); i++) {
+        String f = footer.optString(i, "");
+        if (!image(b, img, "", f, w, null, false, TextRaster.CENTER)) wrap(b, f, 0, w);
+      }
+      b.put(ALIGN_LEFT);
+    }
+    byte[] foot = b.toByteArray();
+
+    return new Template(w, prefix, head, foot, rule);
+  }
+
+  // Growable byte buffer reused across tickets on the same thread
+  static final class Buf {
+    private byte[] a;
+    private int n;
+
+    Buf(int capacity) {
+      a = new byte[capacity];
+    }
+
+    void reset() {
+      n = 0;
+    }
+
+    int size() {
+      return n;
+    }
+
+    private void ensure(int extra) {
+      if (n + extra <= a.length) return;
+      int cap = a.length;
+      while (cap < n + extra) cap <<= 1;
+      byte[] next = new byte[cap];
+      System.arraycopy(a, 0, next, 0, n);
+      a = next;
+    }
+
+    Buf put(byte v) {
+      ensure(1);
+      a[n++] = v;
+      return this;
+    }
+
+    Buf put(byte[] v) {
+      ensure(v.length);
+      System.arraycopy(v, 0, a, n, v.length);
+      n += v.length;
+      return this;
+    }
+
+    Buf put(byte[] v, int off, int len) {
+      ensure(len);
+      System.arraycopy(v, off, a, n, len);
+      n += len;
+      return this;
+    }
+
+    Buf spaces(int k) {
+      ensure(k);
+      for (int i = 0; i < k; i++) a[n++] = ' ';
+      return this;
+    }
+
+    Buf ascii(String s) {
+      return text(s, 0, s.length());
+    }
+
+    // One char = one byte on the selected code page (same as the JS encoder);
+    // anything outside Latin-1 becomes '?'
+    Buf text(String s, int from, int to) {
+      ensure(to - from);
+      for (int i = from; i < to; i++) {
+        char c = s.charAt(i);
+        a[n++] = c <= 0xff ? (byte) c : (byte) '?';
+      }
+      return this;
+    }
+
+    byte[] toByteArray() {
+      byte[] out = new byte[n];
+      System.arraycopy(a, 0, out, 0, n);
+      return out;
+    }
+  }
+}
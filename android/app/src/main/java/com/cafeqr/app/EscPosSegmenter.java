@@ -0,0 +1,223 @@
+package com.cafeqr.app;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Cuts a long ESC/POS job into segments at safe points - right after a line
+// feed that is plain text, never inside a command or its parameters (raster
+// data, QR payloads...) - so another job can be printed between two segments.
+// Mode commands seen so far (codepage, alignment, bold, size, spacing...) are
+// remembered per segment; resuming after someone else's ESC @ replays them.
+// An unknown command ends segmentation: the rest of the job stays one piece.
+final class EscPosSegmenter {
+
+  private static final int ESC = 0x1b;
+  private static final int GS = 0x1d;
+  private static final int FS = 0x1c;
+  private static final int DLE = 0x10;
+  private static final int LF = 0x0a;
+
+  static final class Plan {
+    final int[] starts;      // segment i is [starts[i], starts[i + 1]) and the last runs to the end
+    final byte[][] prefixes; // modes in force when segment i starts
+    final int length;
+
+    Plan(int[] starts, byte[][] prefixes, int length) {
+      this.starts = starts;
+      this.prefixes = prefixes;
+      this.length = length;
+    }
+
+    int count() {
+      return starts.length;
+    }
+
+    int start(int i) {
+      return starts[i];
+    }
+
+    int end(int i) {
+      return i + 1 < starts.length ? starts[i + 1] : length;
+    }
+  }
+
+  private EscPosSegmenter() {}
+
+  // Segments of roughly target bytes, or null when the job would be one segment
+  static Plan plan(byte[] data, int target) {
+    List<Integer> starts = new ArrayList<>();
+    List<byte[]> prefixes = new ArrayList<>();
+    Map<String, byte[]> modes = new LinkedHashMap<>();
+    starts.add(0);
+    prefixes.add(new byte[0]);
+    int segStart = 0;
+    int i = 0;
+    int n = data.length;
+    while (i < n) {
+      int c = data[i] & 0xff;
+      int len;
+      if (c == ESC || c == GS || c == FS || c == DLE) {
+        len = commandLength(data, i);
+        if (len <= 0 || i + len > n) break; // unknown or truncated: no more cut points
+        track(data, i, len, modes);
+      } else {
+        len = 1;
+      }
+      i += len;
+      if (c == LF && i - segStart >= target && n - i >= target / 4) {
+        starts.add(i);
+        prefixes.add(concat(modes));
+        segStart = i;
+      }
+    }
+    if (starts.size() < 2) return null;
+    int[] s = new int[starts.size()];
+    for (int k = 0; k < s.length; k++) s[k] = starts.get(k);
+    return new Plan(s, prefixes.toArray(new byte[0][]), n);
+  }
+
+  // Bytes taken by the command at i, 0 when unknown
+  static int commandLength(byte[] d, int i) {
+    int c = d[i] & 0xff;
+    if (i + 1 >= d.length) return 0;
+    int f = d[i + 1] & 0xff;
+    if (c == ESC) {
+      switch (f) {
+        case '@': case '2': case '<': case 'i': case 'm': case 'L': case 'S':
+          return 2;
+        case '!': case '-': case 'E': case 'G': case 'M': case 'R': case 't': case 'a': case 'd':
+        case 'J': case '3': case 'V': case '{': case ' ': case 'e': case 'U': case 'r': case 'T':
+        case 'K': case 'F':
+          return 3;
+        case '$': case '\\': case 'c':
+          return 4;
+        case 'p':
+          return 5;
+        case '*': {
+          if (i + 4 >= d.length) return 0;
+          int m = d[i + 2] & 0xff;
+          int cols = (d[i + 3] & 0xff) | ((d[i + 4] & 0xff) << 8);
+          return 5 + cols * (m == 0 || m == 1 ? 1 : 3);
+        }
+        case 'D':
+          return untilNul(d, i + 2, 33);
+        default:
+          return 0;
+      }
+    }
+    if (c == GS) {
+      switch (f) {
+        case '!': case 'B': case 'H': case 'h': case 'w': case 'f': case 'b': case 'a': case '/':
+        case 'r': case 'I':
+          return 3;
+        case 'L': case 'W': case 'P': case '$': case '\\':
+          return 4;
+        case 'V': {
+          if (i + 2 >= d.length) return 0;
+          int m = d[i + 2] & 0xff;
+          return m >= 65 ? 4 : 3;
+        }
+        case 'v': {
+          if (i + 7 >= d.length) return 0;
+          int x = (d[i + 4] & 0xff) | ((d[i + 5] & 0xff) << 8);
+          int y = (d[i + 6] & 0xff) | ((d[i + 7] & 0xff) << 8);
+          return 8 + x * y;
+        }
+        case '(': {
+          if (i + 4 >= d.length) return 0;
+          return 5 + ((d[i + 3] & 0xff) | ((d[i + 4] & 0xff) << 8));
+        }
+        case '8': {
+          if (i + 6 >= d.length) return 0;
+          long p = (d[i + 3] & 0xffL) | ((d[i + 4] & 0xffL) << 8) | ((d[i + 5] & 0xffL) << 16) | ((d[i + 6] & 0xffL) << 24);
+          return p > Integer.MAX_VALUE - 7 ? 0 : 7 + (int) p;
+        }
+        case 'k': {
+          if (i + 2 >= d.length) return 0;
+          int m = d[i + 2] & 0xff;
+          if (m <= 6) {
+            int len = untilNul(d, i + 3, 256);
+            return len == 0 ? 0 : len + 1;
+          }
+          if (i + 3 >= d.length) return 0;
+          return 4 + (d[i + 3] & 0xff);
+        }
+        default:
+          return 0;
+      }
+    }
+    if (c == FS) {
+      switch (f) {
+        case '&': case '.':
+          return 2;
+        case '!': case 'C': case '-':
+          return 3;
+        case 'p':
+          return 4;
+        default:
+          return 0;
+      }
+    }
+    // DLE
+    switch (f) {
+      case 0x04: case 0x05:
+        return 3;
+      case 0x14:
+        return 5;
+      default:
+        return 0;
+    }
+  }
+
+  // Length of a NUL-terminated command starting with its 2-byte head at from - 2
+  private static int untilNul(byte[] d, int from, int max) {
+    for (int k = from; k < d.length && k < from + max; k++) {
+      if (d[k] == 0) return k - from + 3;
+    }
+    return 0;
+  }
+
+  // Remembers the latest value of each mode-setting command; ESC @ forgets all
+  private static void track(byte[] d, int i, int len, Map<String, byte[]> modes) {
+    int c = d[i] & 0xff;
+    int f = d[i + 1] & 0xff;
+    String key = null;
+    if (c == ESC) {
+      switch (f) {
+        case '@':
+          modes.clear();
+          return;
+        case '2': case '3':
+          key = "spacing";
+          break;
+        case '!': case '-': case 'E': case 'G': case 'M': case 'R': case 't': case 'a': case '{': case ' ':
+          key = "E" + (char) f;
+          break;
+        default:
+          return;
+      }
+    } else if (c == GS) {
+      if (f != '!' && f != 'B' && f != 'L' && f != 'W') return;
+      key = "G" + (char) f;
+    } else if (c == FS) {
+      if (f == '&' || f == '.') key = "kanji";
+      else if (f == '!') key = "F!";
+      else return;
+    } else {
+      return;
+    }
+    byte[] cmd = new byte[len];
+    System.arraycopy(d, i, cmd, 0, len);
+    modes.remove(key); // keep replay order = order last set
+    modes.put(key, cmd);
+  }
+
+  private static byte[] concat(Map<String, byte[]> modes) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (byte[] b : modes.values()) out.write(b, 0, b.length);
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,62 @@
+package com.cafeqr.app;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free millisecond histogram with power-of-two buckets (<=1, <=2, <=4 ...
+// <=65536, overflow). Recording is a few atomic increments; percentiles are
+// reported as the upper bound of the bucket they fall in.
+final class LatencyHistogram {
+
+  private static final int BUCKETS = 18;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  void record(long ms) {
+    if (ms < 0) return;
+    counts.incrementAndGet(bucket(ms));
+    total.incrementAndGet();
+    sum.addAndGet(ms);
+    long m;
+    while (ms > (m = max.get()) && !max.compareAndSet(m, ms)) {
+      // lost a race with a concurrent larger value; retry
+    }
+  }
+
+  static int bucket(long ms) {
+    if (ms <= 1) return 0;
+    int b = 64 - Long.numberOfLeadingZeros(ms - 1); // ceil(log2(ms))
+    return Math.min(b, BUCKETS - 1);
+  }
+
+  // Upper bound (ms) of the bucket holding the p-th percentile, 0 when empty
+  long percentile(double p) {
+    long n = total.get();
+    if (n == 0) return 0;
+    long rank = (long) Math.ceil(n * p);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) return i == BUCKETS - 1 ? max.get() : Math.min(1L << i, max.get());
+    }
+    return max.get();
+  }
+
+  JSONObject toJson() throws JSONException {
+    JSONObject o = new JSONObject();
+    long n = total.get();
+    o.put("count", n);
+    o.put("avg", n == 0 ? 0 : sum.get() / n);
+    o.put("p50", percentile(0.50));
+    o.put("p90", percentile(0.90));
+    o.put("p99", percentile(0.99));
+    o.put("max", max.get());
+    return o;
+  }
+}
@@ -3,12 +3,16 @@ package com.cafeqr.app;
 
 import android.os.Bundle;
 import com.getcapacitor.BridgeActivity;
-import com.cafeqr.app.DevicePrinterPlugin;   // add this import
 
 public class MainActivity extends BridgeActivity {
   @Override
   public void onCreate(Bundle savedInstanceState) {
-    registerPlugin(DevicePrinterPlugin.class);   // or: registerPlugin(com.cafeqr.app.DevicePrinterPlugin.class);
+    Startup.launchedBy("activity");
+    // Must be registered before the bridge starts; the plugin defers its own setup in load()
+    registerPlugin(DevicePrinterPlugin.class);
+    long t0 = Startup.begin("bridge-create");
     super.onCreate(savedInstanceState);
+    Startup.end("bridge-create", t0);
+    Startup.watchFirstFrame(this);
   }
 }
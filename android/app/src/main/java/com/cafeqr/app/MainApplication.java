@@ -6,6 +6,11 @@ public class MainApplication extends Application {
   @Override
   public void onCreate() {
     super.onCreate();
-    FirebaseApp.initializeApp(this);
+    // FirebaseInitProvider has already set up the default app by now; this only
+    // matters if the provider is ever disabled, so keep it off the main thread.
+    Startup.defer("firebase-init", () -> FirebaseApp.initializeApp(this));
+    // Load prefs-backed singletons early so later main-thread reads don't block on disk
+    Startup.defer("printer-index", () -> PrinterIndex.get(this));
+    Startup.defer("pacing-store", () -> PacingStore.get(this));
   }
 }
@@ -14,6 +14,7 @@ public class MyFirebaseMessagingService extends FirebaseMessagingService {
 
     @Override
     public void onMessageReceived(RemoteMessage remoteMessage) {
+        Startup.launchedBy("fcm");
         Log.d(TAG, "=== FCM MESSAGE RECEIVED ===");
         Log.d(TAG, "From: " + remoteMessage.getFrom());
         Log.d(TAG, "Message ID: " + remoteMessage.getMessageId());
@@ -22,6 +23,23 @@ public class MyFirebaseMessagingService extends FirebaseMessagingService {
         if (remoteMessage.getData().size() > 0) {
             Log.d(TAG, "Data payload: " + remoteMessage.getData());
 
+            // Keep the order on the device so tapping its notification renders at once
+            String cachedId = remoteMessage.getData().get("orderId");
+            if (cachedId != null && !cachedId.isEmpty()) {
+                OrderStore.get(this).put(cachedId, remoteMessage.getData());
+            }
+
+            // Start connecting to this order's printers before its KOT is queued
+            AutoPrinter autoPrinter = AutoPrinter.get(this);
+            if (cachedId != null && !cachedId.isEmpty()) {
+                PrinterIndex.get(this).prewarm(autoPrinter.printersFor(remoteMessage.getData()));
+            }
+
+            // Opt-in: print the KOT natively before the WebView is even running
+            if (autoPrinter.handle(remoteMessage.getData())) {
+                Log.d(TAG, "KOT queued for native auto-print");
+            }
+
             String title = remoteMessage.getNotification() != null ? remoteMessage.getNotification().getTitle() : remoteMessage.getData().get("title");
             String body = remoteMessage.getNotification() != null ? remoteMessage.getNotification().getBody() : remoteMessage.getData().get("body");
             String orderId = remoteMessage.getData().get("orderId");
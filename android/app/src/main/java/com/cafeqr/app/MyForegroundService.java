@@ -6,31 +6,124 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
-import android.content.Context;
 import android.content.Intent;
 import android.media.AudioAttributes;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 
 import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Long-lived order alert hub. Stays in the foreground with a quiet ongoing
+// notification; each order start is deduped by orderId (FCM redeliveries). The
+// first order alerts at once; orders arriving within COALESCE_MS of an alert
+// are merged into one grouped InboxStyle notification that plays the sound once.
 public class MyForegroundService extends Service {
     private static final String CHANNEL_ID = "orders";
     private static final String CHANNEL_NAME = "Order Alerts";
+    private static final String SERVICE_CHANNEL_ID = "order_service";
+    private static final String SERVICE_CHANNEL_NAME = "Order Listener";
     private static final int NOTIFICATION_ID = 1;
+    private static final int ALERT_ID = 2;
+    private static final String GROUP_ORDERS = "com.cafeqr.app.ORDERS";
+
+    static final String ACTION_CLEAR = "com.cafeqr.app.CLEAR_ORDER_ALERTS";
+    static final String ACTION_STOP = "com.cafeqr.app.STOP_ORDER_SERVICE";
+
+    private static final long COALESCE_MS = 1500;
+    private static final long LINE_TTL_MS = 10 * 60 * 1000L; // older alerts drop out of the inbox
+    private static final int MAX_SEEN = 256;
+    private static final int MAX_LINES = 7;
+
+    private static final class Alert {
+        final String orderId;
+        final String title;
+        final String body;
+        final long at = System.currentTimeMillis();
+
+        Alert(String orderId, String title, String body) {
+            this.orderId = orderId;
+            this.title = title;
+            this.body = body;
+        }
+    }
+
+    // Recently seen orderIds, oldest evicted first
+    private final Map<String, Boolean> seen = new LinkedHashMap<String, Boolean>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_SEEN;
+        }
+    };
+    private final List<Alert> lines = new ArrayList<>(); // shown in the grouped alert
+    private int pendingSinceFlush;
+    private boolean flushScheduled;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flush = this::flushAlerts;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Startup.launchedBy("service");
+        createNotificationChannels();
+    }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        createNotificationChannel();
-        Notification notification = buildNotification(intent);
-        startForeground(NOTIFICATION_ID, notification);
-        stopSelf();
+        // Must be called on every startForegroundService(); quiet channel, so no sound
+        startForeground(NOTIFICATION_ID, buildServiceNotification());
+
+        String action = intent != null ? intent.getAction() : null;
+        if (ACTION_STOP.equals(action)) {
+            stopForeground(true);
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        if (ACTION_CLEAR.equals(action)) {
+            lines.clear();
+            return START_STICKY;
+        }
+        if (intent != null) {
+            onOrder(intent.getStringExtra("orderId"), intent.getStringExtra("title"), intent.getStringExtra("body"));
+        }
         return START_STICKY;
     }
 
-    private void createNotificationChannel() {
+    // Main thread only
+    private void onOrder(String orderId, String title, String body) {
+        if (orderId == null) return;
+        if (seen.put(orderId, Boolean.TRUE) != null) return; // FCM redelivery
+        lines.add(new Alert(orderId, title, body));
+        pendingSinceFlush++;
+        // A quiet service alerts at once; orders inside the window after an
+        // alert wait for its end, so a steady stream alerts every COALESCE_MS
+        if (!flushScheduled) flushAlerts();
+    }
+
+    private void flushAlerts() {
+        flushScheduled = false;
+        if (pendingSinceFlush == 0) return;
+        pendingSinceFlush = 0;
+        long cutoff = System.currentTimeMillis() - LINE_TTL_MS;
+        while (!lines.isEmpty() && lines.get(0).at < cutoff) lines.remove(0);
+        while (lines.size() > MAX_LINES) lines.remove(0);
+        if (lines.isEmpty()) return;
+        NotificationManagerCompat.from(this).notify(ALERT_ID, buildAlertNotification());
+        flushScheduled = true;
+        handler.postDelayed(flush, COALESCE_MS);
+    }
+
+    private void createNotificationChannels() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager notificationManager = getSystemService(NotificationManager.class);
             NotificationChannel channel = new NotificationChannel(
                 CHANNEL_ID,
                 CHANNEL_NAME,
@@ -44,30 +137,61 @@ public class MyForegroundService extends Service {
                 .build();
             channel.setSound(soundUri, audioAttributes);
             channel.enableVibration(true);
-            NotificationManager notificationManager = getSystemService(NotificationManager.class);
             notificationManager.createNotificationChannel(channel);
+
+            NotificationChannel service = new NotificationChannel(
+                SERVICE_CHANNEL_ID,
+                SERVICE_CHANNEL_NAME,
+                NotificationManager.IMPORTANCE_MIN
+            );
+            service.setDescription("Keeps order alerts and printing running");
+            service.setSound(null, null);
+            notificationManager.createNotificationChannel(service);
         }
     }
 
-    private Notification buildNotification(Intent intent) {
-        String title = intent.getStringExtra("title");
-        String body = intent.getStringExtra("body");
-        String orderId = intent.getStringExtra("orderId");
+    private Notification buildServiceNotification() {
+        Intent stopIntent = new Intent(this, MyForegroundService.class).setAction(ACTION_STOP);
+        PendingIntent stop = PendingIntent.getService(this, 0, stopIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
 
-        Intent notificationIntent = new Intent(this, MainActivity.class);
-        notificationIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-        notificationIntent.putExtra("orderId", orderId);
+        return new NotificationCompat.Builder(this, SERVICE_CHANNEL_ID)
+            .setSmallIcon(R.mipmap.push_icon)
+            .setContentTitle(getString(R.string.app_name))
+            .setContentText("Listening for new orders")
+            .setOngoing(true)
+            .setPriority(NotificationCompat.PRIORITY_MIN)
+            .setCategory(NotificationCompat.CATEGORY_SERVICE)
+            .setContentIntent(openAppIntent(NOTIFICATION_ID, null))
+            .addAction(0, "Stop", stop)
+            .build();
+    }
+
+    private Notification buildAlertNotification() {
+        Alert latest = lines.get(lines.size() - 1);
+        int count = lines.size();
 
-        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, notificationIntent, PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_IMMUTABLE);
+        Intent clearIntent = new Intent(this, MyForegroundService.class).setAction(ACTION_CLEAR);
+        PendingIntent deleteIntent = PendingIntent.getService(this, 1, clearIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
 
         NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(this, CHANNEL_ID)
             .setSmallIcon(R.mipmap.push_icon)
-            .setContentTitle(title)
-            .setContentText(body)
             .setAutoCancel(true)
             .setPriority(NotificationCompat.PRIORITY_HIGH)
-            .setContentIntent(pendingIntent)
-            .setCategory(NotificationCompat.CATEGORY_SERVICE);
+            .setContentIntent(openAppIntent(ALERT_ID, count == 1 ? latest.orderId : null))
+            .setDeleteIntent(deleteIntent)
+            .setCategory(NotificationCompat.CATEGORY_MESSAGE)
+            .setGroup(GROUP_ORDERS)
+            .setGroupSummary(true)
+            .setNumber(count);
+
+        if (count == 1) {
+            notificationBuilder.setContentTitle(latest.title).setContentText(latest.body);
+        } else {
+            String title = count + " new orders";
+            NotificationCompat.InboxStyle inbox = new NotificationCompat.InboxStyle().setBigContentTitle(title);
+            for (int i = count - 1; i >= 0; i--) inbox.addLine(lines.get(i).body);
+            notificationBuilder.setContentTitle(title).setContentText(latest.body).setStyle(inbox);
+        }
 
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
             Uri soundUri = Uri.parse("android.resource://" + getPackageName() + "/" + R.raw.beep);
@@ -77,6 +201,21 @@ public class MyForegroundService extends Service {
         return notificationBuilder.build();
     }
 
+    // One request code per notification, or FLAG_UPDATE_CURRENT on a shared
+    // one rewrites the other notification's orderId extra
+    private PendingIntent openAppIntent(int requestCode, String orderId) {
+        Intent notificationIntent = new Intent(this, MainActivity.class);
+        notificationIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        if (orderId != null) notificationIntent.putExtra("orderId", orderId);
+        return PendingIntent.getActivity(this, requestCode, notificationIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    @Override
+    public void onDestroy() {
+        handler.removeCallbacks(flush);
+        super.onDestroy();
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return null;
@@ -0,0 +1,347 @@
+package com.cafeqr.app;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// On-device copy of recent orders, filled from FCM data payloads, so a tapped
+// order notification can render before the WebView has fetched anything.
+//
+// Append-only file of frames [int bodyLen][body][int crc32(body)] (same
+// framing as PrintSpool); body = orderId, receivedAt, updatedAt, JSON. A newer
+// frame for an orderId supersedes the older one. Memory holds only the index
+// (orderId -> offset), least recently used first; entries not used within
+// maxAgeMs, or past maxOrders, are evicted from the index and their frames
+// reclaimed when the file is rewritten. Losing the tail in a crash only
+// loses cache, so writes are flushed but not fsynced.
+class OrderStore {
+
+  private static final String TAG = "OrderStore";
+  static final int DEFAULT_MAX_ORDERS = 300;
+  static final long DEFAULT_MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+  private static final int MAX_ORDER_BYTES = 256 * 1024;
+  private static final long COMPACT_MIN_DEAD = 256 * 1024;
+
+  private static OrderStore instance;
+
+  static synchronized OrderStore get(Context ctx) {
+    if (instance == null) instance = new OrderStore(new File(ctx.getFilesDir(), "orders"));
+    return instance;
+  }
+
+  // Where an order's latest frame is
+  private static final class Ref {
+    final long offset;
+    final int length;     // whole frame
+    final long receivedAt;
+    final long updatedAt;
+    long usedAt;
+
+    Ref(long offset, int length, long receivedAt, long updatedAt) {
+      this.offset = offset;
+      this.length = length;
+      this.receivedAt = receivedAt;
+      this.updatedAt = updatedAt;
+      this.usedAt = updatedAt;
+    }
+  }
+
+  private final File file;
+  private final LinkedHashMap<String, Ref> index = new LinkedHashMap<>(64, 0.75f, true);
+  private int maxOrders = DEFAULT_MAX_ORDERS;
+  private long maxAgeMs = DEFAULT_MAX_AGE_MS;
+  private DataOutputStream out;
+  private RandomAccessFile reader;
+  private long size;
+  private long liveBytes;
+  private long hits;
+  private long misses;
+
+  private OrderStore(File dir) {
+    if (!dir.exists()) dir.mkdirs();
+    this.file = new File(dir, "orders.bin");
+  }
+
+  // FCM data payload as received; "order" may hold the order as a JSON string
+  synchronized void put(String orderId, Map<String, String> data) {
+    put(orderId, new JSONObject(data));
+  }
+
+  // A newer copy (e.g. what the web app fetched) replaces the stored one;
+  // receivedAt stays that of the first copy
+  synchronized void put(String orderId, JSONObject data) {
+    try {
+      open();
+      long now = System.currentTimeMillis();
+      Ref old = index.get(orderId);
+      byte[] body = body(orderId, old != null ? old.receivedAt : now, now, data.toString());
+      if (body.length > MAX_ORDER_BYTES) {
+        Log.w(TAG, "Order " + orderId + " too large to cache (" + body.length + " bytes)");
+        return;
+      }
+      long offset = size;
+      writeFrame(out, body);
+      out.flush();
+      size += 8 + body.length;
+      if (old != null) liveBytes -= old.length;
+      index.remove(orderId); // re-insert as most recent
+      index.put(orderId, new Ref(offset, 8 + body.length, old != null ? old.receivedAt : now, now));
+      liveBytes += 8 + body.length;
+      evict(now);
+    } catch (IOException e) {
+      Log.e(TAG, "Could not cache order " + orderId + ": " + e.getMessage());
+    }
+  }
+
+  // { orderId, receivedAt, updatedAt, data, order? } or null when not cached
+  synchronized JSObject get(String orderId) {
+    try {
+      open();
+      long now = System.currentTimeMillis();
+      evict(now);
+      Ref r = index.get(orderId);
+      if (r == null) {
+        misses++;
+        return null;
+      }
+      r.usedAt = now;
+      hits++;
+      return toJson(orderId, r, read(r));
+    } catch (IOException e) {
+      Log.e(TAG, "Could not read order " + orderId + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  // Most recently received first, without the payloads
+  synchronized JSArray list(int limit) {
+    JSArray arr = new JSArray();
+    try {
+      open();
+      evict(System.currentTimeMillis());
+    } catch (IOException e) {
+      return arr;
+    }
+    List<Map.Entry<String, Ref>> entries = new ArrayList<>(index.entrySet());
+    java.util.Collections.sort(entries, (a, b) -> Long.compare(b.getValue().receivedAt, a.getValue().receivedAt));
+    for (int i = 0; i < entries.size() && i < limit; i++) {
+      JSObject o = new JSObject();
+      o.put("orderId", entries.get(i).getKey());
+      o.put("receivedAt", entries.get(i).getValue().receivedAt);
+      o.put("updatedAt", entries.get(i).getValue().updatedAt);
+      arr.put(o);
+    }
+    return arr;
+  }
+
+  synchronized void configure(Integer maxOrders, Long maxAgeMs) {
+    if (maxOrders != null && maxOrders > 0) this.maxOrders = maxOrders;
+    if (maxAgeMs != null && maxAgeMs > 0) this.maxAgeMs = maxAgeMs;
+    try {
+      open();
+      evict(System.currentTimeMillis());
+    } catch (IOException e) {
+      Log.e(TAG, "Could not trim order cache: " + e.getMessage());
+    }
+  }
+
+  synchronized JSObject stats() {
+    try {
+      open();
+    } catch (IOException e) {
+      Log.e(TAG, "Could not open order cache: " + e.getMessage());
+    }
+    JSObject o = new JSObject();
+    o.put("orders", index.size());
+    o.put("maxOrders", maxOrders);
+    o.put("maxAgeMs", maxAgeMs);
+    o.put("fileBytes", size);
+    o.put("liveBytes", liveBytes);
+    o.put("hits", hits);
+    o.put("misses", misses);
+    return o;
+  }
+
+  synchronized void clear() {
+    try {
+      open();
+      index.clear();
+      rewrite();
+    } catch (IOException e) {
+      Log.e(TAG, "Could not clear order cache: " + e.getMessage());
+    }
+  }
+
+  // Builds the index on first use; a torn tail ends the scan and is cut off
+  private void open() throws IOException {
+    if (out != null) return;
+    long good = 0;
+    if (file.exists()) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+        while (true) {
+          int len;
+          try {
+            len = in.readInt();
+          } catch (EOFException eof) {
+            break;
+          }
+          if (len <= 0 || len > MAX_ORDER_BYTES) break;
+          byte[] body = new byte[len];
+          int crc;
+          try {
+            in.readFully(body);
+            crc = in.readInt();
+          } catch (EOFException torn) {
+            break;
+          }
+          if (crc != crc(body)) break;
+          DataInputStream b = new DataInputStream(new java.io.ByteArrayInputStream(body));
+          String id = b.readUTF();
+          long receivedAt = b.readLong();
+          long updatedAt = b.readLong();
+          Ref old = index.remove(id);
+          if (old != null) liveBytes -= old.length;
+          index.put(id, new Ref(good, 8 + len, receivedAt, updatedAt));
+          liveBytes += 8 + len;
+          good += 8 + len;
+        }
+      }
+      if (good < file.length()) {
+        Log.w(TAG, "Dropping torn order cache tail at " + good + "/" + file.length());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+          raf.setLength(good);
+        }
+      }
+    }
+    size = good;
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 16 * 1024));
+    reader = new RandomAccessFile(file, "r");
+    evict(System.currentTimeMillis());
+  }
+
+  // Drops least recently used entries past the age or count limit, then
+  // rewrites the file once most of it is superseded or evicted frames
+  private void evict(long now) throws IOException {
+    Iterator<Map.Entry<String, Ref>> it = index.entrySet().iterator();
+    while (it.hasNext()) {
+      Ref r = it.next().getValue();
+      if (index.size() <= maxOrders && now - r.usedAt <= maxAgeMs) break;
+      liveBytes -= r.length;
+      it.remove();
+    }
+    long dead = size - liveBytes;
+    if (dead > COMPACT_MIN_DEAD && dead > liveBytes) rewrite();
+  }
+
+  private byte[] read(Ref r) throws IOException {
+    byte[] frame = new byte[r.length];
+    reader.seek(r.offset);
+    reader.readFully(frame);
+    return java.util.Arrays.copyOfRange(frame, 4, frame.length - 4);
+  }
+
+  // Live frames, least recently used first, into a temp file renamed over the store
+  private void rewrite() throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    Map<String, Ref> next = new LinkedHashMap<>();
+    long at = 0;
+    try (DataOutputStream tout = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+      for (Map.Entry<String, Ref> e : index.entrySet()) {
+        Ref r = e.getValue();
+        byte[] body = read(r);
+        writeFrame(tout, body);
+        Ref moved = new Ref(at, r.length, r.receivedAt, r.updatedAt);
+        moved.usedAt = r.usedAt;
+        next.put(e.getKey(), moved);
+        at += r.length;
+      }
+    }
+    out.close();
+    reader.close();
+    if (!tmp.renameTo(file)) throw new IOException("Could not replace order cache");
+    index.clear();
+    index.putAll(next);
+    size = at;
+    liveBytes = at;
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 16 * 1024));
+    reader = new RandomAccessFile(file, "r");
+  }
+
+  private static JSObject toJson(String orderId, Ref r, byte[] body) throws IOException {
+    DataInputStream in = new DataInputStream(new java.io.ByteArrayInputStream(body));
+    in.readUTF();
+    in.readLong();
+    in.readLong();
+    byte[] json = new byte[in.readInt()];
+    in.readFully(json);
+    JSObject o = new JSObject();
+    o.put("orderId", orderId);
+    o.put("receivedAt", r.receivedAt);
+    o.put("updatedAt", r.updatedAt);
+    try {
+      JSONObject data = new JSONObject(new String(json, StandardCharsets.UTF_8));
+      o.put("data", data);
+      // FCM data values are strings; an embedded order is handed back parsed
+      Object order = data.opt("order");
+      if (order instanceof String) {
+        try {
+          o.put("order", new JSONObject((String) order));
+        } catch (Exception ignored) {
+          // not JSON, stays a string in data
+        }
+      } else if (order instanceof JSONObject) {
+        o.put("order", order);
+      }
+    } catch (Exception e) {
+      throw new IOException("Corrupt cached order " + orderId);
+    }
+    return o;
+  }
+
+  private static byte[] body(String orderId, long receivedAt, long updatedAt, String json) throws IOException {
+    byte[] data = json.getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length + 64);
+    DataOutputStream d = new DataOutputStream(bos);
+    d.writeUTF(orderId);
+    d.writeLong(receivedAt);
+    d.writeLong(updatedAt);
+    d.writeInt(data.length);
+    d.write(data);
+    return bos.toByteArray();
+  }
+
+  private static void writeFrame(DataOutputStream o, byte[] body) throws IOException {
+    o.writeInt(body.length);
+    o.write(body);
+    o.writeInt(crc(body));
+  }
+
+  private static int crc(byte[] body) {
+    CRC32 c = new CRC32();
+    c.update(body, 0, body.length);
+    return (int) c.getValue();
+  }
+}
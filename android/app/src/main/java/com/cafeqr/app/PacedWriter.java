@@ -0,0 +1,143 @@
+package com.cafeqr.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+// Writes one ESC/POS job to a stream according to a PacingProfile.
+// Plain java.io only, so it can run against any stream-backed transport.
+final class PacedWriter {
+
+  static final byte[] RESET = { 0x1b, '@' };           // ESC @
+  static final byte[] TRAILER = { 0x0a, 0x0a };        // 2 LF
+  static final byte[] STATUS_QUERY = { 0x10, 0x04, 0x01 }; // DLE EOT 1 (printer status)
+
+  private static final int STREAM_BUFFER = 16 * 1024;
+  private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+    @Override protected byte[] initialValue() { return new byte[STREAM_BUFFER]; }
+  };
+
+  private PacedWriter() {}
+
+  // Returns the DLE EOT status byte, or -1 when the printer did not answer
+  // (or the profile does not ask for it).
+  static int write(OutputStream os, InputStream in, byte[] data, PacingProfile p) throws IOException {
+    send(os, data, p);
+    return settle(os, in, p);
+  }
+
+  // Same as write() but reads the job from src one chunk at a time through a
+  // per-thread buffer, so memory stays flat however large the job is.
+  static int write(OutputStream os, InputStream in, InputStream src, PacingProfile p) throws IOException {
+    send(os, src, p);
+    return settle(os, in, p);
+  }
+
+  // Reset, paced chunks and trailer; settle() is separate so callers can time it
+  static void send(OutputStream os, byte[] data, PacingProfile p) throws IOException {
+    reset(os, p);
+    body(os, data, 0, data.length, p);
+    trailer(os);
+  }
+
+  static void send(OutputStream os, InputStream src, PacingProfile p) throws IOException {
+    byte[] buf = BUFFER.get();
+    int chunk = Math.min(p.chunkSize, buf.length);
+    reset(os, p);
+
+    boolean first = true;
+    int n;
+    while ((n = fill(src, buf, chunk)) > 0) {
+      if (!first) pause(p.chunkDelayMs);
+      os.write(buf, 0, n);
+      os.flush();
+      first = false;
+    }
+
+    trailer(os);
+  }
+
+  // The pieces of send(), for jobs written one segment at a time
+  static void reset(OutputStream os, PacingProfile p) throws IOException {
+    os.write(RESET);
+    os.flush();
+    pause(p.resetDelayMs);
+  }
+
+  // data[from, to) in paced chunks
+  static void body(OutputStream os, byte[] data, int from, int to, PacingProfile p) throws IOException {
+    int offset = from;
+    while (offset < to) {
+      int len = Math.min(p.chunkSize, to - offset);
+      os.write(data, offset, len);
+      os.flush();
+      offset += len;
+      if (offset < to) pause(p.chunkDelayMs);
+    }
+  }
+
+  static void trailer(OutputStream os) throws IOException {
+    os.write(TRAILER);
+    os.flush();
+  }
+
+  // Waits for the printer to catch up; returns the DLE EOT status byte or -1
+  static int settle(OutputStream os, InputStream in, PacingProfile p) throws IOException {
+    if (!p.waitForStatus || in == null) {
+      pause(p.settleDelayMs);
+      return -1;
+    }
+    // Drop anything stale (earlier ASB/status bytes) before asking
+    while (in.available() > 0) {
+      if (in.read() < 0) break;
+    }
+    os.write(STATUS_QUERY);
+    os.flush();
+    long deadline = System.currentTimeMillis() + p.settleDelayMs;
+    while (System.currentTimeMillis() < deadline) {
+      if (in.available() > 0) {
+        int b = in.read();
+        if (b >= 0) return b;
+      }
+      pause(2);
+    }
+    return -1;
+  }
+
+  // Unpaced copy through the per-thread buffer (USB: the endpoint paces itself)
+  static void copy(InputStream src, OutputStream os) throws IOException {
+    byte[] buf = BUFFER.get();
+    int n;
+    while ((n = fill(src, buf, buf.length)) > 0) os.write(buf, 0, n);
+  }
+
+  // Reads until len bytes or end of stream; returns the count (0 at EOF)
+  static int fill(InputStream src, byte[] buf, int len) throws IOException {
+    int n = 0;
+    while (n < len) {
+      int r = src.read(buf, n, len - n);
+      if (r < 0) break;
+      n += r;
+    }
+    return n;
+  }
+
+  // Status byte bit 3 set means the printer reports itself offline
+  static boolean isOnline(int status) {
+    return status >= 0 && (status & 0x08) == 0;
+  }
+
+  // An interrupt aborts the job instead of being swallowed: with the flag
+  // left set every later sleep would return at once and the rest of the job
+  // would go out unpaced
+  static void pause(int ms) throws InterruptedIOException {
+    if (ms <= 0) return;
+    try {
+      Thread.sleep(ms);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while pacing");
+    }
+  }
+}
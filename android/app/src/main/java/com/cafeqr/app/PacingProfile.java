@@ -0,0 +1,63 @@
+package com.cafeqr.app;
+
+// How fast bytes are pushed to one printer: chunk size, gaps between chunks,
+// the pause after ESC @ and the settle time after the job.
+final class PacingProfile {
+
+  // Old hard-coded behaviour; safe for the slowest clones
+  static final PacingProfile LEGACY = new PacingProfile("legacy", 256, 15, 80, 350, false);
+  static final PacingProfile BALANCED = new PacingProfile("balanced", 1024, 4, 30, 200, true);
+  static final PacingProfile FAST = new PacingProfile("fast", 4096, 0, 5, 150, true);
+  // TCP printers: flow control paces the link, so big chunks and no gaps (not a learning tier)
+  static final PacingProfile NETWORK = new PacingProfile("network", 16 * 1024, 0, 10, 500, true);
+
+  private static final PacingProfile[] TIERS = { LEGACY, BALANCED, FAST };
+
+  final String name;
+  final int chunkSize;
+  final int chunkDelayMs;
+  final int resetDelayMs;
+  final int settleDelayMs;
+  // Send DLE EOT 1 after the job and stop settling as soon as the printer answers
+  final boolean waitForStatus;
+
+  PacingProfile(String name, int chunkSize, int chunkDelayMs, int resetDelayMs, int settleDelayMs, boolean waitForStatus) {
+    this.name = name;
+    this.chunkSize = Math.max(16, chunkSize);
+    this.chunkDelayMs = Math.max(0, chunkDelayMs);
+    this.resetDelayMs = Math.max(0, resetDelayMs);
+    this.settleDelayMs = Math.max(0, settleDelayMs);
+    this.waitForStatus = waitForStatus;
+  }
+
+  static PacingProfile preset(String name) {
+    for (PacingProfile p : TIERS) {
+      if (p.name.equals(name)) return p;
+    }
+    return null;
+  }
+
+  // Same pacing but asking for DLE EOT after the job, for learning on LEGACY
+  PacingProfile withStatus() {
+    if (waitForStatus) return this;
+    return new PacingProfile(name, chunkSize, chunkDelayMs, resetDelayMs, settleDelayMs, true);
+  }
+
+  // Next tier up/down for auto-learning; returns this when already at the end
+  PacingProfile faster() {
+    int i = tierIndex();
+    return i >= 0 && i < TIERS.length - 1 ? TIERS[i + 1] : this;
+  }
+
+  PacingProfile slower() {
+    int i = tierIndex();
+    return i > 0 ? TIERS[i - 1] : (i == 0 ? this : LEGACY);
+  }
+
+  int tierIndex() {
+    for (int i = 0; i < TIERS.length; i++) {
+      if (TIERS[i] == this) return i;
+    }
+    return -1;
+  }
+}
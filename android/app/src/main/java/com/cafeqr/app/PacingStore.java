@@ -0,0 +1,187 @@
+package com.cafeqr.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per-printer pacing, either pinned by the user or learned from print results.
+// Learned printers start on LEGACY, step up only after a run of jobs the
+// printer acknowledged via DLE EOT, and step down (capped below the tier that
+// failed) after an overrun. The cap is lifted again after a long clean run,
+// waiting twice as long after each overrun. While learning, status is queried
+// on every tier so that LEGACY can earn its first step up.
+class PacingStore {
+
+  private static final String TAG = "PacingStore";
+  private static final String PREFS = "printer_pacing";
+  private static final int STEP_UP_AFTER = 5;
+  private static final int LIFT_CAP_AFTER = 4;  // capped runs of STEP_UP_AFTER jobs
+  private static final int MAX_STRIKES = 5;
+
+  private static PacingStore instance;
+
+  static synchronized PacingStore get(Context ctx) {
+    if (instance == null) instance = new PacingStore(ctx.getApplicationContext());
+    return instance;
+  }
+
+  private static final class State {
+    boolean fixed;
+    PacingProfile profile = PacingProfile.LEGACY;
+    int ceiling = Integer.MAX_VALUE; // highest tier allowed after an overrun
+    int strikes;                     // overruns so far; each doubles the wait to lift the cap
+    int streak;
+    int cappedRuns;
+  }
+
+  private final SharedPreferences prefs;
+  private final Map<String, State> states = new ConcurrentHashMap<>();
+
+  private PacingStore(Context ctx) {
+    prefs = ctx.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+  }
+
+  PacingProfile profileFor(String address) {
+    State s = state(address);
+    synchronized (s) {
+      return s.fixed ? s.profile : s.profile.withStatus();
+    }
+  }
+
+  private State state(String address) {
+    String key = address.toUpperCase();
+    State s = states.get(key);
+    if (s != null) return s;
+    s = load(key);
+    State prev = states.putIfAbsent(key, s);
+    return prev != null ? prev : s;
+  }
+
+  // Feed back the outcome of one job. overrun: the write broke after the
+  // printer had taken part of the job - link, connect and paper problems are
+  // not pacing's business and must not be reported here. status is the DLE
+  // EOT reply or -1.
+  void record(String address, boolean overrun, int status) {
+    State s = state(address);
+    synchronized (s) {
+      if (s.fixed) return;
+      int tier = s.profile.tierIndex();
+      if (overrun) {
+        PacingProfile slower = s.profile.slower();
+        s.ceiling = Math.max(0, tier - 1);
+        s.strikes = Math.min(MAX_STRIKES, s.strikes + 1);
+        s.streak = 0;
+        s.cappedRuns = 0;
+        if (slower != s.profile) {
+          Log.i(TAG, address + " pacing " + s.profile.name + " -> " + slower.name);
+          s.profile = slower;
+        }
+        save(address, s);
+        return;
+      }
+      // Only printers that answer status can prove they keep up
+      if (!PacedWriter.isOnline(status)) return;
+      if (++s.streak < STEP_UP_AFTER) return;
+      s.streak = 0;
+      PacingProfile faster = s.profile.faster();
+      if (faster == s.profile) return;
+      if (faster.tierIndex() > s.ceiling) {
+        // Capped: a long enough clean run earns the faster tier another try
+        if (++s.cappedRuns < LIFT_CAP_AFTER << Math.max(0, s.strikes - 1)) return;
+        s.ceiling = faster.tierIndex();
+      }
+      s.cappedRuns = 0;
+      Log.i(TAG, address + " pacing " + s.profile.name + " -> " + faster.name);
+      s.profile = faster;
+      save(address, s);
+    }
+  }
+
+  // profile: "auto" to (re)start learning, a preset name, or explicit numbers
+  void configure(String address, JSObject opts) {
+    State s = state(address);
+    synchronized (s) {
+      String name = opts.getString("profile");
+      if ("auto".equals(name)) {
+        s.fixed = false;
+        s.profile = PacingProfile.LEGACY;
+        s.ceiling = Integer.MAX_VALUE;
+        s.strikes = 0;
+        s.streak = 0;
+        s.cappedRuns = 0;
+      } else {
+        PacingProfile base = PacingProfile.preset(name);
+        if (base == null) base = s.profile;
+        boolean custom = opts.has("chunkSize") || opts.has("chunkDelayMs") || opts.has("resetDelayMs")
+          || opts.has("settleDelayMs") || opts.has("waitForStatus");
+        s.fixed = true;
+        s.profile = !custom ? base : new PacingProfile("custom",
+          opts.optInt("chunkSize", base.chunkSize),
+          opts.optInt("chunkDelayMs", base.chunkDelayMs),
+          opts.optInt("resetDelayMs", base.resetDelayMs),
+          opts.optInt("settleDelayMs", base.settleDelayMs),
+          opts.optBoolean("waitForStatus", base.waitForStatus));
+      }
+      save(address, s);
+    }
+  }
+
+  JSObject toJson(String address) {
+    State s = state(address);
+    synchronized (s) {
+      JSObject o = toJson(s.profile);
+      o.put("address", address.toUpperCase());
+      o.put("mode", s.fixed ? "fixed" : "auto");
+      return o;
+    }
+  }
+
+  static JSObject toJson(PacingProfile p) {
+    JSObject o = new JSObject();
+    o.put("profile", p.name);
+    o.put("chunkSize", p.chunkSize);
+    o.put("chunkDelayMs", p.chunkDelayMs);
+    o.put("resetDelayMs", p.resetDelayMs);
+    o.put("settleDelayMs", p.settleDelayMs);
+    o.put("waitForStatus", p.waitForStatus);
+    return o;
+  }
+
+  private State load(String key) {
+    State s = new State();
+    String raw = prefs.getString(key, null);
+    if (raw == null) return s;
+    try {
+      JSONObject o = new JSONObject(raw);
+      s.fixed = o.optBoolean("fixed", false);
+      s.ceiling = o.optInt("ceiling", Integer.MAX_VALUE);
+      s.strikes = o.optInt("strikes", 0);
+      String name = o.optString("profile", PacingProfile.LEGACY.name);
+      PacingProfile preset = PacingProfile.preset(name);
+      s.profile = preset != null ? preset : new PacingProfile(name,
+        o.optInt("chunkSize", PacingProfile.LEGACY.chunkSize),
+        o.optInt("chunkDelayMs", PacingProfile.LEGACY.chunkDelayMs),
+        o.optInt("resetDelayMs", PacingProfile.LEGACY.resetDelayMs),
+        o.optInt("settleDelayMs", PacingProfile.LEGACY.settleDelayMs),
+        o.optBoolean("waitForStatus", PacingProfile.LEGACY.waitForStatus));
+    } catch (Exception e) {
+      Log.w(TAG, "Bad pacing entry for " + key + ": " + e.getMessage());
+    }
+    return s;
+  }
+
+  private void save(String address, State s) {
+    JSObject o = toJson(s.profile);
+    o.put("fixed", s.fixed);
+    o.put("ceiling", s.ceiling);
+    o.put("strikes", s.strikes);
+    prefs.edit().putString(address.toUpperCase(), o.toString()).apply();
+  }
+}
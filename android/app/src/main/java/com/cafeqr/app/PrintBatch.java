@@ -0,0 +1,107 @@
+package com.cafeqr.app;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// An ordered list of jobs (receipt, KOT, copies...) grouped by target printer.
+// Each group is queued as one PrintJob, so it goes out over one connection
+// with a single ESC @ reset and settle; results are reported per input job.
+// A group is scheduled at the most urgent priority among its jobs.
+class PrintBatch {
+
+  static final class Group {
+    final String key;
+    final String address;
+    final String nameContains;
+    final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    PrintJob.Priority priority = PrintJob.Priority.REPORT;
+    volatile PrintJob job;
+    volatile String rejected;
+
+    Group(String key, String address, String nameContains) {
+      this.key = key;
+      this.address = address;
+      this.nameContains = nameContains;
+    }
+  }
+
+  // One input job: where it went and how many copies it added there
+  private static final class Input {
+    final Group group;
+    final int copies;
+
+    Input(Group group, int copies) {
+      this.group = group;
+      this.copies = copies;
+    }
+  }
+
+  private final Map<String, Group> groups = new LinkedHashMap<>();
+  private final List<Input> inputs = new ArrayList<>();
+
+  // Appends the next job, copies times, to its printer's group (first-seen
+  // printer order is kept); it still counts as one input job in results()
+  void add(String address, String nameContains, byte[] data, int copies, PrintJob.Priority priority) {
+    String key = PrintQueue.keyFor(address, nameContains);
+    Group g = groups.get(key);
+    if (g == null) {
+      g = new Group(key, address, nameContains);
+      groups.put(key, g);
+    }
+    int n = Math.max(1, copies);
+    for (int c = 0; c < n; c++) g.data.write(data, 0, data.length);
+    if (priority.compareTo(g.priority) < 0) g.priority = priority;
+    inputs.add(new Input(g, n));
+  }
+
+  // Queues one job per group. Each printer has its own queue worker, so groups
+  // for different printers go out in parallel and a slow one holds up only
+  // itself. whenDone (may be null) runs once after every group has finished
+  // or been rejected.
+  void submit(PrintDispatcher dispatcher, Runnable whenDone) {
+    AtomicInteger left = new AtomicInteger(groups.size());
+    for (Group g : groups.values()) {
+      PrintJob.Listener done = j -> {
+        if (j != null) g.job = j; // may finish before submit() returns
+        if (left.decrementAndGet() == 0 && whenDone != null) whenDone.run();
+      };
+      try {
+        g.job = dispatcher.submit(g.data.toByteArray(), g.address, g.nameContains, g.priority, done);
+      } catch (RejectedExecutionException e) {
+        g.rejected = e.getMessage();
+        done.onFinished(null);
+      }
+    }
+  }
+
+  // One entry per input job, in input order
+  JSObject results() {
+    JSArray list = new JSArray();
+    boolean allOk = true;
+    for (int i = 0; i < inputs.size(); i++) {
+      Input in = inputs.get(i);
+      Group g = in.group;
+      JSObject r = g.job != null ? g.job.toJson() : new JSObject().put("printer", g.key).put("state", "failed");
+      if (g.rejected != null) r.put("error", g.rejected);
+      boolean ok = g.job != null && g.job.state == PrintJob.State.DONE;
+      r.put("index", i);
+      r.put("copies", in.copies);
+      if (g.job == null || g.job.isFinished()) r.put("ok", ok);
+      list.put(r);
+      allOk &= ok;
+    }
+    JSObject out = new JSObject();
+    out.put("ok", allOk);
+    out.put("groups", groups.size());
+    out.put("results", list);
+    return out;
+  }
+}
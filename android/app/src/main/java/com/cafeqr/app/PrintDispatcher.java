@@ -0,0 +1,334 @@
+package com.cafeqr.app;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+
+// Native print path shared by the plugin, BootReceiver and background services:
+// spools a job, queues it on its printer's worker and routes it to USB or
+// Bluetooth, or straight to a network printer for "tcp://" addresses.
+// Long in-memory jobs below KOT priority are written in segments so a KOT
+// queued meanwhile prints between two of them (see PrintQueue).
+class PrintDispatcher {
+
+  private static final String TAG = "PrintDispatcher";
+  // Tickets older than this are not worth printing after a restart
+  private static final long MAX_REPLAY_AGE_MS = 6 * 60 * 60 * 1000L;
+  // ~1-2 s of printing per segment on a Bluetooth printer; shorter jobs stay whole
+  private static final int SEGMENT_BYTES = 6 * 1024;
+
+  private static PrintDispatcher instance;
+
+  static synchronized PrintDispatcher get(Context ctx) {
+    if (instance == null) instance = new PrintDispatcher(ctx.getApplicationContext());
+    return instance;
+  }
+
+  private final Context ctx;
+  private final PrintSpool spool;
+  private final List<PrintJob.Listener> listeners = new CopyOnWriteArrayList<>();
+  private boolean spoolOpen;
+  private List<PrintSpool.Entry> recovered;
+
+  private PrintDispatcher(Context ctx) {
+    this.ctx = ctx;
+    this.spool = new PrintSpool(new File(ctx.getFilesDir(), "print-spool"));
+  }
+
+  // Every finished job (including replayed ones) is reported here
+  void addListener(PrintJob.Listener l) {
+    listeners.add(l);
+  }
+
+  void removeListener(PrintJob.Listener l) {
+    listeners.remove(l);
+  }
+
+  private synchronized void ensureSpool() {
+    if (spoolOpen) return;
+    try {
+      recovered = spool.open();
+    } catch (Exception e) {
+      Log.e(TAG, "Print spool unavailable: " + e.getMessage());
+    }
+    spoolOpen = true;
+  }
+
+  // Spools the job durably, then queues it. listener may be null.
+  PrintJob submit(byte[] data, String address, String nameContains, PrintJob.Priority priority,
+                  PrintJob.Listener listener) {
+    return submit(PrintPayload.of(data), address, nameContains, priority, listener);
+  }
+
+  // Streamed variant: file/URI payloads are read chunk by chunk at print time
+  PrintJob submit(PrintPayload payload, String address, String nameContains, PrintJob.Priority priority,
+                  PrintJob.Listener listener) {
+    PrintJob job = new PrintJob(PrintQueue.keyFor(address, nameContains), payload.sizeHint(), priority,
+      j -> print(payload, address, nameContains, j));
+    segment(job, payload);
+    enqueue(job, address, nameContains, payload, listener, true);
+    return job;
+  }
+
+  // Only in-memory payloads are segmented; a KOT never needs to give way
+  private static void segment(PrintJob job, PrintPayload payload) {
+    byte[] bytes = payload.bytes();
+    if (bytes == null || job.priority == PrintJob.Priority.KOT || bytes.length < 2 * SEGMENT_BYTES) return;
+    job.segments = EscPosSegmenter.plan(bytes, SEGMENT_BYTES);
+  }
+
+  private void enqueue(PrintJob job, String address, String nameContains, PrintPayload payload,
+                       PrintJob.Listener listener, boolean journal) {
+    ensureSpool();
+    boolean spooled = false;
+    if (journal) {
+      try {
+        spool.add(job, address, nameContains, payload);
+        spooled = true;
+      } catch (Exception e) {
+        // Printing still beats failing the order; it just won't survive a crash
+        Log.w(TAG, "Could not spool job " + job.id + ": " + e.getMessage());
+      }
+    } else {
+      spooled = true;
+    }
+    final boolean mark = spooled;
+    try {
+      PrintQueue.shared().submit(job, j -> {
+        if (mark) spool.markDone(j.id, j.state == PrintJob.State.DONE);
+        payload.release();
+        PrintStats.shared().record(j);
+        for (PrintJob.Listener l : listeners) l.onFinished(j);
+        if (listener != null) listener.onFinished(j);
+      });
+    } catch (RejectedExecutionException e) {
+      if (mark) spool.markDone(job.id, false);
+      payload.release();
+      throw e;
+    }
+  }
+
+  // Re-queues jobs that were spooled but never confirmed before the process died.
+  // Safe to call repeatedly; the journal is only replayed once per process.
+  synchronized int replaySpool() {
+    ensureSpool();
+    List<PrintSpool.Entry> pending = recovered;
+    recovered = null;
+    if (pending == null || pending.isEmpty()) return 0;
+    long now = System.currentTimeMillis();
+    int replayed = 0;
+    for (PrintSpool.Entry e : pending) {
+      PrintPayload payload = e.data != null ? PrintPayload.of(e.data) : PrintPayload.fromRef(ctx, e.ref);
+      if (payload == null || now - e.enqueuedAt > MAX_REPLAY_AGE_MS) {
+        spool.markDone(e.id, false);
+        if (payload != null) payload.release();
+        continue;
+      }
+      PrintJob job = new PrintJob(e.id, e.printerKey, payload.sizeHint(), e.priority,
+        j -> print(payload, e.address, e.nameContains, j));
+      segment(job, payload);
+      try {
+        enqueue(job, e.address, e.nameContains, payload, null, false);
+        replayed++;
+      } catch (RejectedExecutionException ex) {
+        Log.w(TAG, "Replay rejected for " + e.id + ": " + ex.getMessage());
+      }
+    }
+    Log.i(TAG, "Replayed " + replayed + " spooled print job(s)");
+    return replayed;
+  }
+
+  // USB or Bluetooth, whichever last worked for this printer (RouteSelector
+  // hedges a slow connect); a job addressed to a Bluetooth printer goes to
+  // that printer only. Returns the route used
+  String print(PrintPayload data, String address, String nameContains, PrintJob job) throws Exception {
+    if (TcpTransport.isTcp(address)) return printTcp(data, address, job);
+    UsbSessionManager usb = UsbSessionManager.get(ctx);
+    RouteSelector.Route usbRoute = new RouteSelector.Route("usb") {
+      // Cached session: enumeration/claim only happen after attach or permission events
+      @Override boolean connect() { return usb.hasPrinter(); }
+      @Override boolean write() {
+        long t0 = System.currentTimeMillis();
+        try {
+          counting(new UsbTransport(usb)).execute((out, in) -> {
+            byte[] bytes = data.bytes();
+            if (job.segments != null) {
+              sendSegments(out, bytes, job, null);
+            } else if (bytes != null) {
+              out.write(bytes);
+            } else {
+              try (InputStream src = data.open()) {
+                PacedWriter.copy(src, out);
+              }
+            }
+          });
+          return true;
+        } catch (IOException e) {
+          Log.w(TAG, "USB write failed: " + e.getMessage());
+          return false;
+        } finally {
+          job.writeMs = System.currentTimeMillis() - t0;
+          job.settleMs = 0; // bulkTransfer returns once the printer has taken the data
+        }
+      }
+    };
+    RouteSelector.Route btRoute = new RouteSelector.Route("bt") {
+      private BluetoothDevice dev;
+
+      @Override boolean connect() throws Exception {
+        PrinterIndex index = PrinterIndex.get(ctx);
+        dev = index.resolve(address, nameContains);
+        if (dev == null) return false;
+        BluetoothConnectionPool pool = BluetoothConnectionPool.shared();
+        if (pool.isWarm(dev.getAddress())) return true;
+        // Switched-off printer: skip it instead of blocking on connect again
+        PrinterHealth health = PrinterHealth.get(ctx);
+        if (!health.allow(dev.getAddress())) throw new IOException(health.rejection(dev.getAddress()));
+        long t0 = System.currentTimeMillis();
+        try {
+          pool.connect(dev);
+        } catch (IOException | RuntimeException e) {
+          health.failure(dev.getAddress(), e.getMessage());
+          throw e;
+        }
+        health.success(dev.getAddress(), -1);
+        index.recordConnect(dev.getAddress(), System.currentTimeMillis() - t0);
+        return true;
+      }
+
+      @Override boolean write() {
+        return dev != null && writePaced(counting(new BluetoothTransport(BluetoothConnectionPool.shared(), dev)),
+          dev.getAddress(), data, job);
+      }
+    };
+    // An attached USB printer is another printer, not another path to this one
+    if (address != null && !address.isEmpty()) return RouteSelector.get(ctx).print(job, btRoute);
+    return RouteSelector.get(ctx).print(job, usbRoute, btRoute);
+  }
+
+  // Network printer: one route, persistent socket on the shared selector, TCP
+  // flow control instead of pacing. Any failure counts against the breaker,
+  // since a LAN printer that drops a job is as good as unreachable.
+  private String printTcp(PrintPayload data, String address, PrintJob job) throws Exception {
+    TcpTransport transport = TcpTransport.parse(TcpConnectionPool.shared(), address);
+    PrinterHealth health = PrinterHealth.get(ctx);
+    if (!health.allow(address)) throw new IOException(health.rejection(address));
+    PacingProfile profile = PacingProfile.NETWORK;
+    job.pacing = profile.name;
+    job.routeMs = 0;
+    final int[] status = { -1 };
+    long t0 = System.currentTimeMillis();
+    try {
+      boolean retried = transport.execute((os, in) -> {
+        long w0 = System.currentTimeMillis();
+        byte[] bytes = data.bytes();
+        if (job.segments != null) {
+          sendSegments(os, bytes, job, profile);
+        } else if (bytes != null) {
+          PacedWriter.send(os, bytes, profile);
+        } else {
+          try (InputStream src = data.open()) {
+            PacedWriter.send(os, src, profile);
+          }
+        }
+        long w1 = System.currentTimeMillis();
+        status[0] = PacedWriter.settle(os, in, profile);
+        job.writeMs = w1 - w0;
+        job.settleMs = System.currentTimeMillis() - w1;
+      });
+      if (retried) job.retries++;
+    } catch (IOException e) {
+      health.failure(address, e.getMessage());
+      throw e;
+    }
+    // What the write and settle didn't take was spent connecting (0 on a kept-alive socket)
+    job.connectMs = Math.max(0, System.currentTimeMillis() - t0 - job.writeMs - job.settleMs);
+    health.success(address, status[0]);
+    return transport.name();
+  }
+
+  // Paced write with a DLE EOT settle; the outcome tunes this printer's pacing
+  private boolean writePaced(PrinterTransport transport, String address, PrintPayload data, PrintJob job) {
+    PacingStore pacing = PacingStore.get(ctx);
+    PacingProfile profile = pacing.profileFor(address);
+    job.pacing = profile.name;
+    final boolean[] overrun = { false };
+    final int[] status = { -1 };
+    try {
+      // Bluetooth: pooled socket, both the SDP and reflection paths are opened by the pool
+      boolean retried = transport.execute((raw, in) -> {
+        overrun[0] = false;
+        CountingOutputStream os = new CountingOutputStream(raw);
+        byte[] bytes = data.bytes();
+        long t0 = System.currentTimeMillis();
+        try {
+          if (job.segments != null) {
+            sendSegments(os, bytes, job, profile);
+          } else if (bytes != null) {
+            PacedWriter.send(os, bytes, profile);
+          } else {
+            // Re-opened on every attempt so a pool retry starts from the top
+            try (InputStream src = data.open()) {
+              PacedWriter.send(os, src, profile);
+            }
+          }
+        } catch (IOException e) {
+          // Broke after the printer took part of the job: likely more than it
+          // keeps up with. Failing before the first byte (link down, printer
+          // off) or being aborted says nothing about pacing.
+          overrun[0] = os.written() > 0 && !(e instanceof InterruptedIOException);
+          throw e;
+        }
+        long t1 = System.currentTimeMillis();
+        status[0] = PacedWriter.settle(os, in, profile);
+        job.writeMs = t1 - t0;
+        job.settleMs = System.currentTimeMillis() - t1;
+      });
+      if (retried) job.retries++;
+      pacing.record(address, false, status[0]);
+      PrinterIndex.get(ctx).recordPrinted(address, status[0]);
+      PrinterHealth.get(ctx).success(address, status[0]);
+      return true;
+    } catch (Exception ex) {
+      // The printer fell behind mid-job: slow it down next time
+      if (overrun[0]) pacing.record(address, true, -1);
+      return false;
+    }
+  }
+
+  // Writes a segmented job from job.nextSegment on. Between segments it gives
+  // way when a more urgent job is queued for this printer: the job yields and
+  // the trailer is left for the last slice. A resumed slice starts with a
+  // reset plus the modes that were in force, since the other job changed them.
+  // profile null means unpaced (USB).
+  private static void sendSegments(OutputStream os, byte[] data, PrintJob job, PacingProfile profile)
+      throws IOException {
+    EscPosSegmenter.Plan plan = job.segments;
+    int first = job.nextSegment;
+    if (profile != null) PacedWriter.reset(os, profile);
+    if (first > 0) {
+      if (profile == null) os.write(PacedWriter.RESET);
+      os.write(plan.prefixes[first]);
+    }
+    for (int i = first; i < plan.count(); i++) {
+      if (i > first && job.shouldYield()) {
+        job.yieldAt(i);
+        os.flush();
+        return;
+      }
+      if (profile != null) PacedWriter.body(os, data, plan.start(i), plan.end(i), profile);
+      else os.write(data, plan.start(i), plan.end(i) - plan.start(i));
+    }
+    if (profile != null) PacedWriter.trailer(os);
+    os.flush();
+  }
+}
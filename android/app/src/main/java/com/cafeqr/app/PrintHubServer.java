@@ -0,0 +1,780 @@
+package com.cafeqr.app;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Base64;
+import android.util.Log;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+// Embedded LAN print hub, so tablets without a printer print through this one.
+// One selector thread serves, without a thread per client:
+//  - HTTP on port (default 3333) with the print-hub-win/server.js contract:
+//    GET /health, GET /printers, POST /printRaw { printerName, dataBase64 },
+//    answered once the job has printed (or failed), CORS open like the Windows hub
+//  - optionally raw TCP on rawPort, 9100-style, only with a defaultPrinter:
+//    one connection is one job for that printer, up to EOF (RAW_IDLE_MS of
+//    silence only guards against senders that never close), so another
+//    device can use "tcp://<this-ip>:<rawPort>" as its printer address.
+//    Jobs bigger than MAX_BODY go to a print stream file on the spill thread
+// Jobs enter the normal print path (PrintDispatcher): spooled, queued per
+// printer and prioritised like local ones. Spooling fsyncs and /printers asks
+// the Bluetooth service, so both run on a worker pool and post their answer
+// back to the selector thread. Each client IP may have
+// maxPerClient jobs in flight; the next one gets 429 (raw: is dropped).
+// Run by PrintHubService; the config lives in SharedPreferences.
+class PrintHubServer {
+
+  private static final String TAG = "PrintHubServer";
+  private static final String PREFS = "print_hub";
+  static final int DEFAULT_PORT = 3333;
+  static final int DEFAULT_MAX_PER_CLIENT = 2;
+  private static final int MAX_BODY = 2 * 1024 * 1024;     // same limit as the Windows hub
+  private static final int MAX_HEADER = 16 * 1024;
+  private static final int MAX_CONNECTIONS = 64;
+  private static final int MAX_CONNECTIONS_PER_CLIENT = 8;
+  private static final long IDLE_MS = 30_000;
+  private static final long RAW_IDLE_MS = 60_000;
+  private static final long TICK_MS = 100;
+
+  private static PrintHubServer instance;
+
+  static synchronized PrintHubServer get(Context ctx) {
+    if (instance == null) instance = new PrintHubServer(ctx.getApplicationContext());
+    return instance;
+  }
+
+  // { port, rawPort, maxPerClient, token, defaultPrinter,
+  //   printers: { "Kitchen": { address?, nameContains? } } }
+  static final class Config {
+    final int port;
+    final int rawPort;        // 0 = off
+    final int maxPerClient;
+    final String token;       // required as X-Print-Token when set
+    final String defaultPrinter;
+    final Map<String, String[]> printers = new LinkedHashMap<>(); // name -> { address, nameContains }
+
+    Config(JSONObject o) {
+      port = o.optInt("port", DEFAULT_PORT);
+      rawPort = o.optInt("rawPort", 0);
+      maxPerClient = Math.max(1, o.optInt("maxPerClient", DEFAULT_MAX_PER_CLIENT));
+      token = o.has("token") && !o.isNull("token") && !o.optString("token").isEmpty() ? o.optString("token") : null;
+      defaultPrinter = o.has("defaultPrinter") && !o.isNull("defaultPrinter") ? o.optString("defaultPrinter") : null;
+      JSONObject p = o.optJSONObject("printers");
+      if (p != null) {
+        for (Iterator<String> it = p.keys(); it.hasNext(); ) {
+          String name = it.next();
+          JSONObject t = p.optJSONObject(name);
+          if (t == null) continue;
+          printers.put(name, new String[] {
+            t.has("address") && !t.isNull("address") ? t.optString("address") : null,
+            t.has("nameContains") && !t.isNull("nameContains") ? t.optString("nameContains") : null });
+        }
+      }
+    }
+  }
+
+  // Per client IP
+  private static final class Client {
+    int inFlight;
+    int connections;
+    long jobs;
+    long rejected;
+  }
+
+  // A raw job that outgrew memory; id and writes belong to the spill thread
+  private static final class Spill {
+    String id;
+    volatile String error;
+  }
+
+  // Selector thread only
+  private final class Conn {
+    final SocketChannel ch;
+    final String ip;
+    final boolean raw;
+    ByteBuffer in = ByteBuffer.allocate(8 * 1024);
+    ByteBuffer out;
+    boolean busy;             // HTTP: waiting for a print result
+    boolean closeAfterWrite;
+    Spill spill;              // raw: set once the job outgrew memory
+    long lastActive = System.currentTimeMillis();
+
+    Conn(SocketChannel ch, String ip, boolean raw) {
+      this.ch = ch;
+      this.ip = ip;
+      this.raw = raw;
+    }
+  }
+
+  private final Context ctx;
+  private final SharedPreferences prefs;
+  private final PrintStreams streams;     // raw jobs bigger than MAX_BODY, spill thread only
+  private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final ExecutorService work = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "print-hub-work");
+    t.setDaemon(true);
+    return t;
+  });
+  // One thread, so each connection's chunks reach its file in order
+  private final ExecutorService spiller = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "print-hub-spill");
+    t.setDaemon(true);
+    return t;
+  });
+  private final Map<String, Client> clients = new LinkedHashMap<>(); // selector thread, toJson under this
+  private final List<Conn> conns = new ArrayList<>();                 // selector thread
+  // Serializes start/stop. Not this: the selector thread locks this, and stop waits for it
+  private final Object lifecycle = new Object();
+  private volatile Selector selector;
+  private Thread thread;                                              // under lifecycle
+  private volatile Config config;
+  private volatile String lastError;
+  private volatile long startedAt;
+  private long jobs;
+  private long rejected;
+
+  private PrintHubServer(Context ctx) {
+    this.ctx = ctx;
+    this.prefs = ctx.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    this.streams = new PrintStreams(ctx.getFilesDir());
+  }
+
+  boolean isEnabled() {
+    return prefs.getBoolean("enabled", false);
+  }
+
+  // Persists the config and whether the hub should run (also after reboot)
+  void save(JSONObject cfg, boolean enabled) {
+    SharedPreferences.Editor e = prefs.edit().putBoolean("enabled", enabled);
+    if (cfg != null) e.putString("config", cfg.toString());
+    e.apply();
+  }
+
+  Config storedConfig() {
+    try {
+      return new Config(new JSONObject(prefs.getString("config", "{}")));
+    } catch (Exception e) {
+      return new Config(new JSONObject());
+    }
+  }
+
+  boolean isRunning() {
+    Selector s = selector;
+    return s != null && s.isOpen();
+  }
+
+  // Binds, then serves on a new thread; restarts when already running.
+  // A bind failure (port taken) is kept in toJson().lastError.
+  void start(Config cfg) {
+    synchronized (lifecycle) {
+      stop();
+      config = cfg;
+      Selector s = null;
+      List<ServerSocketChannel> listeners = new ArrayList<>();
+      try {
+        s = Selector.open();
+        listeners.add(listen(s, cfg.port, false));
+        // Raw jobs carry no printer name and no token: only ever the default printer
+        if (cfg.rawPort > 0 && cfg.defaultPrinter != null) listeners.add(listen(s, cfg.rawPort, true));
+      } catch (IOException e) {
+        lastError = "Cannot listen: " + e.getMessage();
+        Log.e(TAG, lastError);
+        for (ServerSocketChannel l : listeners) closeQuietly(l);
+        if (s != null) closeQuietly(s);
+        return;
+      }
+      lastError = cfg.rawPort > 0 && cfg.defaultPrinter == null ? "rawPort needs a defaultPrinter" : null;
+      selector = s;
+      startedAt = System.currentTimeMillis();
+      Log.i(TAG, "Print hub listening on " + cfg.port + (listeners.size() > 1 ? " and raw " + cfg.rawPort : ""));
+      Selector running = s;
+      thread = new Thread(() -> serve(running), "print-hub");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  // Closes the listeners and every client; jobs already queued still print
+  void stop() {
+    synchronized (lifecycle) {
+      Selector s = selector;
+      selector = null;
+      if (s == null) return;
+      tasks.add(() -> shutdown(s));
+      s.wakeup();
+      Thread t = thread;
+      thread = null;
+      if (t == null || t == Thread.currentThread()) return;
+      try {
+        t.join(2000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void serve(Selector s) {
+    try {
+      while (s.isOpen()) {
+        s.select(TICK_MS);
+        Runnable t;
+        while ((t = tasks.poll()) != null) t.run();
+        if (!s.isOpen()) break;
+        Iterator<SelectionKey> it = s.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey k = it.next();
+          it.remove();
+          try {
+            handle(s, k);
+          } catch (CancelledKeyException ignored) {
+            // connection closed meanwhile
+          }
+        }
+        sweep();
+      }
+    } catch (IOException e) {
+      lastError = e.getMessage();
+      Log.e(TAG, "Print hub stopped: " + e.getMessage());
+      shutdown(s);
+    }
+  }
+
+  private static ServerSocketChannel listen(Selector s, int port, boolean raw) throws IOException {
+    ServerSocketChannel l = ServerSocketChannel.open();
+    l.socket().setReuseAddress(true);
+    l.socket().bind(new InetSocketAddress(port), 32);
+    l.configureBlocking(false);
+    l.register(s, SelectionKey.OP_ACCEPT, raw);
+    return l;
+  }
+
+  private void shutdown(Selector s) {
+    for (SelectionKey k : s.keys()) closeQuietly(k.channel());
+    for (Conn c : conns) discard(c);
+    conns.clear();
+    synchronized (this) {
+      clients.clear();
+    }
+    closeQuietly(s);
+    Log.i(TAG, "Print hub stopped");
+  }
+
+  private void handle(Selector s, SelectionKey k) throws IOException {
+    if (!k.isValid()) return;
+    if (k.isAcceptable()) {
+      accept(s, (ServerSocketChannel) k.channel(), Boolean.TRUE.equals(k.attachment()));
+      return;
+    }
+    Conn c = (Conn) k.attachment();
+    try {
+      if (k.isReadable()) read(c, k);
+      if (k.isValid() && k.isWritable()) write(c, k);
+    } catch (IOException e) {
+      close(c);
+    }
+  }
+
+  private void accept(Selector s, ServerSocketChannel l, boolean raw) throws IOException {
+    SocketChannel ch = l.accept();
+    if (ch == null) return;
+    String ip = ((InetSocketAddress) ch.socket().getRemoteSocketAddress()).getAddress().getHostAddress();
+    Client cl = client(ip);
+    if (conns.size() >= MAX_CONNECTIONS || cl.connections >= MAX_CONNECTIONS_PER_CLIENT) {
+      closeQuietly(ch);
+      return;
+    }
+    ch.configureBlocking(false);
+    ch.socket().setTcpNoDelay(true);
+    Conn c = new Conn(ch, ip, raw);
+    synchronized (this) {
+      cl.connections++;
+    }
+    conns.add(c);
+    ch.register(s, SelectionKey.OP_READ, c);
+  }
+
+  private synchronized Client client(String ip) {
+    Client c = clients.get(ip);
+    if (c == null) {
+      c = new Client();
+      clients.put(ip, c);
+    }
+    return c;
+  }
+
+  private void read(Conn c, SelectionKey k) throws IOException {
+    if (c.spill != null && c.spill.error != null) throw new IOException(c.spill.error);
+    if (!c.in.hasRemaining()) {
+      int limit = c.raw ? MAX_BODY : MAX_HEADER + MAX_BODY;
+      if (c.in.capacity() >= limit) {
+        if (c.raw) spill(c); // same job, continued in a file
+        else throw new IOException("Request too large");
+      } else {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.min(limit, c.in.capacity() * 2));
+        c.in.flip();
+        bigger.put(c.in);
+        c.in = bigger;
+      }
+    }
+    int n = c.ch.read(c.in);
+    if (n < 0) {
+      if (c.raw) rawJob(c);
+      close(c);
+      return;
+    }
+    c.lastActive = System.currentTimeMillis();
+    if (!c.raw) nextRequest(c, k);
+  }
+
+  private void write(Conn c, SelectionKey k) throws IOException {
+    if (c.out != null) {
+      c.ch.write(c.out);
+      if (c.out.hasRemaining()) return;
+      c.out = null;
+    }
+    c.lastActive = System.currentTimeMillis();
+    if (c.closeAfterWrite) {
+      close(c);
+      return;
+    }
+    k.interestOps(SelectionKey.OP_READ);
+    c.busy = false;
+    nextRequest(c, k); // pipelined request already buffered
+  }
+
+  private void close(Conn c) {
+    if (!conns.remove(c)) return;
+    closeQuietly(c.ch);
+    discard(c);
+    synchronized (this) {
+      Client cl = clients.get(c.ip);
+      if (cl != null) cl.connections--;
+    }
+  }
+
+  // Idle keep-alive connections, and raw senders that went quiet without closing
+  private void sweep() {
+    long now = System.currentTimeMillis();
+    for (Conn c : new ArrayList<>(conns)) {
+      if (c.raw) {
+        if (now - c.lastActive <= RAW_IDLE_MS) continue;
+        rawJob(c);
+        close(c);
+      } else if (!c.busy && c.out == null && now - c.lastActive > IDLE_MS) {
+        close(c);
+      }
+    }
+  }
+
+  // ---- HTTP ----
+
+  private void nextRequest(Conn c, SelectionKey k) {
+    if (c.busy || c.out != null) return;
+    byte[] buf = c.in.array();
+    int len = c.in.position();
+    int headerEnd = indexOf(buf, len, "\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+    if (headerEnd < 0) {
+      if (len >= MAX_HEADER) respond(c, k, 431, error("Headers too large"), true);
+      return;
+    }
+    String head = new String(buf, 0, headerEnd, StandardCharsets.ISO_8859_1);
+    String[] lines = head.split("\r\n");
+    String[] req = lines[0].split(" ");
+    if (req.length < 3) {
+      respond(c, k, 400, error("Bad request"), true);
+      return;
+    }
+    Map<String, String> headers = new LinkedHashMap<>();
+    for (int i = 1; i < lines.length; i++) {
+      int colon = lines[i].indexOf(':');
+      if (colon > 0) headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT), lines[i].substring(colon + 1).trim());
+    }
+    if (headers.containsKey("transfer-encoding")) {
+      respond(c, k, 411, error("Content-Length required"), true);
+      return;
+    }
+    int bodyLen;
+    try {
+      bodyLen = headers.containsKey("content-length") ? Integer.parseInt(headers.get("content-length")) : 0;
+    } catch (NumberFormatException e) {
+      respond(c, k, 400, error("Bad Content-Length"), true);
+      return;
+    }
+    if (bodyLen < 0 || bodyLen > MAX_BODY) {
+      respond(c, k, 413, error("Body too large"), true);
+      return;
+    }
+    int total = headerEnd + 4 + bodyLen;
+    if (len < total) return; // rest of the body still coming
+    byte[] body = new byte[bodyLen];
+    System.arraycopy(buf, headerEnd + 4, body, 0, bodyLen);
+    // Drop the request from the buffer, keep anything pipelined after it
+    System.arraycopy(buf, total, buf, 0, len - total);
+    c.in.position(len - total);
+
+    boolean close = "close".equalsIgnoreCase(headers.get("connection")) || "HTTP/1.0".equals(req[2]);
+    route(c, k, req[0], req[1], headers, body, close);
+  }
+
+  private void route(Conn c, SelectionKey k, String method, String target, Map<String, String> headers,
+                     byte[] body, boolean close) {
+    String path = target.indexOf('?') >= 0 ? target.substring(0, target.indexOf('?')) : target;
+    Config cfg = config;
+    if ("OPTIONS".equals(method)) {
+      respond(c, k, 204, null, close);
+      return;
+    }
+    if (cfg.token != null && !cfg.token.equals(headers.get("x-print-token"))) {
+      respond(c, k, 401, error("Bad or missing X-Print-Token"), close);
+      return;
+    }
+    if ("GET".equals(method) && "/health".equals(path)) {
+      JSObject o = new JSObject();
+      o.put("ok", true);
+      o.put("host", Build.MODEL);
+      o.put("hub", "android");
+      respond(c, k, 200, o.toString(), close);
+    } else if ("GET".equals(method) && "/printers".equals(path)) {
+      c.busy = true;
+      work.execute(() -> {
+        String names = printerNames(cfg).toString();
+        post(() -> respond(c, k, 200, names, close));
+      });
+    } else if ("POST".equals(method) && "/printRaw".equals(path)) {
+      printRaw(c, k, cfg, body, close);
+    } else {
+      respond(c, k, 404, error("Not found"), close);
+    }
+  }
+
+  private void printRaw(Conn c, SelectionKey k, Config cfg, byte[] body, boolean close) {
+    String printerName;
+    byte[] data;
+    PrintJob.Priority priority;
+    try {
+      JSONObject req = new JSONObject(new String(body, StandardCharsets.UTF_8));
+      printerName = req.optString("printerName", "");
+      String b64 = req.optString("dataBase64", "");
+      if (printerName.isEmpty() || b64.isEmpty()) {
+        respond(c, k, 400, error("printerName and dataBase64 required"), close);
+        return;
+      }
+      data = Base64.decode(b64, Base64.DEFAULT);
+      priority = PrintJob.Priority.parse(req.optString("priority", null), PrintJob.Priority.RECEIPT);
+    } catch (Exception e) {
+      respond(c, k, 400, error("Bad JSON: " + e.getMessage()), close);
+      return;
+    }
+    String[] target = target(cfg, printerName);
+    if (target == null) {
+      respond(c, k, 403, error("Printer must be configured on the hub (or a token set)"), close);
+      return;
+    }
+    c.busy = true;
+    submit(c.ip, PrintPayload.of(data), target, priority, (status, err) -> {
+      JSObject res = new JSObject();
+      res.put("ok", true);
+      respond(c, k, status, status == 200 ? res.toString() : error(err), close);
+    });
+  }
+
+  private interface Done {
+    // 200 printed, 429 over the client's limit, 503 queue full, 500 failed
+    void onDone(int status, String error);
+  }
+
+  // Queues a job for a client, within its in-flight limit; called and done on
+  // the selector thread, the spooling in between on the worker pool
+  private void submit(String ip, PrintPayload data, String[] target, PrintJob.Priority priority, Done done) {
+    Client cl = client(ip);
+    Config cfg = config;
+    synchronized (this) {
+      if (cl.inFlight >= cfg.maxPerClient) {
+        cl.rejected++;
+        rejected++;
+        data.release();
+        done.onDone(429, "Too many jobs in flight from " + ip + " (max " + cfg.maxPerClient + ")");
+        return;
+      }
+      cl.inFlight++;
+      cl.jobs++;
+      jobs++;
+    }
+    work.execute(() -> {
+      try {
+        PrintDispatcher.get(ctx).submit(data, target[0], target[1], priority, j -> post(() -> {
+          synchronized (this) {
+            cl.inFlight--;
+          }
+          done.onDone(j.state == PrintJob.State.DONE ? 200 : 500, j.error);
+        }));
+      } catch (RejectedExecutionException e) {
+        post(() -> {
+          synchronized (this) {
+            cl.inFlight--;
+          }
+          done.onDone(503, e.getMessage());
+        });
+      }
+    });
+  }
+
+  // Print results come from queue workers; the connection belongs to the selector thread
+  private void post(Runnable task) {
+    tasks.add(task);
+    Selector s = selector;
+    if (s != null) s.wakeup();
+  }
+
+  // printerName -> { address, nameContains }: a configured name, a Bluetooth
+  // or tcp:// address, else part of a bonded printer's Bluetooth name.
+  // Without a token any page on the LAN may post here, so anything but a
+  // configured printer or the default one is refused (null) rather than
+  // printed on whatever is bonded or relayed to any host.
+  private static String[] target(Config cfg, String printerName) {
+    String[] mapped = cfg.printers.get(printerName);
+    if (mapped != null) return mapped;
+    if (cfg.token == null && !isConfigured(cfg, printerName)) return null;
+    if (TcpTransport.isTcp(printerName)) return new String[] { printerName, null };
+    if (BluetoothAdapter.checkBluetoothAddress(printerName.toUpperCase(Locale.ROOT))) {
+      return new String[] { printerName, null };
+    }
+    return new String[] { null, printerName };
+  }
+
+  // Whether the default or a configured printer already points at this address
+  private static boolean isConfigured(Config cfg, String address) {
+    if (address.equalsIgnoreCase(cfg.defaultPrinter)) return true;
+    for (String[] t : cfg.printers.values()) {
+      if (t[0] != null && t[0].equalsIgnoreCase(address)) return true;
+    }
+    return false;
+  }
+
+  // Bonded printers are offered only where target() would accept them
+  private JSONArray printerNames(Config cfg) {
+    List<String> names = new ArrayList<>(cfg.printers.keySet());
+    if (cfg.token == null) {
+      if (cfg.defaultPrinter != null && !names.contains(cfg.defaultPrinter)) names.add(cfg.defaultPrinter);
+      return new JSONArray(names);
+    }
+    JSArray bonded = PrinterIndex.get(ctx).toJson();
+    for (int i = 0; i < bonded.length(); i++) {
+      JSONObject p = bonded.optJSONObject(i);
+      if (p == null || !p.optBoolean("bonded")) continue;
+      JSONObject caps = p.optJSONObject("capabilities");
+      String name = p.optString("name", "");
+      if (caps != null && caps.optBoolean("printerLike") && !name.isEmpty() && !names.contains(name)) names.add(name);
+    }
+    return new JSONArray(names);
+  }
+
+  private void respond(Conn c, SelectionKey k, int status, String json, boolean close) {
+    if (!k.isValid()) return; // client left while its job printed
+    byte[] body = json == null ? new byte[0] : json.getBytes(StandardCharsets.UTF_8);
+    StringBuilder h = new StringBuilder(256);
+    h.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+    if (json != null) h.append("Content-Type: application/json; charset=utf-8\r\n");
+    h.append("Content-Length: ").append(body.length).append("\r\n");
+    h.append("Access-Control-Allow-Origin: *\r\n");
+    h.append("Access-Control-Allow-Methods: GET, POST, OPTIONS\r\n");
+    h.append("Access-Control-Allow-Headers: Content-Type, X-Print-Token\r\n");
+    h.append("Connection: ").append(close ? "close" : "keep-alive").append("\r\n\r\n");
+    byte[] head = h.toString().getBytes(StandardCharsets.ISO_8859_1);
+    ByteBuffer out = ByteBuffer.allocate(head.length + body.length);
+    out.put(head).put(body).flip();
+    c.out = out;
+    c.busy = true;
+    c.closeAfterWrite = close;
+    try {
+      k.interestOps(SelectionKey.OP_WRITE);
+    } catch (CancelledKeyException e) {
+      close(c);
+    }
+  }
+
+  private static String reason(int status) {
+    switch (status) {
+      case 200: return "OK";
+      case 204: return "No Content";
+      case 400: return "Bad Request";
+      case 401: return "Unauthorized";
+      case 403: return "Forbidden";
+      case 404: return "Not Found";
+      case 411: return "Length Required";
+      case 413: return "Payload Too Large";
+      case 429: return "Too Many Requests";
+      case 431: return "Request Header Fields Too Large";
+      case 503: return "Service Unavailable";
+      default: return "Internal Server Error";
+    }
+  }
+
+  private static String error(String message) {
+    JSObject o = new JSObject();
+    o.put("error", message == null ? "Print failed" : message);
+    return o.toString();
+  }
+
+  private static int indexOf(byte[] buf, int len, byte[] pat) {
+    outer:
+    for (int i = 0; i + pat.length <= len; i++) {
+      for (int j = 0; j < pat.length; j++) {
+        if (buf[i + j] != pat[j]) continue outer;
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  // ---- raw ----
+
+  // Everything the connection sent becomes one job for the default printer
+  private void rawJob(Conn c) {
+    Config cfg = config;
+    String[] target = target(cfg, cfg.defaultPrinter);
+    Done done = (status, err) -> {
+      if (status != 200) Log.w(TAG, "Raw job from " + c.ip + " failed: " + err);
+    };
+    if (c.spill == null) {
+      int len = c.in.position();
+      if (len == 0) return;
+      byte[] data = new byte[len];
+      System.arraycopy(c.in.array(), 0, data, 0, len);
+      c.in.clear();
+      submit(c.ip, PrintPayload.of(data), target, PrintJob.Priority.RECEIPT, done);
+      return;
+    }
+    spill(c);
+    Spill sp = c.spill;
+    c.spill = null;
+    spiller.execute(() -> {
+      if (sp.error != null) {
+        Log.w(TAG, "Raw job from " + c.ip + " dropped: " + sp.error);
+        return;
+      }
+      try {
+        PrintPayload payload = streams.close(sp.id);
+        post(() -> submit(c.ip, payload, target, PrintJob.Priority.RECEIPT, done));
+      } catch (IOException e) {
+        streams.abort(sp.id);
+        Log.w(TAG, "Raw job from " + c.ip + " dropped: " + e.getMessage());
+      }
+    });
+  }
+
+  // Moves the buffered bytes to the end of the connection's print stream
+  private void spill(Conn c) {
+    if (c.spill == null) c.spill = new Spill();
+    int len = c.in.position();
+    if (len == 0) return;
+    byte[] chunk = new byte[len];
+    System.arraycopy(c.in.array(), 0, chunk, 0, len);
+    c.in.clear();
+    Spill sp = c.spill;
+    spiller.execute(() -> {
+      if (sp.error != null) return;
+      try {
+        if (sp.id == null) sp.id = streams.open();
+        streams.append(sp.id, chunk);
+      } catch (IOException e) {
+        sp.error = e.getMessage(); // too large or disk full: the job is dropped
+        if (sp.id != null) streams.abort(sp.id);
+      }
+    });
+  }
+
+  // A raw job cut short (error, stop): its file is deleted, nothing prints
+  private void discard(Conn c) {
+    Spill sp = c.spill;
+    c.spill = null;
+    if (sp != null) spiller.execute(() -> {
+      if (sp.id != null) streams.abort(sp.id);
+    });
+  }
+
+  // ---- status ----
+
+  JSObject toJson() {
+    Config cfg = config != null ? config : storedConfig();
+    JSObject o = new JSObject();
+    o.put("enabled", isEnabled());
+    o.put("running", isRunning());
+    o.put("port", cfg.port);
+    o.put("rawPort", cfg.rawPort);
+    o.put("maxPerClient", cfg.maxPerClient);
+    o.put("tokenRequired", cfg.token != null);
+    o.put("defaultPrinter", cfg.defaultPrinter);
+    o.put("addresses", new JSONArray(localAddresses()));
+    if (isRunning()) o.put("startedAt", startedAt);
+    if (lastError != null) o.put("lastError", lastError);
+    JSArray list = new JSArray();
+    synchronized (this) {
+      o.put("jobs", jobs);
+      o.put("rejected", rejected);
+      for (Map.Entry<String, Client> e : clients.entrySet()) {
+        Client cl = e.getValue();
+        JSObject j = new JSObject();
+        j.put("ip", e.getKey());
+        j.put("connections", cl.connections);
+        j.put("inFlight", cl.inFlight);
+        j.put("jobs", cl.jobs);
+        j.put("rejected", cl.rejected);
+        list.put(j);
+      }
+    }
+    o.put("clients", list);
+    return o;
+  }
+
+  // IPv4 addresses other devices can reach this one on (Wi-Fi, Ethernet)
+  static List<String> localAddresses() {
+    List<String> out = new ArrayList<>();
+    try {
+      for (NetworkInterface ni : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+        if (!ni.isUp() || ni.isLoopback()) continue;
+        for (InetAddress a : Collections.list(ni.getInetAddresses())) {
+          if (a instanceof Inet4Address && !a.isLoopbackAddress()) out.add(a.getHostAddress());
+        }
+      }
+    } catch (Exception ignored) {}
+    return out;
+  }
+
+  private static void closeQuietly(java.io.Closeable c) {
+    try {
+      c.close();
+    } catch (IOException ignored) {}
+  }
+}
@@ -0,0 +1,123 @@
+package com.cafeqr.app;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.os.IBinder;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import java.util.List;
+
+// Keeps PrintHubServer listening while the app is in the background. Runs in
+// the foreground on its own quiet channel and holds a Wi-Fi lock, so the
+// radio doesn't doze between jobs from the other devices.
+public class PrintHubService extends Service {
+    private static final String CHANNEL_ID = "print_hub";
+    private static final String CHANNEL_NAME = "Print Hub";
+    private static final int NOTIFICATION_ID = 3;
+
+    static final String ACTION_STOP = "com.cafeqr.app.STOP_PRINT_HUB";
+
+    private WifiManager.WifiLock wifiLock;
+
+    static void start(Context context) {
+        Intent intent = new Intent(context, PrintHubService.class);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            ContextCompat.startForegroundService(context, intent);
+        } else {
+            context.startService(intent);
+        }
+    }
+
+    static void stop(Context context) {
+        context.stopService(new Intent(context, PrintHubService.class));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        createNotificationChannel();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        PrintHubServer hub = PrintHubServer.get(this);
+        startForeground(NOTIFICATION_ID, buildNotification(hub.storedConfig().port));
+
+        String action = intent != null ? intent.getAction() : null;
+        if (ACTION_STOP.equals(action)) {
+            hub.save(null, false);
+            stopForeground(true);
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        hub.start(hub.storedConfig());
+        acquireWifiLock();
+        return START_STICKY;
+    }
+
+    private void acquireWifiLock() {
+        if (wifiLock != null) return;
+        WifiManager wifi = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        if (wifi == null) return;
+        wifiLock = wifi.createWifiLock(WifiManager.WIFI_MODE_FULL_HIGH_PERF, "cafeqr:print-hub");
+        wifiLock.setReferenceCounted(false);
+        wifiLock.acquire();
+    }
+
+    private void createNotificationChannel() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager notificationManager = getSystemService(NotificationManager.class);
+            NotificationChannel channel = new NotificationChannel(
+                CHANNEL_ID,
+                CHANNEL_NAME,
+                NotificationManager.IMPORTANCE_MIN
+            );
+            channel.setDescription("Accepts print jobs from other devices on this network");
+            channel.setSound(null, null);
+            notificationManager.createNotificationChannel(channel);
+        }
+    }
+
+    private Notification buildNotification(int port) {
+        List<String> addresses = PrintHubServer.localAddresses();
+        String where = addresses.isEmpty() ? "port " + port : addresses.get(0) + ":" + port;
+
+        Intent stopIntent = new Intent(this, PrintHubService.class).setAction(ACTION_STOP);
+        PendingIntent stop = PendingIntent.getService(this, 0, stopIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        Intent openIntent = new Intent(this, MainActivity.class).addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        PendingIntent open = PendingIntent.getActivity(this, NOTIFICATION_ID, openIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+            .setSmallIcon(R.mipmap.push_icon)
+            .setContentTitle("Print hub")
+            .setContentText("Printing for other devices on " + where)
+            .setOngoing(true)
+            .setPriority(NotificationCompat.PRIORITY_MIN)
+            .setCategory(NotificationCompat.CATEGORY_SERVICE)
+            .setContentIntent(open)
+            .addAction(0, "Stop", stop)
+            .build();
+    }
+
+    @Override
+    public void onDestroy() {
+        PrintHubServer.get(this).stop();
+        if (wifiLock != null && wifiLock.isHeld()) wifiLock.release();
+        wifiLock = null;
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
@@ -0,0 +1,200 @@
+package com.cafeqr.app;
+
+import com.getcapacitor.JSObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// One queued print job. Runs on its printer's worker thread in PrintQueue.
+// A long job may be split into segments (see EscPosSegmenter); when a more
+// urgent job is waiting for the same printer the task stops between two
+// segments, the job goes back to the queue and resumes at nextSegment.
+// Part of its ticket is then on paper, so it waits as SUSPENDED, which
+// cancel() and queue eviction leave alone.
+class PrintJob implements Runnable {
+
+  enum State { QUEUED, PRINTING, SUSPENDED, DONE, FAILED, CANCELLED }
+
+  // Scheduling class, most urgent first: kitchen tickets, customer receipts, reports
+  enum Priority {
+    KOT, RECEIPT, REPORT;
+
+    static Priority parse(String s, Priority fallback) {
+      if (s == null) return fallback;
+      for (Priority p : values()) {
+        if (p.name().equalsIgnoreCase(s)) return p;
+      }
+      return fallback;
+    }
+
+    static Priority fromOrdinal(int o) {
+      Priority[] all = values();
+      return o >= 0 && o < all.length ? all[o] : RECEIPT;
+    }
+  }
+
+  // Does the actual transport work; returns the route used ("usb", "bt", ...)
+  interface Task {
+    String run(PrintJob job) throws Exception;
+  }
+
+  interface Listener {
+    void onFinished(PrintJob job);
+  }
+
+  // Asked between segments: is a more urgent job waiting for this printer?
+  interface Preemption {
+    boolean pending(PrintJob running);
+  }
+
+  private static final AtomicLong SEQ = new AtomicLong();
+  private static final AtomicLong ORDER = new AtomicLong();
+  private static final String BOOT = Long.toString(System.currentTimeMillis(), 36);
+
+  final String id;
+  final String printerKey;
+  final int size;
+  final Priority priority;
+  final long enqueuedAt = System.currentTimeMillis();
+  final long order = ORDER.incrementAndGet(); // FIFO tie-break within a deadline
+  volatile long dueAt;                        // scheduling key, set by PrintQueue
+  private final Task task;
+  private Listener listener;
+  volatile Preemption preemption;
+  private volatile boolean yielded;
+
+  // Segmented jobs only; null means the job is written in one piece
+  volatile EscPosSegmenter.Plan segments;
+  volatile int nextSegment;
+  volatile int yields;
+
+  volatile State state = State.QUEUED;
+  volatile long startedAt;
+  volatile long finishedAt;
+  volatile String via;
+  volatile String pacing;
+  volatile String error;
+
+  // Stage timings in ms (-1 = stage not reached) and routing counters, see PrintStats
+  volatile long routeMs = -1;
+  volatile long connectMs = -1;
+  volatile long writeMs = -1;
+  volatile long settleMs = -1;
+  volatile int retries;
+  volatile boolean hedged;
+  volatile boolean fallback;
+
+  PrintJob(String printerKey, int size, Priority priority, Task task) {
+    this(BOOT + "-" + SEQ.incrementAndGet(), printerKey, size, priority, task);
+  }
+
+  // Keeps the original id when a spooled job is replayed
+  PrintJob(String id, String printerKey, int size, Priority priority, Task task) {
+    this.id = id;
+    this.printerKey = printerKey;
+    this.size = size;
+    this.priority = priority == null ? Priority.RECEIPT : priority;
+    this.task = task;
+  }
+
+  void setListener(Listener l) {
+    this.listener = l;
+  }
+
+  @Override
+  public void run() {
+    synchronized (this) {
+      if (state != State.QUEUED && state != State.SUSPENDED) return;
+      state = State.PRINTING;
+    }
+    if (startedAt == 0) startedAt = System.currentTimeMillis(); // a resumed job keeps its first start
+    try {
+      via = task.run(this);
+      if (yielded) {
+        // Stopped between segments; PrintQueue puts it back behind the urgent job
+        state = State.SUSPENDED;
+        return;
+      }
+      state = State.DONE;
+    } catch (Exception e) {
+      yielded = false;
+      error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+      state = State.FAILED;
+    }
+    finish();
+  }
+
+  // The task calls this between segments
+  boolean shouldYield() {
+    Preemption p = preemption;
+    return p != null && p.pending(this);
+  }
+
+  // The task stopped before segment; the job will resume there
+  void yieldAt(int segment) {
+    nextSegment = segment;
+    yields++;
+    yielded = true;
+  }
+
+  // True once after a run that yielded
+  boolean takeYield() {
+    if (!yielded) return false;
+    yielded = false;
+    return true;
+  }
+
+  // Only jobs that have not printed anything yet can be cancelled
+  boolean cancel(String reason) {
+    synchronized (this) {
+      if (state != State.QUEUED) return false;
+      state = State.CANCELLED;
+    }
+    error = reason;
+    finish();
+    return true;
+  }
+
+  private void finish() {
+    finishedAt = System.currentTimeMillis();
+    Listener l = listener;
+    if (l != null) l.onFinished(this);
+  }
+
+  boolean isSuspended() {
+    return state == State.SUSPENDED;
+  }
+
+  boolean isFinished() {
+    return state == State.DONE || state == State.FAILED || state == State.CANCELLED;
+  }
+
+  JSObject toJson() {
+    JSObject o = new JSObject();
+    o.put("jobId", id);
+    o.put("printer", printerKey);
+    o.put("state", state.name().toLowerCase());
+    o.put("priority", priority.name().toLowerCase());
+    o.put("bytes", size);
+    EscPosSegmenter.Plan plan = segments;
+    if (plan != null) {
+      o.put("segments", plan.count());
+      o.put("segment", nextSegment);
+    }
+    if (yields > 0) o.put("yields", yields);
+    o.put("enqueuedAt", enqueuedAt);
+    if (startedAt > 0) o.put("waitMs", startedAt - enqueuedAt);
+    if (finishedAt > 0 && startedAt > 0) o.put("printMs", finishedAt - startedAt);
+    if (via != null) o.put("via", via);
+    if (pacing != null) o.put("pacing", pacing);
+    if (error != null) o.put("error", error);
+    if (routeMs >= 0) {
+      JSObject st = new JSObject();
+      st.put("route", routeMs);
+      if (connectMs >= 0) st.put("connect", connectMs);
+      if (writeMs >= 0) st.put("write", writeMs);
+      if (settleMs >= 0) st.put("settle", settleMs);
+      o.put("stages", st);
+    }
+    return o;
+  }
+}
@@ -0,0 +1,91 @@
+package com.cafeqr.app;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Bytes of one print job: in memory (small tickets) or streamed from a file /
+// content URI so large reports never sit in memory as one array.
+// open() may be called more than once (retries, fallback routes).
+abstract class PrintPayload {
+
+  // -1 when unknown (content URIs without a size)
+  abstract long length();
+
+  abstract InputStream open() throws IOException;
+
+  // Backing array for in-memory payloads, else null
+  byte[] bytes() {
+    return null;
+  }
+
+  // Reference stored in the spool for streamed payloads ("file:..." / "content:...")
+  String ref() {
+    return null;
+  }
+
+  // Called once the job is finished for good
+  void release() {}
+
+  int sizeHint() {
+    long n = length();
+    return n < 0 ? -1 : (int) Math.min(Integer.MAX_VALUE, n);
+  }
+
+  static PrintPayload of(byte[] data) {
+    return new PrintPayload() {
+      @Override long length() { return data.length; }
+      @Override InputStream open() { return new ByteArrayInputStream(data); }
+      @Override byte[] bytes() { return data; }
+    };
+  }
+
+  // deleteWhenDone: temp files produced by the chunked upload API
+  static PrintPayload ofFile(File f, boolean deleteWhenDone) {
+    return new PrintPayload() {
+      @Override long length() { return f.length(); }
+      @Override InputStream open() throws IOException { return new FileInputStream(f); }
+      @Override String ref() { return (deleteWhenDone ? "tmpfile:" : "file:") + f.getAbsolutePath(); }
+      @Override void release() { if (deleteWhenDone) f.delete(); }
+    };
+  }
+
+  static PrintPayload ofUri(Context ctx, Uri uri) {
+    Context app = ctx.getApplicationContext();
+    return new PrintPayload() {
+      @Override long length() {
+        try (android.content.res.AssetFileDescriptor fd = app.getContentResolver().openAssetFileDescriptor(uri, "r")) {
+          return fd == null ? -1 : fd.getLength();
+        } catch (Exception e) {
+          return -1;
+        }
+      }
+      @Override InputStream open() throws IOException {
+        InputStream in = app.getContentResolver().openInputStream(uri);
+        if (in == null) throw new IOException("Cannot open " + uri);
+        return in;
+      }
+      @Override String ref() { return "content:" + uri; }
+    };
+  }
+
+  // Accepts content:// URIs (FileProvider), file:// URIs and plain paths
+  static PrintPayload fromUriString(Context ctx, String s) {
+    if (s.startsWith("content://")) return ofUri(ctx, Uri.parse(s));
+    if (s.startsWith("file://")) return ofFile(new File(Uri.parse(s).getPath()), false);
+    return ofFile(new File(s), false);
+  }
+
+  // Inverse of ref(), used when replaying the spool
+  static PrintPayload fromRef(Context ctx, String ref) {
+    if (ref.startsWith("tmpfile:")) return ofFile(new File(ref.substring(8)), true);
+    if (ref.startsWith("file:")) return ofFile(new File(ref.substring(5)), false);
+    if (ref.startsWith("content:")) return ofUri(ctx, Uri.parse(ref.substring(8)));
+    return null;
+  }
+}
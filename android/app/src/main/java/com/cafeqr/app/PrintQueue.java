@@ -0,0 +1,210 @@
+package com.cafeqr.app;
+
+import android.util.Log;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Per-printer serialized job queue: one worker thread per target printer and
+// a bounded depth so bursts can't pile up threads.
+//
+// Jobs are ordered by priority with aging: a job's deadline is its enqueue
+// time plus agingMs per class below KOT, and the earliest deadline runs next
+// (FIFO among equals). A KOT overtakes a receipt queued less than agingMs
+// earlier, but a report that has waited long enough is never starved. A
+// segmented job that is printing yields between segments when the head of its
+// queue has an earlier deadline, and resumes once that job is done.
+class PrintQueue {
+
+  private static final String TAG = "PrintQueue";
+  static final int DEFAULT_MAX_DEPTH = 32;
+  static final long DEFAULT_AGING_MS = 30_000;
+  private static final long WORKER_IDLE_SECONDS = 60;
+  private static final int INITIAL_CAPACITY = 16;
+
+  // Earliest deadline first; plain Runnables (none expected) go last
+  private static final Comparator<Runnable> URGENCY = (a, b) -> {
+    if (!(a instanceof PrintJob) || !(b instanceof PrintJob)) {
+      return Boolean.compare(!(a instanceof PrintJob), !(b instanceof PrintJob));
+    }
+    PrintJob x = (PrintJob) a;
+    PrintJob y = (PrintJob) b;
+    int c = Long.compare(x.dueAt, y.dueAt);
+    return c != 0 ? c : Long.compare(x.order, y.order);
+  };
+
+  enum RejectPolicy { REJECT_NEW, DROP_OLDEST }
+
+  private static PrintQueue instance;
+
+  static synchronized PrintQueue shared() {
+    if (instance == null) instance = new PrintQueue();
+    return instance;
+  }
+
+  private final Map<String, ThreadPoolExecutor> workers = new HashMap<>();
+  private final Map<String, PrintJob> running = new ConcurrentHashMap<>();
+  private final Map<String, PrintJob> jobs = new ConcurrentHashMap<>();
+  private volatile int maxDepth = DEFAULT_MAX_DEPTH;
+  private volatile RejectPolicy rejectPolicy = RejectPolicy.REJECT_NEW;
+  private volatile long agingMs = DEFAULT_AGING_MS;
+
+  private PrintQueue() {}
+
+  // agingMs applies to jobs submitted afterwards
+  void configure(Integer depth, String policy, Long aging) {
+    if (depth != null && depth > 0) maxDepth = depth;
+    if ("dropOldest".equals(policy)) rejectPolicy = RejectPolicy.DROP_OLDEST;
+    else if ("reject".equals(policy)) rejectPolicy = RejectPolicy.REJECT_NEW;
+    if (aging != null && aging >= 0) agingMs = aging;
+  }
+
+  int getMaxDepth() { return maxDepth; }
+
+  long getAgingMs() { return agingMs; }
+
+  String getRejectPolicy() {
+    return rejectPolicy == RejectPolicy.DROP_OLDEST ? "dropOldest" : "reject";
+  }
+
+  // Stable key for the printer a job is aimed at
+  static String keyFor(String address, String nameContains) {
+    if (address != null && !address.isEmpty()) return address.toUpperCase();
+    if (nameContains != null && !nameContains.isEmpty()) return "name:" + nameContains.toLowerCase();
+    return "auto";
+  }
+
+  // Queues the job for its printer, ahead of less urgent jobs.
+  // Throws RejectedExecutionException when the queue is full under REJECT_NEW.
+  // DROP_OLDEST cancels the oldest job of the least urgent class, counting the
+  // new job too: when that is the new job (or only suspended jobs are queued)
+  // it is rejected instead.
+  PrintJob submit(PrintJob job, PrintJob.Listener listener) {
+    job.setListener(j -> {
+      jobs.remove(j.id);
+      if (listener != null) listener.onFinished(j);
+    });
+    job.dueAt = job.enqueuedAt + job.priority.ordinal() * agingMs;
+    ThreadPoolExecutor worker = workerFor(job.printerKey);
+    job.preemption = running -> outranked(worker, running);
+    synchronized (worker) {
+      if (worker.getQueue().size() >= maxDepth) {
+        if (rejectPolicy == RejectPolicy.REJECT_NEW) {
+          throw new RejectedExecutionException("Print queue full for " + job.printerKey);
+        }
+        PrintJob victim = oldestLeastUrgent(worker, job);
+        if (victim == job) throw new RejectedExecutionException("Print queue full for " + job.printerKey);
+        if (worker.getQueue().remove(victim)) victim.cancel("Dropped: print queue full");
+      }
+      jobs.put(job.id, job);
+      worker.execute(job);
+    }
+    return job;
+  }
+
+  // Does the head of the printer's queue have an earlier deadline than the running job?
+  private static boolean outranked(ThreadPoolExecutor worker, PrintJob running) {
+    Runnable head = worker.getQueue().peek();
+    return head instanceof PrintJob && URGENCY.compare(head, running) < 0;
+  }
+
+  // Oldest job of the lowest priority class among the queued ones and incoming;
+  // suspended jobs are half printed and never chosen
+  private static PrintJob oldestLeastUrgent(ThreadPoolExecutor worker, PrintJob incoming) {
+    PrintJob pick = incoming;
+    for (Runnable r : worker.getQueue()) {
+      if (!(r instanceof PrintJob) || ((PrintJob) r).isSuspended()) continue;
+      PrintJob j = (PrintJob) r;
+      int c = j.priority.compareTo(pick.priority);
+      if (c > 0 || (c == 0 && (j.enqueuedAt < pick.enqueuedAt
+          || (j.enqueuedAt == pick.enqueuedAt && j.order < pick.order)))) {
+        pick = j;
+      }
+    }
+    return pick;
+  }
+
+  private synchronized ThreadPoolExecutor workerFor(String key) {
+    ThreadPoolExecutor w = workers.get(key);
+    if (w == null) {
+      // Capacity is enforced in submit(); the backing queue is unbounded
+      w = new ThreadPoolExecutor(1, 1, WORKER_IDLE_SECONDS, TimeUnit.SECONDS,
+        new PriorityBlockingQueue<>(INITIAL_CAPACITY, URGENCY), r -> {
+          Thread t = new Thread(r, "print-" + key);
+          t.setDaemon(true);
+          return t;
+        }) {
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+          if (r instanceof PrintJob) running.put(key, (PrintJob) r);
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+          running.remove(key);
+          // A segmented job that gave way goes back in with its original deadline
+          if (r instanceof PrintJob && ((PrintJob) r).takeYield()) execute(r);
+        }
+      };
+      w.allowCoreThreadTimeOut(true);
+      workers.put(key, w);
+      Log.d(TAG, "Created print worker for " + key);
+    }
+    return w;
+  }
+
+  boolean cancel(String jobId) {
+    PrintJob job = jobs.get(jobId);
+    if (job == null) return false;
+    ThreadPoolExecutor worker;
+    synchronized (this) {
+      worker = workers.get(job.printerKey);
+    }
+    // A suspended job refuses and must stay queued to finish its ticket
+    if (!job.cancel("Cancelled")) return false;
+    if (worker != null) worker.remove(job);
+    return true;
+  }
+
+  JSObject snapshot() {
+    Map<String, ThreadPoolExecutor> copy;
+    synchronized (this) {
+      copy = new HashMap<>(workers);
+    }
+    JSArray printers = new JSArray();
+    for (Map.Entry<String, ThreadPoolExecutor> e : copy.entrySet()) {
+      List<PrintJob> pending = new ArrayList<>();
+      for (Runnable r : e.getValue().getQueue()) {
+        if (r instanceof PrintJob && !((PrintJob) r).isFinished()) pending.add((PrintJob) r);
+      }
+      Collections.sort(pending, URGENCY);
+      PrintJob active = running.get(e.getKey());
+      if (pending.isEmpty() && active == null) continue;
+      JSObject p = new JSObject();
+      p.put("printer", e.getKey());
+      if (active != null) p.put("printing", active.toJson());
+      JSArray queued = new JSArray();
+      for (PrintJob j : pending) queued.put(j.toJson());
+      p.put("queued", queued);
+      printers.put(p);
+    }
+    JSObject out = new JSObject();
+    out.put("printers", printers);
+    out.put("maxDepth", maxDepth);
+    out.put("rejectPolicy", getRejectPolicy());
+    out.put("agingMs", agingMs);
+    return out;
+  }
+}
@@ -0,0 +1,306 @@
+package com.cafeqr.app;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Crash-safe, append-only journal of print jobs.
+//
+// Frame: [int bodyLen][body][int crc32(body)], body starts with a record type.
+// ADD records are fsynced (group commit: concurrent submitters share one
+// fsync) before the job is queued; DONE/DROP records are flushed lazily.
+// Jobs with an ADD but no DONE/DROP are replayed after a crash or reboot.
+// ADD bodies end with the job's priority byte; journals written before it
+// existed simply lack it and replay as receipts.
+class PrintSpool {
+
+  private static final String TAG = "PrintSpool";
+  private static final byte REC_ADD = 1;
+  private static final byte REC_DONE = 2;   // confirmed written to the printer
+  private static final byte REC_DROP = 3;   // failed or cancelled, caller was told
+  private static final byte REC_ADD_REF = 4; // streamed job: payload stays in its file
+  private static final long COMPACT_BYTES = 512 * 1024;
+  private static final long LAZY_SYNC_MS = 500;
+
+  // One unfinished job read back from the journal
+  static final class Entry {
+    final String id;
+    final String printerKey;
+    final String address;
+    final String nameContains;
+    final long enqueuedAt;
+    final byte[] data;  // null for streamed jobs
+    final String ref;   // PrintPayload.ref() for streamed jobs
+    final PrintJob.Priority priority;
+
+    Entry(String id, String printerKey, String address, String nameContains, long enqueuedAt, byte[] data, String ref,
+          PrintJob.Priority priority) {
+      this.id = id;
+      this.printerKey = printerKey;
+      this.address = address;
+      this.nameContains = nameContains;
+      this.enqueuedAt = enqueuedAt;
+      this.data = data;
+      this.ref = ref;
+      this.priority = priority;
+    }
+  }
+
+  private final File file;
+  private final Object syncLock = new Object();
+  private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "print-spool-sync");
+    t.setDaemon(true);
+    return t;
+  });
+  private FileOutputStream fos;
+  private DataOutputStream out;
+  private long appendedSeq;        // guarded by this
+  private volatile long syncedSeq; // last seq known to be on disk
+  private long size;               // guarded by this
+  private int pending;             // ADDs without DONE/DROP, guarded by this
+  private boolean lazySyncScheduled;
+
+  PrintSpool(File dir) {
+    if (!dir.exists()) dir.mkdirs();
+    this.file = new File(dir, "journal.bin");
+  }
+
+  // Reads the journal, truncates any torn tail and rewrites it to just the
+  // unfinished jobs. Must be called once before append().
+  synchronized List<Entry> open() throws IOException {
+    Map<String, Entry> live = new LinkedHashMap<>();
+    long good = 0;
+    if (file.exists()) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+        while (true) {
+          int len;
+          try {
+            len = in.readInt();
+          } catch (EOFException eof) {
+            break;
+          }
+          if (len <= 0 || len > 64 * 1024 * 1024) break;
+          byte[] body = new byte[len];
+          int crc;
+          try {
+            in.readFully(body);
+            crc = in.readInt();
+          } catch (EOFException torn) {
+            break;
+          }
+          if (crc != crc(body)) break;
+          apply(body, live);
+          good += 8 + len;
+        }
+      }
+      if (good < file.length()) {
+        Log.w(TAG, "Dropping torn journal tail at " + good + "/" + file.length());
+      }
+    }
+    List<Entry> result = new ArrayList<>(live.values());
+    rewrite(result);
+    return result;
+  }
+
+  private static void apply(byte[] body, Map<String, Entry> live) throws IOException {
+    DataInputStream in = new DataInputStream(new java.io.ByteArrayInputStream(body));
+    byte type = in.readByte();
+    String id = in.readUTF();
+    if (type == REC_ADD || type == REC_ADD_REF) {
+      String key = in.readUTF();
+      String address = emptyToNull(in.readUTF());
+      String name = emptyToNull(in.readUTF());
+      long at = in.readLong();
+      String ref = null;
+      byte[] data = null;
+      if (type == REC_ADD_REF) {
+        ref = in.readUTF();
+      } else {
+        data = new byte[in.readInt()];
+        in.readFully(data);
+      }
+      PrintJob.Priority priority = in.available() > 0
+        ? PrintJob.Priority.fromOrdinal(in.readByte()) : PrintJob.Priority.RECEIPT;
+      live.put(id, new Entry(id, key, address, name, at, data, ref, priority));
+    } else {
+      live.remove(id);
+    }
+  }
+
+  // Compaction: write live entries to a temp file, fsync, then rename over the journal
+  private void rewrite(List<Entry> live) throws IOException {
+    closeStreams();
+    File tmp = new File(file.getPath() + ".tmp");
+    try (FileOutputStream tfos = new FileOutputStream(tmp);
+         DataOutputStream tout = new DataOutputStream(new BufferedOutputStream(tfos, 64 * 1024))) {
+      for (Entry e : live) {
+        writeFrame(tout, addBody(e.id, e.printerKey, e.address, e.nameContains, e.enqueuedAt, e.data, e.ref, e.priority));
+      }
+      tout.flush();
+      tfos.getFD().sync();
+    }
+    if (!tmp.renameTo(file)) throw new IOException("Could not replace print journal");
+    fos = new FileOutputStream(file, true);
+    out = new DataOutputStream(new BufferedOutputStream(fos, 16 * 1024));
+    size = file.length();
+    pending = live.size();
+  }
+
+  // Appends an ADD and returns once it is durable on disk
+  // (streamed jobs journal only their file/URI reference, never the bytes)
+  void add(PrintJob job, String address, String nameContains, PrintPayload payload) throws IOException {
+    byte[] data = payload.bytes();
+    String ref = data == null ? payload.ref() : null;
+    if (data == null && ref == null) throw new IOException("Payload cannot be spooled");
+    byte[] body = addBody(job.id, job.printerKey, address, nameContains, job.enqueuedAt, data, ref,
+      job.priority);
+    long seq;
+    synchronized (this) {
+      seq = append(body);
+      pending++;
+    }
+    awaitDurable(seq);
+  }
+
+  void markDone(String id, boolean printed) {
+    boolean compact;
+    try {
+      synchronized (this) {
+        append(smallBody(printed ? REC_DONE : REC_DROP, id));
+        pending = Math.max(0, pending - 1);
+        compact = pending == 0 && size > COMPACT_BYTES;
+        if (!compact) scheduleLazySync();
+      }
+      if (compact) compact();
+    } catch (IOException e) {
+      Log.e(TAG, "Could not mark job " + id + ": " + e.getMessage());
+    }
+  }
+
+  // Journal is all finished records: start a fresh file
+  private void compact() throws IOException {
+    synchronized (syncLock) {
+      synchronized (this) {
+        if (pending != 0) return;
+        rewrite(new ArrayList<>());
+        syncedSeq = appendedSeq;
+      }
+    }
+  }
+
+  private long append(byte[] body) throws IOException {
+    if (out == null) throw new IOException("Print journal not open");
+    writeFrame(out, body);
+    size += 8 + body.length;
+    return ++appendedSeq;
+  }
+
+  // Group commit: whoever gets the lock first fsyncs everything appended so far
+  private void awaitDurable(long seq) throws IOException {
+    if (syncedSeq >= seq) return;
+    synchronized (syncLock) {
+      if (syncedSeq >= seq) return;
+      long upTo;
+      FileOutputStream f;
+      synchronized (this) {
+        upTo = appendedSeq;
+        out.flush();
+        f = fos;
+      }
+      f.getFD().sync();
+      syncedSeq = upTo;
+    }
+  }
+
+  private void scheduleLazySync() {
+    if (lazySyncScheduled) return;
+    lazySyncScheduled = true;
+    flusher.schedule(() -> {
+      long seq;
+      synchronized (this) {
+        lazySyncScheduled = false;
+        seq = appendedSeq;
+      }
+      try {
+        awaitDurable(seq);
+      } catch (IOException e) {
+        Log.w(TAG, "Lazy journal sync failed: " + e.getMessage());
+      }
+    }, LAZY_SYNC_MS, TimeUnit.MILLISECONDS);
+  }
+
+  synchronized int pendingCount() {
+    return pending;
+  }
+
+  private void closeStreams() {
+    if (out != null) {
+      try { out.flush(); } catch (IOException ignored) {}
+      try { out.close(); } catch (IOException ignored) {}
+    }
+    out = null;
+    fos = null;
+  }
+
+  private static void writeFrame(DataOutputStream o, byte[] body) throws IOException {
+    o.writeInt(body.length);
+    o.write(body);
+    o.writeInt(crc(body));
+  }
+
+  private static byte[] addBody(String id, String key, String address, String name, long at,
+                                byte[] data, String ref, PrintJob.Priority priority) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream((data == null ? 0 : data.length) + 96);
+    DataOutputStream d = new DataOutputStream(bos);
+    d.writeByte(data == null ? REC_ADD_REF : REC_ADD);
+    d.writeUTF(id);
+    d.writeUTF(key);
+    d.writeUTF(address == null ? "" : address);
+    d.writeUTF(name == null ? "" : name);
+    d.writeLong(at);
+    if (data == null) {
+      d.writeUTF(ref);
+    } else {
+      d.writeInt(data.length);
+      d.write(data);
+    }
+    d.writeByte(priority.ordinal());
+    return bos.toByteArray();
+  }
+
+  private static byte[] smallBody(byte type, String id) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(32);
+    DataOutputStream d = new DataOutputStream(bos);
+    d.writeByte(type);
+    d.writeUTF(id);
+    return bos.toByteArray();
+  }
+
+  private static int crc(byte[] body) {
+    CRC32 c = new CRC32();
+    c.update(body, 0, body.length);
+    return (int) c.getValue();
+  }
+
+  private static String emptyToNull(String s) {
+    return s == null || s.isEmpty() ? null : s;
+  }
+}
@@ -0,0 +1,157 @@
+package com.cafeqr.app;
+
+import android.util.Log;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-stage print latency (queue wait, route, connect, write, settle) and
+// retry/fallback/failure counters, kept per printer+transport and per transport
+// ("*" printer). Each finished job is recorded once; no locks on the hot path.
+class PrintStats {
+
+  private static final String TAG = "PrintStats";
+  static final String[] STAGES = { "queue", "route", "connect", "write", "settle" };
+
+  private static PrintStats instance;
+
+  static synchronized PrintStats shared() {
+    if (instance == null) instance = new PrintStats();
+    return instance;
+  }
+
+  static final class Entry {
+    final String printer;
+    final String transport;
+    final LatencyHistogram[] stages = new LatencyHistogram[STAGES.length];
+    final LatencyHistogram total = new LatencyHistogram();
+    final AtomicLong jobs = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+    final AtomicLong retries = new AtomicLong();
+    final AtomicLong fallbacks = new AtomicLong();
+    final AtomicLong hedges = new AtomicLong();
+
+    Entry(String printer, String transport) {
+      this.printer = printer;
+      this.transport = transport;
+      for (int i = 0; i < stages.length; i++) stages[i] = new LatencyHistogram();
+    }
+
+    void record(PrintJob job) {
+      jobs.incrementAndGet();
+      if (job.state != PrintJob.State.DONE) failures.incrementAndGet();
+      if (job.retries > 0) retries.addAndGet(job.retries);
+      if (job.fallback) fallbacks.incrementAndGet();
+      if (job.hedged) hedges.incrementAndGet();
+      if (job.startedAt > 0) stages[0].record(job.startedAt - job.enqueuedAt);
+      stages[1].record(job.routeMs);
+      stages[2].record(job.connectMs);
+      stages[3].record(job.writeMs);
+      stages[4].record(job.settleMs);
+      if (job.finishedAt > 0) total.record(job.finishedAt - job.enqueuedAt);
+    }
+
+    JSObject toJson() {
+      JSObject o = new JSObject();
+      o.put("printer", printer);
+      o.put("transport", transport);
+      o.put("jobs", jobs.get());
+      o.put("failures", failures.get());
+      o.put("retries", retries.get());
+      o.put("fallbacks", fallbacks.get());
+      o.put("hedges", hedges.get());
+      try {
+        JSONObject st = new JSONObject();
+        for (int i = 0; i < STAGES.length; i++) st.put(STAGES[i], stages[i].toJson());
+        st.put("total", total.toJson());
+        o.put("stages", st);
+      } catch (Exception ignored) {}
+      return o;
+    }
+
+    String summary() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(printer).append('/').append(transport)
+        .append(" jobs=").append(jobs.get())
+        .append(" fail=").append(failures.get())
+        .append(" retry=").append(retries.get())
+        .append(" fallback=").append(fallbacks.get());
+      for (int i = 0; i < STAGES.length; i++) {
+        sb.append(' ').append(STAGES[i]).append(" p50/p99=")
+          .append(stages[i].percentile(0.5)).append('/').append(stages[i].percentile(0.99));
+      }
+      return sb.toString();
+    }
+  }
+
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private ScheduledExecutorService logger;
+  private ScheduledFuture<?> logTask;
+  private long logIntervalMs;
+
+  private PrintStats() {}
+
+  void record(PrintJob job) {
+    String transport = job.via != null ? job.via : "none";
+    entry(job.printerKey, transport).record(job);
+    entry("*", transport).record(job);
+  }
+
+  private Entry entry(String printer, String transport) {
+    String key = printer + "|" + transport;
+    Entry e = entries.get(key);
+    if (e != null) return e;
+    Entry fresh = new Entry(printer, transport);
+    Entry prev = entries.putIfAbsent(key, fresh);
+    return prev != null ? prev : fresh;
+  }
+
+  void reset() {
+    entries.clear();
+  }
+
+  JSObject toJson() {
+    JSArray printers = new JSArray();
+    JSArray transports = new JSArray();
+    for (Entry e : entries.values()) {
+      if ("*".equals(e.printer)) transports.put(e.toJson());
+      else printers.put(e.toJson());
+    }
+    JSObject out = new JSObject();
+    out.put("printers", printers);
+    out.put("transports", transports);
+    out.put("logIntervalMs", logIntervalMs);
+    return out;
+  }
+
+  // Periodically logs a one-line summary per printer/transport; 0 turns it off
+  synchronized void setLogIntervalMs(long ms) {
+    if (logTask != null) {
+      logTask.cancel(false);
+      logTask = null;
+    }
+    logIntervalMs = Math.max(0, ms);
+    if (logIntervalMs == 0) return;
+    if (logger == null) {
+      logger = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "print-stats-log");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    logTask = logger.scheduleWithFixedDelay(this::dump, logIntervalMs, logIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  void dump() {
+    for (Entry e : entries.values()) Log.i(TAG, e.summary());
+  }
+}
@@ -0,0 +1,77 @@
+package com.cafeqr.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Chunked upload for large jobs: JS opens a stream, appends base64 chunks
+// (each decoded and written straight to a temp file) and closes it to print.
+// Files live under filesDir so a spooled stream survives a restart.
+class PrintStreams {
+
+  private static final long MAX_BYTES = 64L * 1024 * 1024;
+  private static final long STALE_MS = 24 * 60 * 60 * 1000L; // past any spool replay
+  private static final AtomicLong SEQ = new AtomicLong();
+
+  private static final class Upload {
+    final File file;
+    final FileOutputStream out;
+    long bytes;
+
+    Upload(File file) throws IOException {
+      this.file = file;
+      this.out = new FileOutputStream(file);
+    }
+  }
+
+  private final File dir;
+  private final Map<String, Upload> uploads = new HashMap<>();
+
+  PrintStreams(File filesDir) {
+    this.dir = new File(filesDir, "print-streams");
+    // Uploads abandoned by a previous process
+    File[] old = dir.listFiles();
+    long cutoff = System.currentTimeMillis() - STALE_MS;
+    if (old != null) {
+      for (File f : old) if (f.lastModified() < cutoff) f.delete();
+    }
+  }
+
+  synchronized String open() throws IOException {
+    if (!dir.exists() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+    String id = "ps-" + System.currentTimeMillis() + "-" + SEQ.incrementAndGet();
+    uploads.put(id, new Upload(new File(dir, id + ".bin")));
+    return id;
+  }
+
+  synchronized long append(String id, byte[] chunk) throws IOException {
+    Upload u = uploads.get(id);
+    if (u == null) throw new IOException("Unknown stream " + id);
+    if (u.bytes + chunk.length > MAX_BYTES) {
+      abort(id);
+      throw new IOException("Print stream too large");
+    }
+    u.out.write(chunk);
+    u.bytes += chunk.length;
+    return u.bytes;
+  }
+
+  // Finishes the upload and hands back a payload that deletes the file once printed
+  synchronized PrintPayload close(String id) throws IOException {
+    Upload u = uploads.remove(id);
+    if (u == null) throw new IOException("Unknown stream " + id);
+    u.out.getFD().sync();
+    u.out.close();
+    return PrintPayload.ofFile(u.file, true);
+  }
+
+  synchronized void abort(String id) {
+    Upload u = uploads.remove(id);
+    if (u == null) return;
+    try { u.out.close(); } catch (IOException ignored) {}
+    u.file.delete();
+  }
+}
@@ -0,0 +1,322 @@
+package com.cafeqr.app;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Bluetooth printer discovery that outlives the picker dialog. Scans are
+// time-bounded (classic discovery otherwise runs ~12 s and starves open
+// printer sockets), devices are deduplicated by address, and results are
+// kept with a TTL, so the picker opens with bonded plus recently seen
+// printers at once and a new scan only reports what changed. Candidates are
+// ranked printer-like first, then bonded, then by signal strength.
+class PrinterDiscovery {
+
+  private static final String TAG = "PrinterDiscovery";
+  private static final String PREFS = "printer_discovery";
+  static final long DEFAULT_SCAN_MS = 10_000;
+  static final long MAX_SCAN_MS = 30_000;
+  static final long DEFAULT_TTL_MS = 10 * 60 * 1000L;
+  private static final long MIN_RESCAN_MS = 30_000; // a fresher cache is served as is
+  private static final int RSSI_STEP = 8;           // smaller changes are not reported
+  private static final int MAX_CACHED = 64;
+  private static final int NO_RSSI = Short.MIN_VALUE;
+
+  interface Listener {
+    // Main thread. ranked is the full current list; finished once per scan.
+    void onUpdate(List<Candidate> ranked, boolean finished, String error);
+  }
+
+  private static PrinterDiscovery instance;
+
+  static synchronized PrinterDiscovery get(Context ctx) {
+    if (instance == null) instance = new PrinterDiscovery(ctx.getApplicationContext());
+    return instance;
+  }
+
+  static final class Candidate {
+    final String address;
+    String name = "";
+    int rssi = NO_RSSI;
+    int deviceClass = -1;
+    boolean printerLike;
+    boolean bonded;
+    long lastSeen;
+
+    Candidate(String address) {
+      this.address = address;
+    }
+
+    boolean hasRssi() {
+      return rssi != NO_RSSI;
+    }
+
+    // Printer-like dominates, bonded next, then signal (-100..-30 dBm -> 0..70)
+    int score() {
+      int signal = rssi == NO_RSSI ? 0 : Math.max(0, Math.min(70, rssi + 100));
+      return (printerLike ? 200 : 0) + (bonded ? 100 : 0) + signal;
+    }
+
+    JSObject toJson() {
+      JSObject o = new JSObject();
+      o.put("address", address);
+      o.put("name", name);
+      o.put("bonded", bonded);
+      o.put("printerLike", printerLike);
+      o.put("deviceClass", deviceClass);
+      if (rssi != NO_RSSI) o.put("rssi", rssi);
+      o.put("lastSeen", lastSeen);
+      o.put("score", score());
+      return o;
+    }
+  }
+
+  private final Context ctx;
+  private final SharedPreferences prefs;
+  private final Handler main = new Handler(Looper.getMainLooper());
+  private final Map<String, Candidate> found = new LinkedHashMap<>(); // main thread
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+  private long ttlMs = DEFAULT_TTL_MS;
+  private boolean scanning;
+  private boolean started;   // this scan's DISCOVERY_STARTED was seen
+  private long lastScanAt;
+  private BluetoothAdapter scanAdapter;
+  private final Runnable timeout = () -> finish(null);
+
+  private final BroadcastReceiver receiver = new BroadcastReceiver() {
+    @Override
+    public void onReceive(Context c, Intent intent) {
+      String action = intent.getAction();
+      if (BluetoothDevice.ACTION_FOUND.equals(action)) {
+        BluetoothDevice d = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+        if (d == null || d.getAddress() == null) return;
+        short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE);
+        if (seen(d, rssi)) notifyListeners(false, null);
+      } else if (BluetoothAdapter.ACTION_DISCOVERY_STARTED.equals(action)) {
+        started = true;
+      } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
+        // A FINISHED from cancelling an earlier discovery arrives late; only ours ends the scan
+        if (started) finish(null);
+      }
+    }
+  };
+
+  private PrinterDiscovery(Context ctx) {
+    this.ctx = ctx;
+    this.prefs = ctx.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    load();
+  }
+
+  void addListener(Listener l) {
+    listeners.add(l);
+  }
+
+  // Also ends a scan nobody is waiting for any more
+  void removeListener(Listener l) {
+    listeners.remove(l);
+    main.post(() -> {
+      if (scanning && listeners.isEmpty()) finish(null);
+    });
+  }
+
+  boolean isScanning() {
+    return scanning;
+  }
+
+  // Bonded devices plus unexpired scan results, best first; call on the main thread
+  List<Candidate> ranked(BluetoothAdapter adapter) {
+    long now = System.currentTimeMillis();
+    List<String> expired = new ArrayList<>();
+    for (Candidate c : found.values()) {
+      c.bonded = false;
+      if (now - c.lastSeen > ttlMs) expired.add(c.address);
+    }
+    for (String a : expired) found.remove(a);
+    try {
+      Set<BluetoothDevice> bonded = adapter.getBondedDevices();
+      if (bonded != null) {
+        for (BluetoothDevice d : bonded) {
+          if (d == null || d.getAddress() == null) continue;
+          Candidate c = candidate(d);
+          c.bonded = true;
+        }
+      }
+    } catch (SecurityException e) {
+      Log.w(TAG, "Bonded devices unavailable: " + e.getMessage());
+    }
+    List<Candidate> out = new ArrayList<>(found.values());
+    Collections.sort(out, (a, b) -> b.score() != a.score() ? Integer.compare(b.score(), a.score())
+      : Long.compare(b.lastSeen, a.lastSeen));
+    return out;
+  }
+
+  // Starts a scan of at most durationMs on the main thread, unless one is
+  // running (its listeners get this one's results too) or the cache is
+  // fresher than MIN_RESCAN_MS and force is false. Returns whether a scan
+  // is now running.
+  boolean scan(BluetoothAdapter adapter, long durationMs, boolean force) {
+    if (scanning) return true;
+    if (!force && System.currentTimeMillis() - lastScanAt < MIN_RESCAN_MS) return false;
+    scanAdapter = adapter;
+    try {
+      // Before registering, though its FINISHED may still be delivered late
+      if (adapter.isDiscovering()) adapter.cancelDiscovery();
+    } catch (SecurityException e) {
+      notifyListeners(true, "Bluetooth scan permission missing");
+      return false;
+    }
+    IntentFilter f = new IntentFilter();
+    f.addAction(BluetoothDevice.ACTION_FOUND);
+    f.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
+    f.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+    ContextCompat.registerReceiver(ctx, receiver, f, ContextCompat.RECEIVER_NOT_EXPORTED);
+    scanning = true;
+    started = false;
+    try {
+      if (!adapter.startDiscovery()) {
+        finish("Discovery could not start");
+        return false;
+      }
+    } catch (SecurityException e) {
+      finish("Bluetooth scan permission missing");
+      return false;
+    }
+    main.postDelayed(timeout, Math.max(1000, Math.min(MAX_SCAN_MS, durationMs)));
+    return true;
+  }
+
+  void configure(Long ttlMs) {
+    if (ttlMs != null && ttlMs > 0) this.ttlMs = ttlMs;
+  }
+
+  long getTtlMs() {
+    return ttlMs;
+  }
+
+  static JSArray toJson(List<Candidate> ranked) {
+    JSArray arr = new JSArray();
+    for (Candidate c : ranked) arr.put(c.toJson());
+    return arr;
+  }
+
+  // Dedup by address; true when the device is new or its name or signal
+  // changed enough to matter
+  private boolean seen(BluetoothDevice d, short rssi) {
+    boolean isNew = !found.containsKey(d.getAddress().toUpperCase());
+    Candidate c = candidate(d);
+    String oldName = c.name;
+    int oldRssi = c.rssi;
+    c.lastSeen = System.currentTimeMillis();
+    if (rssi != Short.MIN_VALUE) c.rssi = rssi;
+    return isNew || !oldName.equals(c.name)
+      || (oldRssi == NO_RSSI) != (c.rssi == NO_RSSI)
+      || Math.abs(c.rssi - oldRssi) >= RSSI_STEP;
+  }
+
+  private Candidate candidate(BluetoothDevice d) {
+    String key = d.getAddress().toUpperCase();
+    Candidate c = found.get(key);
+    if (c == null) {
+      c = new Candidate(key);
+      c.lastSeen = System.currentTimeMillis();
+      found.put(key, c);
+    }
+    String name = d.getName();
+    if (name != null && !name.isEmpty()) c.name = name;
+    BluetoothClass bc = d.getBluetoothClass();
+    if (bc != null) c.deviceClass = bc.getDeviceClass();
+    c.printerLike = PrinterIndex.looksLikePrinter(c.name.toLowerCase())
+      || (bc != null && bc.getMajorDeviceClass() == BluetoothClass.Device.Major.IMAGING);
+    return c;
+  }
+
+  private void finish(String error) {
+    if (!scanning) return;
+    scanning = false;
+    lastScanAt = System.currentTimeMillis();
+    main.removeCallbacks(timeout);
+    try {
+      ctx.unregisterReceiver(receiver);
+    } catch (IllegalArgumentException ignored) {
+      // not registered
+    }
+    try {
+      if (scanAdapter != null && scanAdapter.isDiscovering()) scanAdapter.cancelDiscovery();
+    } catch (SecurityException ignored) {}
+    save();
+    notifyListeners(true, error);
+  }
+
+  private void notifyListeners(boolean finished, String error) {
+    if (listeners.isEmpty() || scanAdapter == null) return;
+    List<Candidate> ranked = ranked(scanAdapter);
+    for (Listener l : listeners) l.onUpdate(ranked, finished, error);
+  }
+
+  private void load() {
+    try {
+      JSONArray arr = new JSONArray(prefs.getString("found", "[]"));
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < arr.length(); i++) {
+        JSONObject o = arr.getJSONObject(i);
+        Candidate c = new Candidate(o.getString("address"));
+        c.lastSeen = o.optLong("lastSeen");
+        if (now - c.lastSeen > ttlMs) continue;
+        c.name = o.optString("name", "");
+        c.rssi = o.optInt("rssi", NO_RSSI);
+        c.deviceClass = o.optInt("deviceClass", -1);
+        c.printerLike = o.optBoolean("printerLike");
+        found.put(c.address, c);
+      }
+    } catch (Exception e) {
+      Log.w(TAG, "Dropping unreadable discovery cache: " + e.getMessage());
+    }
+  }
+
+  // Most recently seen first, up to MAX_CACHED
+  private void save() {
+    List<Candidate> all = new ArrayList<>(found.values());
+    Collections.sort(all, (a, b) -> Long.compare(b.lastSeen, a.lastSeen));
+    JSONArray arr = new JSONArray();
+    try {
+      for (int i = 0; i < all.size() && i < MAX_CACHED; i++) {
+        Candidate c = all.get(i);
+        JSONObject o = new JSONObject();
+        o.put("address", c.address);
+        o.put("name", c.name);
+        o.put("rssi", c.rssi);
+        o.put("deviceClass", c.deviceClass);
+        o.put("printerLike", c.printerLike);
+        o.put("lastSeen", c.lastSeen);
+        arr.put(o);
+      }
+    } catch (Exception e) {
+      return;
+    }
+    prefs.edit().putString("found", arr.toString()).apply();
+  }
+}
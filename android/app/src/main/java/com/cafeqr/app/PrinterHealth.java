@@ -0,0 +1,244 @@
+package com.cafeqr.app;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.util.Log;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Circuit breaker per Bluetooth printer plus a background monitor. A printer
+// that is switched off makes every connect block for 10 s or more (SDP, then
+// the reflection fallback), so after failureThreshold failed connects its
+// breaker opens and jobs skip it at once (RouteSelector falls back to USB or
+// fails fast). After a cooldown one trial connect is let through (half-open);
+// success closes the breaker, failure reopens it with a doubled cooldown.
+//
+// The monitor never opens sockets to healthy idle printers: it sends DLE EOT
+// over sockets the pool already holds, and runs the half-open trial for open
+// breakers that are due, so a printer coming back is noticed without a job.
+// tcp:// printers share the breakers but not the monitor: their half-open
+// trial is simply the next job.
+class PrinterHealth {
+
+  private static final String TAG = "PrinterHealth";
+  static final long DEFAULT_INTERVAL_MS = 30_000;
+  static final int DEFAULT_FAILURE_THRESHOLD = 1;
+  private static final long BASE_COOLDOWN_MS = 10_000;
+  private static final long MAX_COOLDOWN_MS = 5 * 60_000L;
+  private static final int PROBE_TIMEOUT_MS = 500;
+
+  enum State { CLOSED, OPEN, HALF_OPEN }
+
+  private static PrinterHealth instance;
+
+  static synchronized PrinterHealth get(Context ctx) {
+    if (instance == null) instance = new PrinterHealth(ctx.getApplicationContext());
+    return instance;
+  }
+
+  static final class Breaker {
+    final String address;
+    State state = State.CLOSED;
+    int failures;             // consecutive
+    long cooldownMs = BASE_COOLDOWN_MS;
+    long retryAt;             // OPEN: when the next trial may run
+    boolean trialInFlight;
+    long trips;
+    int lastStatus = -1;      // DLE EOT byte from the last probe or job
+    long lastProbeAt;
+    long lastOkAt;
+    String lastError;
+
+    Breaker(String address) {
+      this.address = address;
+    }
+
+    JSObject toJson(long now) {
+      JSObject o = new JSObject();
+      o.put("address", address);
+      o.put("state", state.name().toLowerCase());
+      o.put("failures", failures);
+      o.put("trips", trips);
+      if (state == State.OPEN) o.put("retryInMs", Math.max(0, retryAt - now));
+      o.put("online", lastStatus < 0 ? null : PacedWriter.isOnline(lastStatus));
+      o.put("lastStatus", lastStatus);
+      o.put("lastProbeAt", lastProbeAt);
+      o.put("lastOkAt", lastOkAt);
+      if (lastError != null) o.put("lastError", lastError);
+      return o;
+    }
+  }
+
+  private final Context ctx;
+  private final Map<String, Breaker> breakers = new LinkedHashMap<>();
+  private final ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "printer-health");
+    t.setDaemon(true);
+    return t;
+  });
+  private ScheduledFuture<?> task;
+  private volatile long intervalMs;
+  private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+  private PrinterHealth(Context ctx) {
+    this.ctx = ctx;
+    setIntervalMs(DEFAULT_INTERVAL_MS);
+  }
+
+  private Breaker breaker(String address) {
+    String key = address.toUpperCase();
+    Breaker b = breakers.get(key);
+    if (b == null) {
+      b = new Breaker(key);
+      breakers.put(key, b);
+    }
+    return b;
+  }
+
+  // May a connect to this printer be attempted now? Moves a due OPEN breaker to
+  // HALF_OPEN and lets exactly one caller through as the trial.
+  synchronized boolean allow(String address) {
+    Breaker b = breaker(address);
+    switch (b.state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (System.currentTimeMillis() < b.retryAt) return false;
+        b.state = State.HALF_OPEN;
+        b.trialInFlight = true;
+        return true;
+      default:
+        if (b.trialInFlight) return false;
+        b.trialInFlight = true;
+        return true;
+    }
+  }
+
+  // Hands back a trial that allow() granted but that never got to connect
+  synchronized void release(String address) {
+    breaker(address).trialInFlight = false;
+  }
+
+  // Why allow() said no, for the job's error
+  synchronized String rejection(String address) {
+    Breaker b = breaker(address);
+    long wait = Math.max(0, b.retryAt - System.currentTimeMillis());
+    return "Printer " + b.address + " unreachable" + (b.lastError != null ? " (" + b.lastError + ")" : "")
+      + ", retrying in " + (wait + 999) / 1000 + "s";
+  }
+
+  synchronized void success(String address, int status) {
+    Breaker b = breaker(address);
+    if (b.state != State.CLOSED) Log.i(TAG, b.address + " is back, closing breaker");
+    b.state = State.CLOSED;
+    b.failures = 0;
+    b.cooldownMs = BASE_COOLDOWN_MS;
+    b.trialInFlight = false;
+    b.lastOkAt = System.currentTimeMillis();
+    b.lastError = null;
+    if (status >= 0) b.lastStatus = status;
+  }
+
+  synchronized void failure(String address, String error) {
+    Breaker b = breaker(address);
+    b.failures++;
+    b.lastError = error;
+    b.trialInFlight = false;
+    long now = System.currentTimeMillis();
+    if (b.state == State.HALF_OPEN) {
+      b.cooldownMs = Math.min(MAX_COOLDOWN_MS, b.cooldownMs * 2);
+    } else if (b.state == State.CLOSED && b.failures >= failureThreshold) {
+      b.trips++;
+      Log.w(TAG, b.address + " tripped after " + b.failures + " failure(s): " + error);
+    } else if (b.state == State.CLOSED) {
+      return;
+    }
+    b.state = State.OPEN;
+    b.retryAt = now + b.cooldownMs;
+  }
+
+  // Forgets one printer's breaker, or all of them when address is null
+  synchronized void reset(String address) {
+    if (address == null) breakers.clear();
+    else breakers.remove(address.toUpperCase());
+  }
+
+  void setFailureThreshold(int n) {
+    if (n > 0) failureThreshold = n;
+  }
+
+  // 0 stops the monitor; breakers keep working on job outcomes alone
+  synchronized void setIntervalMs(long ms) {
+    if (task != null) task.cancel(false);
+    task = null;
+    intervalMs = Math.max(0, ms);
+    if (intervalMs > 0) task = monitor.scheduleWithFixedDelay(this::sweep, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  private void sweep() {
+    List<String> due = new ArrayList<>();
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      for (Breaker b : breakers.values()) {
+        // Network printers are not Bluetooth devices; their next job is the trial
+        if (TcpTransport.isTcp(b.address)) continue;
+        if (b.state == State.OPEN && now >= b.retryAt) due.add(b.address);
+      }
+    }
+    BluetoothConnectionPool pool = BluetoothConnectionPool.shared();
+    for (String address : due) trial(address, pool);
+    for (String address : pool.openAddresses()) probe(address, pool);
+  }
+
+  // Half-open trial: a plain connect, which also leaves the socket warm
+  private void trial(String address, BluetoothConnectionPool pool) {
+    if (!allow(address)) return;
+    try {
+      BluetoothDevice dev = PrinterIndex.get(ctx).resolve(address, null);
+      if (dev == null) {
+        failure(address, "not bonded");
+        return;
+      }
+      pool.connect(dev);
+      success(address, -1);
+    } catch (Exception e) {
+      failure(address, e.getMessage());
+    }
+  }
+
+  // Status check over a socket the pool already holds; never connects
+  private void probe(String address, BluetoothConnectionPool pool) {
+    try {
+      int status = pool.probe(address, PROBE_TIMEOUT_MS);
+      if (status == BluetoothConnectionPool.NOT_PROBED) return;
+      synchronized (this) {
+        breaker(address).lastProbeAt = System.currentTimeMillis();
+      }
+      success(address, status);
+    } catch (IOException e) {
+      failure(address, e.getMessage());
+    }
+  }
+
+  synchronized JSObject toJson() {
+    long now = System.currentTimeMillis();
+    JSArray list = new JSArray();
+    for (Breaker b : breakers.values()) list.put(b.toJson(now));
+    JSObject o = new JSObject();
+    o.put("intervalMs", intervalMs);
+    o.put("failureThreshold", failureThreshold);
+    o.put("printers", list);
+    return o;
+  }
+}
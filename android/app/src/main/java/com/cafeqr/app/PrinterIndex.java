@@ -0,0 +1,345 @@
+package com.cafeqr.app;
+
+import android.Manifest;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Known printers with what we learned about them (name, transport, class,
+// connect latency, status support). Bonded devices are re-read only after a
+// bond/adapter broadcast, not on every job, and the printers an order will
+// print on can be pre-connected when it arrives.
+class PrinterIndex {
+
+  private static final String TAG = "PrinterIndex";
+  private static final String PREFS = "printer_index";
+  private static final int MAX_PRINTERS = 32;
+
+  private static PrinterIndex instance;
+
+  static synchronized PrinterIndex get(Context ctx) {
+    if (instance == null) instance = new PrinterIndex(ctx.getApplicationContext());
+    return instance;
+  }
+
+  static final class Printer {
+    final String address;
+    String name = "";
+    String nameLower = "";
+    String transport = "bt";
+    int deviceClass = -1;
+    boolean printerLike;
+    boolean bonded;
+    boolean connected;
+    boolean statusReplies;   // answered DLE EOT at least once
+    long lastConnectMs = -1; // cold connect latency
+    long lastUsedAt;
+
+    Printer(String address) {
+      this.address = address;
+    }
+
+    void setName(String n) {
+      name = n == null ? "" : n;
+      nameLower = name.toLowerCase();
+    }
+
+    JSObject toJson() {
+      JSObject o = new JSObject();
+      o.put("address", address);
+      o.put("name", name);
+      o.put("transport", transport);
+      o.put("bonded", bonded);
+      o.put("connected", connected);
+      o.put("lastConnectMs", lastConnectMs);
+      o.put("lastUsedAt", lastUsedAt);
+      JSObject caps = new JSObject();
+      caps.put("printerLike", printerLike);
+      caps.put("deviceClass", deviceClass);
+      caps.put("statusReplies", statusReplies);
+      o.put("capabilities", caps);
+      return o;
+    }
+  }
+
+  private final Context ctx;
+  private final SharedPreferences prefs;
+  private final Map<String, Printer> printers = new LinkedHashMap<>();
+  private final ExecutorService prewarmer = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "printer-prewarm");
+    t.setDaemon(true);
+    return t;
+  });
+  private boolean bondedDirty = true;
+
+  private final BroadcastReceiver receiver = new BroadcastReceiver() {
+    @Override
+    public void onReceive(Context c, Intent intent) {
+      String action = intent.getAction();
+      BluetoothDevice dev = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+      synchronized (PrinterIndex.this) {
+        if (BluetoothDevice.ACTION_ACL_CONNECTED.equals(action) && dev != null) {
+          Printer p = printers.get(dev.getAddress().toUpperCase());
+          if (p != null) p.connected = true;
+        } else if (BluetoothDevice.ACTION_ACL_DISCONNECTED.equals(action) && dev != null) {
+          Printer p = printers.get(dev.getAddress().toUpperCase());
+          if (p != null) p.connected = false;
+        } else {
+          // Bond added/removed or adapter toggled: re-read bonded devices lazily
+          bondedDirty = true;
+        }
+      }
+    }
+  };
+
+  private PrinterIndex(Context ctx) {
+    this.ctx = ctx;
+    this.prefs = ctx.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    load();
+    IntentFilter f = new IntentFilter();
+    f.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+    f.addAction(BluetoothDevice.ACTION_ACL_CONNECTED);
+    f.addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+    f.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+    ContextCompat.registerReceiver(ctx, receiver, f, ContextCompat.RECEIVER_NOT_EXPORTED);
+  }
+
+  // Bonded Bluetooth printer for a job: exact address, else name hint, else the
+  // most printer-like device (same rules as before, minus the per-job lookups).
+  // Throws SecurityException when BLUETOOTH_CONNECT is missing.
+  BluetoothDevice resolve(String targetAddress, String nameContains) {
+    BluetoothAdapter adapter = adapter();
+    if (adapter == null) return null;
+
+    Printer chosen = null;
+    synchronized (this) {
+      refreshBonded(adapter);
+      // 1) Exact address (what you already use for external BT printers)
+      if (targetAddress != null && !targetAddress.isEmpty()) {
+        Printer p = printers.get(targetAddress.toUpperCase());
+        chosen = p != null && p.bonded ? p : null;
+        if (chosen == null) return null;
+      } else {
+        // 2) Name hint, then 3) printer-like; first bonded of any kind (covers
+        // SimulatePrinter) only when no hint was given
+        String hint = nameContains == null || nameContains.isEmpty() ? null : nameContains.toLowerCase();
+        Printer fallback = null;
+        for (Printer p : printers.values()) {
+          if (!p.bonded) continue;
+          if (hint != null && p.nameLower.contains(hint)) {
+            chosen = p;
+            break;
+          }
+          if (p.printerLike && (fallback == null || !fallback.printerLike)) fallback = p;
+          if (fallback == null && hint == null) fallback = p;
+        }
+        if (chosen == null) chosen = fallback;
+      }
+    }
+    return chosen == null ? null : adapter.getRemoteDevice(chosen.address);
+  }
+
+  private BluetoothAdapter adapter() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+      if (ctx.checkSelfPermission(Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
+        throw new SecurityException("BLUETOOTH_CONNECT not granted");
+      }
+    }
+    BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+    if (adapter == null || !adapter.isEnabled()) return null;
+    return adapter;
+  }
+
+  private void refreshBonded(BluetoothAdapter adapter) {
+    if (!bondedDirty) return;
+    Set<BluetoothDevice> bonded = adapter.getBondedDevices();
+    if (bonded == null) return;
+    for (Printer p : printers.values()) p.bonded = false;
+    for (BluetoothDevice d : bonded) {
+      if (d == null || d.getAddress() == null) continue;
+      Printer p = printer(d.getAddress());
+      p.bonded = true;
+      p.setName(d.getName());
+      BluetoothClass bc = d.getBluetoothClass();
+      p.deviceClass = bc == null ? -1 : bc.getDeviceClass();
+      p.printerLike = looksLikePrinter(p.nameLower)
+        || (bc != null && bc.getMajorDeviceClass() == BluetoothClass.Device.Major.IMAGING);
+    }
+    bondedDirty = false;
+    save();
+  }
+
+  static boolean looksLikePrinter(String lower) {
+    return lower.contains("printer") || lower.contains("pos") || lower.contains("simu") || lower.contains("i9100");
+  }
+
+  private Printer printer(String address) {
+    String key = address.toUpperCase();
+    Printer p = printers.get(key);
+    if (p == null) {
+      p = new Printer(key);
+      printers.put(key, p);
+    }
+    return p;
+  }
+
+  // USB printers are indexed when their session opens
+  synchronized void recordUsb(String deviceName, String productName) {
+    Printer p = printer("usb:" + deviceName);
+    p.transport = "usb";
+    if (productName != null) p.setName(productName);
+    save();
+  }
+
+  // Cold connect time, measured by the Bluetooth route
+  synchronized void recordConnect(String address, long ms) {
+    printer(address).lastConnectMs = ms;
+  }
+
+  // A job went out; status is the DLE EOT reply or -1
+  synchronized void recordPrinted(String address, int status) {
+    Printer p = printer(address);
+    p.lastUsedAt = System.currentTimeMillis();
+    if (status >= 0) p.statusReplies = true;
+    save();
+  }
+
+  // Opens the sockets to the Bluetooth printers an order is about to print on
+  // ({ address, nameContains } each, resolved as its jobs will be; none given:
+  // the most recently used printer) so its tickets skip the cold connect.
+  // Connects run on a shared pool; safe to call often.
+  void prewarm(List<String[]> targets) {
+    if (targets.isEmpty()) {
+      Printer last = null;
+      synchronized (this) {
+        for (Printer p : printers.values()) {
+          if (!"bt".equals(p.transport) || p.lastUsedAt == 0) continue;
+          if (last == null || p.lastUsedAt > last.lastUsedAt) last = p;
+        }
+      }
+      if (last == null) return;
+      targets = Collections.singletonList(new String[] { last.address, null });
+    }
+    for (String[] t : targets) {
+      if (TcpTransport.isTcp(t[0])) continue;
+      prewarmer.execute(() -> warm(t[0], t[1]));
+    }
+  }
+
+  private void warm(String targetAddress, String nameContains) {
+    BluetoothDevice dev;
+    try {
+      dev = resolve(targetAddress, nameContains);
+    } catch (SecurityException e) {
+      return;
+    }
+    if (dev == null) return;
+    String address = dev.getAddress();
+    BluetoothConnectionPool pool = BluetoothConnectionPool.shared();
+    if (pool.isWarm(address)) return;
+    PrinterHealth health = PrinterHealth.get(ctx);
+    if (!health.allow(address)) return; // known dead; the health monitor retries it
+    boolean reported = false;
+    try {
+      long t0 = System.currentTimeMillis();
+      pool.connect(dev);
+      recordConnect(address, System.currentTimeMillis() - t0);
+      health.success(address, -1);
+      reported = true;
+      Log.d(TAG, "Pre-warmed " + address);
+    } catch (Exception e) {
+      health.failure(address, e.getMessage());
+      reported = true;
+      Log.w(TAG, "Pre-warm of " + address + " failed: " + e.getMessage());
+    } finally {
+      // No attempt must not keep a half-open trial taken
+      if (!reported) health.release(address);
+    }
+  }
+
+  synchronized JSArray toJson() {
+    BluetoothAdapter adapter = null;
+    try {
+      adapter = adapter();
+    } catch (SecurityException ignored) {}
+    if (adapter != null) refreshBonded(adapter);
+    JSArray out = new JSArray();
+    for (Printer p : printers.values()) out.put(p.toJson());
+    return out;
+  }
+
+  private void load() {
+    String raw = prefs.getString("printers", null);
+    if (raw == null) return;
+    try {
+      JSONArray arr = new JSONArray(raw);
+      for (int i = 0; i < arr.length(); i++) {
+        JSONObject o = arr.getJSONObject(i);
+        Printer p = printer(o.getString("address"));
+        p.setName(o.optString("name", ""));
+        p.transport = o.optString("transport", "bt");
+        p.deviceClass = o.optInt("deviceClass", -1);
+        p.printerLike = o.optBoolean("printerLike");
+        p.statusReplies = o.optBoolean("statusReplies");
+        p.lastConnectMs = o.optLong("lastConnectMs", -1);
+        p.lastUsedAt = o.optLong("lastUsedAt");
+      }
+    } catch (Exception e) {
+      Log.w(TAG, "Dropping unreadable printer index: " + e.getMessage());
+    }
+  }
+
+  private void save() {
+    // Keep the most recently used printers when over the limit
+    if (printers.size() > MAX_PRINTERS) {
+      List<Printer> all = new ArrayList<>(printers.values());
+      Collections.sort(all, (a, b) -> Long.compare(a.lastUsedAt, b.lastUsedAt));
+      for (int i = 0; i < all.size() - MAX_PRINTERS; i++) {
+        if (!all.get(i).bonded) printers.remove(all.get(i).address);
+      }
+    }
+    JSONArray arr = new JSONArray();
+    try {
+      for (Printer p : printers.values()) {
+        JSONObject o = new JSONObject();
+        o.put("address", p.address);
+        o.put("name", p.name);
+        o.put("transport", p.transport);
+        o.put("deviceClass", p.deviceClass);
+        o.put("printerLike", p.printerLike);
+        o.put("statusReplies", p.statusReplies);
+        o.put("lastConnectMs", p.lastConnectMs);
+        o.put("lastUsedAt", p.lastUsedAt);
+        arr.put(o);
+      }
+    } catch (Exception e) {
+      return;
+    }
+    prefs.edit().putString("printers", arr.toString()).apply();
+  }
+}
@@ -0,0 +1,24 @@
+package com.cafeqr.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Byte pipe to one printer. Write strategies (PacedWriter) only ever see the
+// streams handed to Work, so the same code runs over Bluetooth, USB or the
+// simulated printer in the printer-bench module. Plain java.io only.
+interface PrinterTransport {
+
+  // One use of an open connection. in is the printer's back-channel (status
+  // replies) or null when the transport has none.
+  interface Work {
+    void run(OutputStream out, InputStream in) throws IOException;
+  }
+
+  // "bt", "usb", ...
+  String name();
+
+  // Runs work on an open connection, connecting first if needed. Returns true
+  // when the connection went stale and work was retried on a fresh one.
+  boolean execute(Work work) throws IOException;
+}
@@ -0,0 +1,154 @@
+package com.cafeqr.app;
+
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Encoded logo/QR images keyed by content hash + paper width + mode, so a
+// repeated logo costs a lookup instead of a decode/dither/pack.
+// Memory is an LRU bounded by bytes; the optional disk copy survives restarts.
+class RasterCache {
+
+  private static final String TAG = "RasterCache";
+  private static final int DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+  private static final int MAX_DISK_FILES = 64;
+
+  private static RasterCache instance;
+
+  static synchronized RasterCache get(File cacheDir) {
+    if (instance == null) instance = new RasterCache(new File(cacheDir, "raster"));
+    return instance;
+  }
+
+  private final LinkedHashMap<String, byte[]> mem = new LinkedHashMap<>(32, 0.75f, true);
+  private final File dir;
+  private int maxBytes = DEFAULT_MAX_BYTES;
+  private int bytes;
+  private boolean diskEnabled = true;
+  private long hits;
+  private long misses;
+
+  private RasterCache(File dir) {
+    this.dir = dir;
+  }
+
+  synchronized void configure(Integer maxBytes, Boolean disk) {
+    if (maxBytes != null && maxBytes > 0) this.maxBytes = maxBytes;
+    if (disk != null) diskEnabled = disk;
+    trim();
+  }
+
+  // Hex SHA-1 of the source image; returned to JS so it can send just the key later
+  static String contentKey(byte[] image) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-1");
+      byte[] d = md.digest(image);
+      StringBuilder sb = new StringBuilder(d.length * 2);
+      for (byte b : d) sb.append(String.format("%02x", b));
+      return sb.toString();
+    } catch (Exception e) {
+      return Integer.toHexString(Arrays.hashCode(image)) + "-" + image.length;
+    }
+  }
+
+  // Whether a key from JS has contentKey's shape; anything else never reaches the disk path
+  static boolean isContentKey(String key) {
+    if (key == null || key.length() != 40) return false;
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+    }
+    return true;
+  }
+
+  static String variantKey(String contentKey, int width, boolean dither, RasterEncoder.Mode mode) {
+    return contentKey + "-" + width + (dither ? "d" : "t") + (mode == RasterEncoder.Mode.COLUMN ? "c" : "r");
+  }
+
+  synchronized byte[] lookup(String key) {
+    byte[] v = mem.get(key);
+    if (v == null && diskEnabled) {
+      v = readDisk(key);
+      if (v != null) putMem(key, v);
+    }
+    if (v != null) hits++; else misses++;
+    return v;
+  }
+
+  synchronized void store(String key, byte[] encoded) {
+    putMem(key, encoded);
+    if (diskEnabled) writeDisk(key, encoded);
+  }
+
+  private void putMem(String key, byte[] v) {
+    byte[] prev = mem.put(key, v);
+    if (prev != null) bytes -= prev.length;
+    bytes += v.length;
+    trim();
+  }
+
+  private void trim() {
+    Iterator<Map.Entry<String, byte[]>> it = mem.entrySet().iterator();
+    while (bytes > maxBytes && it.hasNext()) {
+      bytes -= it.next().getValue().length;
+      it.remove();
+    }
+  }
+
+  private byte[] readDisk(String key) {
+    File f = new File(dir, key + ".bin");
+    if (!f.exists()) return null;
+    byte[] v = new byte[(int) f.length()];
+    try (FileInputStream in = new FileInputStream(f)) {
+      int off = 0;
+      while (off < v.length) {
+        int r = in.read(v, off, v.length - off);
+        if (r < 0) return null;
+        off += r;
+      }
+      f.setLastModified(System.currentTimeMillis());
+      return v;
+    } catch (Exception e) {
+      Log.w(TAG, "Could not read " + f + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  private void writeDisk(String key, byte[] v) {
+    if (!dir.exists() && !dir.mkdirs()) return;
+    File tmp = new File(dir, key + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(tmp)) {
+      out.write(v);
+    } catch (Exception e) {
+      Log.w(TAG, "Could not write raster cache: " + e.getMessage());
+      tmp.delete();
+      return;
+    }
+    tmp.renameTo(new File(dir, key + ".bin"));
+    File[] files = dir.listFiles((d, name) -> name.endsWith(".bin"));
+    if (files != null && files.length > MAX_DISK_FILES) {
+      Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+      for (int i = 0; i < files.length - MAX_DISK_FILES; i++) files[i].delete();
+    }
+  }
+
+  synchronized JSObject stats() {
+    JSObject o = new JSObject();
+    o.put("entries", mem.size());
+    o.put("bytes", bytes);
+    o.put("maxBytes", maxBytes);
+    o.put("disk", diskEnabled);
+    o.put("hits", hits);
+    o.put("misses", misses);
+    return o;
+  }
+}
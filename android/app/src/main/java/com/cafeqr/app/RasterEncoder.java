@@ -0,0 +1,141 @@
+package com.cafeqr.app;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+
+import java.io.ByteArrayOutputStream;
+
+// Bitmap -> 1-bit -> ESC/POS image bytes, either GS v 0 raster bands or
+// ESC * 24-dot column mode for printers without raster support.
+final class RasterEncoder {
+
+  private static final byte ESC = 0x1b;
+  private static final byte GS = 0x1d;
+  private static final int BAND_ROWS = 128;   // GS v 0 rows per command; cheap printers choke on more
+  private static final int THRESHOLD = 128;
+
+  enum Mode { RASTER, COLUMN }
+
+  // Supplies one row of 0..255 luminance values (0 = black)
+  interface LumaSource {
+    void row(int y, int[] out);
+  }
+
+  private RasterEncoder() {}
+
+  static byte[] encode(byte[] imageBytes, int maxWidthDots, boolean dither, Mode mode) throws Exception {
+    Bitmap src = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
+    if (src == null) throw new Exception("Unsupported image");
+    Bitmap scaled = src;
+    try {
+      if (src.getWidth() > maxWidthDots) {
+        int h = Math.max(1, Math.round(src.getHeight() * (maxWidthDots / (float) src.getWidth())));
+        scaled = Bitmap.createScaledBitmap(src, maxWidthDots, h, true);
+      }
+      final Bitmap bmp = scaled;
+      final int w = bmp.getWidth();
+      final int[] argb = new int[w];
+      LumaSource luma = (y, out) -> {
+        bmp.getPixels(argb, 0, w, 0, y, w, 1);
+        for (int x = 0; x < w; x++) {
+          int c = argb[x];
+          int a = Color.alpha(c);
+          int l = (Color.red(c) * 299 + Color.green(c) * 587 + Color.blue(c) * 114) / 1000;
+          // Transparent areas print as paper
+          out[x] = 255 - ((255 - l) * a) / 255;
+        }
+      };
+      byte[] bits = toBits(luma, w, bmp.getHeight(), dither);
+      return pack(bits, w, bmp.getHeight(), mode);
+    } finally {
+      if (scaled != src) scaled.recycle();
+      src.recycle();
+    }
+  }
+
+  // Packs pixels MSB-first, 1 = black. Floyd-Steinberg keeps just two error rows.
+  static byte[] toBits(LumaSource src, int w, int h, boolean dither) {
+    int bpr = (w + 7) / 8;
+    byte[] bits = new byte[bpr * h];
+    int[] row = new int[w];
+    int[] err = new int[w + 2];
+    int[] next = new int[w + 2];
+    for (int y = 0; y < h; y++) {
+      src.row(y, row);
+      int base = y * bpr;
+      for (int x = 0; x < w; x++) {
+        int v = row[x];
+        if (dither) v = Math.max(0, Math.min(255, v + err[x + 1] / 16));
+        boolean black = v < THRESHOLD;
+        if (black) bits[base + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+        if (dither) {
+          int e = v - (black ? 0 : 255);
+          err[x + 2] += e * 7;
+          next[x] += e * 3;
+          next[x + 1] += e * 5;
+          next[x + 2] += e;
+        }
+      }
+      if (dither) {
+        int[] t = err;
+        err = next;
+        next = t;
+        java.util.Arrays.fill(next, 0);
+      }
+    }
+    return bits;
+  }
+
+  static byte[] pack(byte[] bits, int w, int h, Mode mode) {
+    return mode == Mode.COLUMN ? packColumns(bits, w, h) : packRaster(bits, w, h);
+  }
+
+  private static byte[] packRaster(byte[] bits, int w, int h) {
+    int bpr = (w + 7) / 8;
+    ByteArrayOutputStream out = new ByteArrayOutputStream(bits.length + (h / BAND_ROWS + 1) * 8);
+    for (int y0 = 0; y0 < h; y0 += BAND_ROWS) {
+      int rows = Math.min(BAND_ROWS, h - y0);
+      out.write(GS);
+      out.write('v');
+      out.write('0');
+      out.write(0);
+      out.write(bpr & 0xff);
+      out.write((bpr >> 8) & 0xff);
+      out.write(rows & 0xff);
+      out.write((rows >> 8) & 0xff);
+      out.write(bits, y0 * bpr, rows * bpr);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] packColumns(byte[] bits, int w, int h) {
+    int bpr = (w + 7) / 8;
+    ByteArrayOutputStream out = new ByteArrayOutputStream(w * ((h + 23) / 24) * 3 + 64);
+    out.write(ESC);
+    out.write('3');
+    out.write(24); // line spacing = stripe height
+    for (int y0 = 0; y0 < h; y0 += 24) {
+      out.write(ESC);
+      out.write('*');
+      out.write(33); // 24-dot double density
+      out.write(w & 0xff);
+      out.write((w >> 8) & 0xff);
+      for (int x = 0; x < w; x++) {
+        int mask = 0x80 >> (x & 7);
+        for (int k = 0; k < 3; k++) {
+          int b = 0;
+          for (int bit = 0; bit < 8; bit++) {
+            int y = y0 + k * 8 + bit;
+            if (y < h && (bits[y * bpr + (x >> 3)] & mask) != 0) b |= 0x80 >> bit;
+          }
+          out.write(b);
+        }
+      }
+      out.write(0x0a);
+    }
+    out.write(ESC);
+    out.write('2'); // default line spacing
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,279 @@
+package com.cafeqr.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Picks USB or Bluetooth for jobs that do not name their printer. The route
+// that last printed is tried first; if it has not connected within the latency
+// budget the other route starts connecting too (a hedge) and whichever
+// connects first gets the job. Only connecting is hedged: the bytes are
+// written over exactly one route, and a failed write moves to the other route
+// only if none of it was sent. Addressed jobs take their single route.
+class RouteSelector {
+
+  private static final String TAG = "RouteSelector";
+  private static final String PREFS = "printer_routes";
+  static final long DEFAULT_BUDGET_MS = 600;
+  private static final long CONNECT_TIMEOUT_MS = 15_000;
+  private static final int MAX_DECISIONS = 50;
+
+  private static RouteSelector instance;
+
+  static synchronized RouteSelector get(Context ctx) {
+    if (instance == null) instance = new RouteSelector(ctx.getApplicationContext());
+    return instance;
+  }
+
+  // One transport for one job
+  abstract static class Route {
+    final String name;
+    volatile long connectMs = -1;
+    volatile String error; // why connect() last failed, for the job's error
+    volatile long written; // bytes write() got onto this route, through counting()
+
+    Route(String name) {
+      this.name = name;
+    }
+
+    // Gets ready to write (session, socket); false when this route is unavailable
+    abstract boolean connect() throws Exception;
+
+    // Sends the job over the connected route
+    abstract boolean write() throws Exception;
+
+    // t with its writes counted into written
+    final PrinterTransport counting(PrinterTransport t) {
+      return new PrinterTransport() {
+        @Override public String name() { return t.name(); }
+
+        @Override public boolean execute(Work work) throws IOException {
+          return t.execute((out, in) -> {
+            CountingOutputStream counted = new CountingOutputStream(out);
+            try {
+              work.run(counted, in);
+            } finally {
+              written += counted.written();
+            }
+          });
+        }
+      };
+    }
+
+    final boolean timedConnect() throws Exception {
+      long t0 = System.currentTimeMillis();
+      try {
+        return connect();
+      } catch (Exception e) {
+        error = e.getMessage();
+        throw e;
+      } finally {
+        connectMs = System.currentTimeMillis() - t0;
+      }
+    }
+  }
+
+  private final SharedPreferences prefs;
+  private final Map<String, String> lastGood = new ConcurrentHashMap<>();
+  private final ArrayDeque<JSObject> decisions = new ArrayDeque<>();
+  private final ExecutorService connector = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "print-connect");
+    t.setDaemon(true);
+    return t;
+  });
+  private volatile long budgetMs = DEFAULT_BUDGET_MS;
+
+  private RouteSelector(Context ctx) {
+    prefs = ctx.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    for (Map.Entry<String, ?> e : prefs.getAll().entrySet()) {
+      if (e.getValue() instanceof String) lastGood.put(e.getKey(), (String) e.getValue());
+    }
+  }
+
+  void setBudgetMs(long ms) {
+    if (ms >= 0) budgetMs = ms;
+  }
+
+  // Runs the job over the preferred route, hedging to the other one when slow.
+  // a is the default first choice when nothing has printed on this printer yet.
+  String print(PrintJob job, Route a, Route b) throws Exception {
+    String key = job.printerKey;
+    Route first = b.name.equals(lastGood.get(key)) ? b : a;
+    Route second = first == a ? b : a;
+    long t0 = System.currentTimeMillis();
+    JSObject d = new JSObject();
+    d.put("jobId", job.id);
+    d.put("printer", key);
+    d.put("preferred", first.name);
+    d.put("at", t0);
+
+    Future<Boolean> f1 = connector.submit(first::timedConnect);
+    Boolean ok1 = await(f1, budgetMs);
+    Route winner;
+    if (Boolean.TRUE.equals(ok1)) {
+      winner = first;
+    } else {
+      Future<Boolean> f2 = connector.submit(second::timedConnect);
+      if (ok1 == null) {
+        d.put("hedged", true);
+        job.hedged = true;
+        winner = race(f1, first, f2, second);
+      } else {
+        winner = Boolean.TRUE.equals(await(f2, CONNECT_TIMEOUT_MS)) ? second : null;
+      }
+    }
+    long selected = System.currentTimeMillis() - t0;
+    d.put("connectMs", selected);
+    if (winner != null) {
+      // route = time spent choosing (failed or losing attempts), connect = the winner's own
+      job.connectMs = Math.max(0, winner.connectMs);
+      job.routeMs = Math.max(0, selected - job.connectMs);
+    } else {
+      job.routeMs = selected;
+    }
+
+    try {
+      if (winner != null && winner.write()) return succeeded(key, winner, d);
+      // Connected but the write failed before sending anything: give the other
+      // route one sequential try. Once bytes went out part of the ticket may
+      // be on paper, and the other route is another printer.
+      Route other = winner == first ? second : first;
+      if (winner != null && winner.written > 0) {
+        String msg = "Print over " + winner.name + " broke mid-job";
+        d.put("error", msg);
+        throw new Exception(msg);
+      }
+      if (winner != null && other.timedConnect() && other.write()) {
+        d.put("fallback", true);
+        job.fallback = true;
+        job.connectMs = other.connectMs;
+        return succeeded(key, other, d);
+      }
+      String why = a.error != null ? a.error : b.error;
+      String msg = why != null ? "No USB/Bluetooth path: " + why : "No USB/Bluetooth path";
+      d.put("error", msg);
+      throw new Exception(msg);
+    } finally {
+      d.put("totalMs", System.currentTimeMillis() - t0);
+      log(d);
+    }
+  }
+
+  // A job addressed to one printer has a single route: no hedge, no fallback
+  // and nothing to remember for its key
+  String print(PrintJob job, Route only) throws Exception {
+    String key = job.printerKey;
+    if (lastGood.remove(key) != null) prefs.edit().remove(key).apply();
+    long t0 = System.currentTimeMillis();
+    JSObject d = new JSObject();
+    d.put("jobId", job.id);
+    d.put("printer", key);
+    d.put("preferred", only.name);
+    d.put("at", t0);
+    try {
+      boolean connected = Boolean.TRUE.equals(await(connector.submit(only::timedConnect), CONNECT_TIMEOUT_MS));
+      d.put("connectMs", System.currentTimeMillis() - t0);
+      job.connectMs = Math.max(0, only.connectMs);
+      job.routeMs = 0;
+      if (connected && only.write()) {
+        d.put("route", only.name);
+        return only.name;
+      }
+      String msg = only.error != null ? "Cannot reach " + key + ": " + only.error : "Cannot print on " + key;
+      d.put("error", msg);
+      throw new Exception(msg);
+    } finally {
+      d.put("totalMs", System.currentTimeMillis() - t0);
+      log(d);
+    }
+  }
+
+  private String succeeded(String key, Route r, JSObject d) {
+    d.put("route", r.name);
+    if (!r.name.equals(lastGood.put(key, r.name))) {
+      prefs.edit().putString(key, r.name).apply();
+      Log.i(TAG, key + " now prefers " + r.name);
+    }
+    return r.name;
+  }
+
+  // TRUE/FALSE when the connect attempt finished in time, null on timeout
+  private static Boolean await(Future<Boolean> f, long ms) {
+    try {
+      return f.get(ms, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      Log.w(TAG, "Connect failed: " + e.getCause());
+      return false;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  // First route to connect wins; the loser is left to finish (and stay warm)
+  private static Route race(Future<Boolean> f1, Route r1, Future<Boolean> f2, Route r2) {
+    long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+    while (System.currentTimeMillis() < deadline) {
+      if (f1.isDone() && Boolean.TRUE.equals(await(f1, 0))) return r1;
+      if (f2.isDone() && Boolean.TRUE.equals(await(f2, 0))) return r2;
+      if (f1.isDone() && f2.isDone()) return null;
+      try {
+        PacedWriter.pause(10);
+      } catch (InterruptedIOException e) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  private void log(JSObject d) {
+    synchronized (decisions) {
+      if (decisions.size() >= MAX_DECISIONS) decisions.removeFirst();
+      decisions.addLast(d);
+    }
+  }
+
+  // Routing state for debugging: budget, remembered routes and recent decisions
+  JSObject toJson() {
+    JSObject routes = new JSObject();
+    for (Map.Entry<String, String> e : lastGood.entrySet()) routes.put(e.getKey(), e.getValue());
+    JSArray recent = new JSArray();
+    synchronized (decisions) {
+      for (JSObject d : decisions) recent.put(d);
+    }
+    JSObject out = new JSObject();
+    out.put("budgetMs", budgetMs);
+    out.put("lastGood", routes);
+    out.put("recent", recent);
+    return out;
+  }
+
+  void forget(String key) {
+    if (key == null) {
+      lastGood.clear();
+      prefs.edit().clear().apply();
+    } else {
+      lastGood.remove(key);
+      prefs.edit().remove(key).apply();
+    }
+  }
+}
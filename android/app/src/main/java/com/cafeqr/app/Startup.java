@@ -0,0 +1,147 @@
+package com.cafeqr.app;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Cold start pipeline. Only what the first frame needs runs on the main
+// thread; everything else is handed to defer() and runs on one low-priority
+// background thread, in order. Each step is a systrace section (visible in
+// Perfetto) and is also recorded with its duration, together with time to
+// first frame and time to "ready" (the web app says it has rendered), for
+// getStartupTrace.
+final class Startup {
+
+  private static final String TAG = "Startup";
+  private static final int MAX_SECTIONS = 64;
+
+  // Uptime at process start; Process.getStartUptimeMillis() needs API 24
+  private static final long processStart = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+    ? Process.getStartUptimeMillis() : SystemClock.uptimeMillis();
+
+  private static final List<JSObject> sections = new ArrayList<>();
+  private static final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(() -> {
+      Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+      r.run();
+    }, "startup");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private static String trigger;        // component that started the process
+  private static long firstFrameMs = -1;
+  private static long readyMs = -1;
+
+  private Startup() {}
+
+  // First component to run wins: "activity", "boot", "fcm", "service"
+  static synchronized void launchedBy(String component) {
+    if (trigger == null) trigger = component;
+  }
+
+  // Times a step on the calling thread: t0 = begin(name); ...; end(name, t0)
+  static long begin(String name) {
+    Trace.beginSection(name);
+    return SystemClock.uptimeMillis();
+  }
+
+  static void end(String name, long t0) {
+    Trace.endSection();
+    record(name, t0, false);
+  }
+
+  // Queues a non-critical step on the background startup thread
+  static void defer(String name, Runnable step) {
+    background.execute(() -> {
+      long t0 = SystemClock.uptimeMillis();
+      Trace.beginSection(name);
+      try {
+        step.run();
+      } catch (RuntimeException e) {
+        Log.e(TAG, "Deferred step " + name + " failed", e);
+      } finally {
+        Trace.endSection();
+        record(name, t0, true);
+      }
+    });
+  }
+
+  private static synchronized void record(String name, long t0, boolean deferred) {
+    if (sections.size() >= MAX_SECTIONS) return;
+    JSObject s = new JSObject();
+    s.put("name", name);
+    s.put("startMs", t0 - processStart);
+    s.put("durationMs", SystemClock.uptimeMillis() - t0);
+    s.put("deferred", deferred);
+    sections.add(s);
+  }
+
+  // Records time to first frame once the activity's window draws
+  static void watchFirstFrame(Activity activity) {
+    if (firstFrameMs >= 0) return;
+    View decor = activity.getWindow().getDecorView();
+    Handler main = new Handler(Looper.getMainLooper());
+    ViewTreeObserver.OnDrawListener listener = new ViewTreeObserver.OnDrawListener() {
+      private boolean seen;
+
+      @Override
+      public void onDraw() {
+        if (seen) return;
+        seen = true;
+        // The frame is submitted after onDraw returns; a posted message lands right after it
+        main.postAtFrontOfQueue(() -> {
+          synchronized (Startup.class) {
+            if (firstFrameMs < 0) firstFrameMs = SystemClock.uptimeMillis() - processStart;
+          }
+          Log.i(TAG, "First frame at " + firstFrameMs + " ms");
+          decor.getViewTreeObserver().removeOnDrawListener(this);
+        });
+      }
+    };
+    decor.getViewTreeObserver().addOnDrawListener(listener);
+  }
+
+  // The web app has rendered its first useful screen
+  static synchronized long markReady(Activity activity) {
+    if (readyMs < 0) {
+      readyMs = SystemClock.uptimeMillis() - processStart;
+      Log.i(TAG, "Ready at " + readyMs + " ms");
+      if (activity != null) {
+        try {
+          activity.reportFullyDrawn();
+        } catch (SecurityException ignored) {
+          // Some OEM builds require UPDATE_DEVICE_STATS before API 29
+        }
+      }
+    }
+    return readyMs;
+  }
+
+  static synchronized JSObject toJson() {
+    JSObject o = new JSObject();
+    o.put("launchedBy", trigger);
+    o.put("uptimeMs", SystemClock.uptimeMillis() - processStart);
+    o.put("timeToFirstFrameMs", firstFrameMs);
+    o.put("timeToReadyMs", readyMs);
+    JSArray list = new JSArray();
+    for (JSObject s : sections) list.put(s);
+    o.put("sections", list);
+    return o;
+  }
+}
@@ -0,0 +1,178 @@
+package com.cafeqr.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Kitchen/bar/billing stations and which item categories each one prints.
+// An order (EscPosComposer ticket whose lines carry a "category") is split
+// into one ticket per station; stations marked "all" get every line (billing).
+// The table lives in SharedPreferences so background printing can use it too.
+//
+// {
+//   stations: { grill: { address?, nameContains?, title?, copies?, all? } },
+//   categories: { "burgers": "grill", "drinks": "bar" },
+//   defaultStation: "grill"   // lines with no/unknown category; null drops them
+// }
+class StationRouter {
+
+  private static final String PREFS = "print_stations";
+
+  private static StationRouter instance;
+
+  static synchronized StationRouter get(Context ctx) {
+    if (instance == null) instance = new StationRouter(ctx.getApplicationContext());
+    return instance;
+  }
+
+  static final class Station {
+    final String id;
+    final String address;
+    final String nameContains;
+    final String title;
+    final int copies;
+    final boolean all;
+
+    Station(String id, JSONObject o) {
+      this.id = id;
+      this.address = o.has("address") && !o.isNull("address") ? o.optString("address") : null;
+      this.nameContains = o.has("nameContains") && !o.isNull("nameContains") ? o.optString("nameContains") : null;
+      this.title = o.has("title") && !o.isNull("title") ? o.optString("title") : null;
+      this.copies = Math.max(1, Math.min(5, o.optInt("copies", 1)));
+      this.all = o.optBoolean("all", false);
+    }
+  }
+
+  // One station's share of an order
+  static final class Ticket {
+    final Station station;
+    final JSONObject ticket;
+    final int items;
+
+    Ticket(Station station, JSONObject ticket, int items) {
+      this.station = station;
+      this.ticket = ticket;
+      this.items = items;
+    }
+  }
+
+  static final class Plan {
+    final List<Ticket> tickets = new ArrayList<>();
+    final JSONArray unrouted = new JSONArray(); // line names no station took
+  }
+
+  private final SharedPreferences prefs;
+  private final Map<String, Station> stations = new LinkedHashMap<>();
+  private final Map<String, String> categories = new LinkedHashMap<>();
+  private String defaultStation;
+
+  private StationRouter(Context ctx) {
+    this.prefs = ctx.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    try {
+      apply(new JSONObject(prefs.getString("table", "{}")));
+    } catch (Exception ignored) {
+      // Unreadable table: start empty, the web app will push it again
+    }
+  }
+
+  // Replaces the whole table and persists it
+  synchronized void configure(JSONObject table) throws Exception {
+    JSONObject st = table.optJSONObject("stations");
+    if (st == null || st.length() == 0) throw new Exception("stations required");
+    String def = table.has("defaultStation") && !table.isNull("defaultStation") ? table.optString("defaultStation") : null;
+    if (def != null && !st.has(def)) throw new Exception("defaultStation " + def + " is not a station");
+    JSONObject cats = table.optJSONObject("categories");
+    if (cats != null) {
+      for (Iterator<String> it = cats.keys(); it.hasNext(); ) {
+        String c = it.next();
+        if (!st.has(cats.optString(c))) throw new Exception("category " + c + " maps to unknown station " + cats.optString(c));
+      }
+    }
+    apply(table);
+    prefs.edit().putString("table", table.toString()).apply();
+  }
+
+  private void apply(JSONObject table) {
+    stations.clear();
+    categories.clear();
+    JSONObject st = table.optJSONObject("stations");
+    if (st != null) {
+      for (Iterator<String> it = st.keys(); it.hasNext(); ) {
+        String id = it.next();
+        JSONObject o = st.optJSONObject(id);
+        stations.put(id, new Station(id, o != null ? o : new JSONObject()));
+      }
+    }
+    JSONObject cats = table.optJSONObject("categories");
+    if (cats != null) {
+      for (Iterator<String> it = cats.keys(); it.hasNext(); ) {
+        String c = it.next();
+        categories.put(c.toLowerCase(), cats.optString(c));
+      }
+    }
+    defaultStation = table.has("defaultStation") && !table.isNull("defaultStation") ? table.optString("defaultStation") : null;
+  }
+
+  synchronized boolean isConfigured() {
+    return !stations.isEmpty();
+  }
+
+  // Splits order into per-station tickets, in station table order. Stations
+  // with no lines are skipped.
+  synchronized Plan split(JSONObject order) throws Exception {
+    JSONArray lines = order.optJSONArray("lines");
+    Map<String, JSONArray> byStation = new LinkedHashMap<>();
+    for (String id : stations.keySet()) byStation.put(id, new JSONArray());
+
+    Plan plan = new Plan();
+    if (lines != null) {
+      for (int i = 0; i < lines.length(); i++) {
+        JSONObject line = lines.optJSONObject(i);
+        if (line == null) continue;
+        String target = categories.get(line.optString("category", "").toLowerCase());
+        if (target == null) target = defaultStation;
+        boolean taken = false;
+        for (Station s : stations.values()) {
+          if (s.all || s.id.equals(target)) {
+            byStation.get(s.id).put(line);
+            taken = true;
+          }
+        }
+        if (!taken) plan.unrouted.put(line.optString("name", "Item"));
+      }
+    }
+
+    for (Station s : stations.values()) {
+      JSONArray mine = byStation.get(s.id);
+      if (mine.length() == 0) continue;
+      JSONObject t = new JSONObject(order.toString());
+      t.put("lines", mine);
+      if (s.title != null) t.put("title", s.title);
+      // Totals only make sense on a ticket that carries the whole order
+      if (!s.all) t.remove("totals");
+      plan.tickets.add(new Ticket(s, t, mine.length()));
+    }
+    return plan;
+  }
+
+  synchronized JSObject toJson() {
+    JSObject o = new JSObject();
+    try {
+      JSONObject table = new JSONObject(prefs.getString("table", "{}"));
+      o.put("stations", table.optJSONObject("stations") != null ? table.optJSONObject("stations") : new JSONObject());
+      o.put("categories", table.optJSONObject("categories") != null ? table.optJSONObject("categories") : new JSONObject());
+    } catch (Exception ignored) {}
+    o.put("defaultStation", defaultStation);
+    return o;
+  }
+}
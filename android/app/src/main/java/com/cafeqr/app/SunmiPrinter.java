@@ -0,0 +1,249 @@
+package com.cafeqr.app;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import woyou.aidlservice.jiuiv5.ICallback;
+import woyou.aidlservice.jiuiv5.IWoyouService;
+
+// Built-in printer of Sunmi terminals through the vendor's AIDL service. The
+// service is bound once (plugin load) and kept bound; if it dies it is bound
+// again. Each ticket is one buffered transaction - enterPrinterBuffer, the
+// ticket's commands, exitPrinterBufferWithCallback - so a ticket costs a few
+// binder calls however many lines it has, and the printer reports the outcome
+// through ICallback.onPrintResult. Transactions run one at a time because the
+// service has a single buffer.
+class SunmiPrinter {
+
+  private static final String TAG = "SunmiPrinter";
+  static final String SERVICE_PACKAGE = "woyou.aidlservice.jiuiv5";
+  static final String SERVICE_ACTION = "woyou.aidlservice.jiuiv5.IWoyouService";
+  private static final long BIND_WAIT_MS = 3_000;
+  private static final long PRINT_TIMEOUT_MS = 30_000;
+  private static final long REBIND_DELAY_MS = 2_000;
+  private static final int RAW_CHUNK = 64 * 1024; // stay far below the binder transaction limit
+
+  // Commands of one transaction, issued between enter and exit of the buffer
+  interface Commands {
+    void send(IWoyouService s) throws RemoteException;
+  }
+
+  interface Callback {
+    void onResult(boolean ok, int code, String message);
+  }
+
+  private static SunmiPrinter instance;
+
+  static synchronized SunmiPrinter get(Context ctx) {
+    if (instance == null) {
+      Context app = ctx.getApplicationContext();
+      instance = new SunmiPrinter(app, serviceIntent(app));
+    }
+    return instance;
+  }
+
+  // The vendor service when installed, else null
+  static Intent serviceIntent(Context ctx) {
+    Intent vendor = new Intent(SERVICE_ACTION).setPackage(SERVICE_PACKAGE);
+    if (ctx.getPackageManager().resolveService(vendor, 0) != null) return vendor;
+    return null;
+  }
+
+  private final Context ctx;
+  private final Intent bindIntent;
+  private final Handler main = new Handler(Looper.getMainLooper());
+  private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "sunmi-print");
+    t.setDaemon(true);
+    return t;
+  });
+  private volatile IWoyouService service;
+  private boolean bound;
+  private long transactions;
+  private long failures;
+  private String lastError;
+
+  private final IBinder.DeathRecipient death = new IBinder.DeathRecipient() {
+    @Override
+    public void binderDied() {
+      Log.w(TAG, "Printer service died, rebinding");
+      service = null;
+      main.postDelayed(SunmiPrinter.this::rebind, REBIND_DELAY_MS);
+    }
+  };
+
+  private final ServiceConnection connection = new ServiceConnection() {
+    @Override
+    public void onServiceConnected(ComponentName name, IBinder binder) {
+      attach(binder);
+    }
+
+    @Override
+    public void onServiceDisconnected(ComponentName name) {
+      service = null; // the system reconnects on its own
+    }
+
+    @Override
+    public void onBindingDied(ComponentName name) {
+      service = null;
+      rebind();
+    }
+  };
+
+  // bindIntent null means no printer service on this device. Tests pass the
+  // intent of a stand-in service implementing IWoyouService.
+  SunmiPrinter(Context ctx, Intent bindIntent) {
+    this.ctx = ctx;
+    this.bindIntent = bindIntent;
+  }
+
+  boolean isAvailable() {
+    return bindIntent != null;
+  }
+
+  // Idempotent; call once at startup so the first ticket doesn't pay for binding
+  synchronized void bind() {
+    if (bound || bindIntent == null) return;
+    try {
+      bound = ctx.bindService(bindIntent, connection, Context.BIND_AUTO_CREATE);
+    } catch (SecurityException e) {
+      Log.w(TAG, "Cannot bind printer service: " + e.getMessage());
+    }
+    if (!bound) Log.w(TAG, "Printer service not bindable");
+  }
+
+  private synchronized void rebind() {
+    if (bound) {
+      try { ctx.unbindService(connection); } catch (Exception ignored) {}
+      bound = false;
+    }
+    bind();
+  }
+
+  // Also the entry point for an in-process stand-in (no ServiceConnection needed)
+  void attach(IBinder binder) {
+    try {
+      binder.linkToDeath(death, 0);
+    } catch (RemoteException e) {
+      Log.w(TAG, "Printer service already dead");
+      return;
+    }
+    synchronized (this) {
+      service = IWoyouService.Stub.asInterface(binder);
+      notifyAll();
+    }
+    Log.i(TAG, "Printer service connected");
+  }
+
+  private synchronized IWoyouService awaitService() {
+    bind();
+    long deadline = System.currentTimeMillis() + BIND_WAIT_MS;
+    long left;
+    while (service == null && (left = deadline - System.currentTimeMillis()) > 0) {
+      try {
+        wait(left);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    return service;
+  }
+
+  // Raw ESC/POS bytes as one transaction
+  void printRaw(byte[] data, Callback cb) {
+    transact(s -> {
+      for (int off = 0; off < data.length; off += RAW_CHUNK) {
+        int len = Math.min(RAW_CHUNK, data.length - off);
+        byte[] part = len == data.length ? data : Arrays.copyOfRange(data, off, off + len);
+        s.sendRAWData(part, null);
+      }
+    }, cb);
+  }
+
+  // Queues a transaction; cb runs on the print thread with the printer's verdict
+  void transact(Commands commands, Callback cb) {
+    worker.execute(() -> {
+      IWoyouService s = awaitService();
+      if (s == null) {
+        finish(cb, false, -1, "Sunmi printer service not available");
+        return;
+      }
+      final int[] code = { -1 };
+      final String[] msg = { null };
+      CountDownLatch done = new CountDownLatch(1);
+      ICallback result = new ICallback.Stub() {
+        @Override public void onRunResult(boolean isSuccess) {}
+        @Override public void onReturnString(String r) {}
+
+        @Override
+        public void onRaiseException(int c, String m) {
+          code[0] = c == 0 ? -1 : c;
+          msg[0] = m;
+          done.countDown();
+        }
+
+        @Override
+        public void onPrintResult(int c, String m) {
+          code[0] = c;
+          msg[0] = m;
+          done.countDown();
+        }
+      };
+      try {
+        s.enterPrinterBuffer(true);
+        commands.send(s);
+        s.exitPrinterBufferWithCallback(true, result);
+        if (!done.await(PRINT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+          finish(cb, false, -1, "Sunmi printer did not answer");
+          return;
+        }
+        finish(cb, code[0] == 0, code[0], msg[0]);
+      } catch (RemoteException e) {
+        service = null;
+        finish(cb, false, -1, "Sunmi printer service died: " + e.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        finish(cb, false, -1, "Interrupted");
+      }
+    });
+  }
+
+  private void finish(Callback cb, boolean ok, int code, String message) {
+    synchronized (this) {
+      transactions++;
+      if (!ok) {
+        failures++;
+        lastError = message;
+      }
+    }
+    if (!ok) Log.w(TAG, "Transaction failed (" + code + "): " + message);
+    if (cb != null) cb.onResult(ok, code, message);
+  }
+
+  synchronized JSObject toJson() {
+    JSObject o = new JSObject();
+    o.put("available", isAvailable());
+    o.put("connected", service != null);
+    o.put("service", bindIntent != null ? bindIntent.getPackage() : null);
+    o.put("transactions", transactions);
+    o.put("failures", failures);
+    if (lastError != null) o.put("lastError", lastError);
+    return o;
+  }
+}
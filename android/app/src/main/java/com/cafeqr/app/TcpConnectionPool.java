@@ -0,0 +1,502 @@
+package com.cafeqr.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Persistent raw TCP connections (port 9100, "JetDirect") to network ESC/POS
+// printers, every printer multiplexed on one selector thread.
+//
+// A job writes into a per-connection queue and returns to producing bytes
+// while the selector drains the queue into the socket, so writes are pipelined
+// and TCP flow control does the pacing; a writer only blocks when HIGH_WATER
+// bytes are queued. Connections stay open between jobs (no handshake per
+// ticket) and are closed after idleMs, since many printers accept a single
+// client on 9100 and other tills need a turn. Connect and write stalls are
+// bounded by connectTimeoutMs and writeTimeoutMs. Plain java.nio only, so the
+// printer-bench module runs it against a loopback stand-in printer.
+final class TcpConnectionPool {
+
+  static final int DEFAULT_PORT = 9100;
+  static final int DEFAULT_CONNECT_TIMEOUT_MS = 3_000;
+  static final int DEFAULT_WRITE_TIMEOUT_MS = 10_000;
+  static final long DEFAULT_IDLE_MS = 30_000;
+  private static final int HIGH_WATER = 64 * 1024; // queued bytes before a writer waits
+  private static final int STATUS_BUFFER = 64;     // back-channel is a few status bytes
+  private static final long TICK_MS = 200;         // timeout checks
+
+  private static TcpConnectionPool instance;
+
+  static synchronized TcpConnectionPool shared() {
+    if (instance == null) instance = new TcpConnectionPool();
+    return instance;
+  }
+
+  // One printer endpoint. Guarded by its own monitor; the selector thread and
+  // the job's thread meet here.
+  private static final class Conn {
+    final String key;
+    final String host;
+    final int port;
+    final ReentrantLock lock = new ReentrantLock(); // one job at a time
+    SocketChannel channel;
+    boolean connected;
+    IOException failure;     // why the current channel died
+    long connectDeadline;
+    final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+    int queued;
+    long lastProgress;       // last time queued bytes moved into the socket
+    long lastUsed;
+    final byte[] in = new byte[STATUS_BUFFER];
+    int inHead;
+    int inCount;
+    long jobs;
+    long reconnects;
+
+    Conn(String key, String host, int port) {
+      this.key = key;
+      this.host = host;
+      this.port = port;
+    }
+
+    boolean isOpen() {
+      return channel != null && channel.isOpen() && failure == null;
+    }
+  }
+
+  private final Map<String, Conn> conns = new LinkedHashMap<>();
+  private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(STATUS_BUFFER); // selector thread only
+  private Selector selector;
+  private Thread loop;
+  private volatile int connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+  private volatile int writeTimeoutMs = DEFAULT_WRITE_TIMEOUT_MS;
+  private volatile long idleMs = DEFAULT_IDLE_MS;
+
+  TcpConnectionPool() {}
+
+  void setTimeouts(Integer connectMs, Integer writeMs, Long idle) {
+    if (connectMs != null && connectMs > 0) connectTimeoutMs = connectMs;
+    if (writeMs != null && writeMs > 0) writeTimeoutMs = writeMs;
+    if (idle != null && idle >= 0) idleMs = idle;
+  }
+
+  int getConnectTimeoutMs() { return connectTimeoutMs; }
+
+  int getWriteTimeoutMs() { return writeTimeoutMs; }
+
+  long getIdleMs() { return idleMs; }
+
+  private synchronized Conn connFor(String host, int port) {
+    String key = host.toLowerCase() + ":" + port;
+    Conn c = conns.get(key);
+    if (c == null) {
+      c = new Conn(key, host, port);
+      conns.put(key, c);
+    }
+    return c;
+  }
+
+  // Starts the selector thread on first use
+  private synchronized Selector selector() throws IOException {
+    if (selector == null || !selector.isOpen()) {
+      selector = Selector.open();
+      final Selector s = selector;
+      loop = new Thread(() -> run(s), "print-net");
+      loop.setDaemon(true);
+      loop.start();
+    }
+    return selector;
+  }
+
+  private void post(Runnable task) throws IOException {
+    Selector s = selector();
+    tasks.add(task);
+    s.wakeup();
+  }
+
+  // Runs work on the printer's connection, connecting first if there is none.
+  // Returns true when the kept-alive connection had gone stale (printer
+  // rebooted, dropped us while idle) and the work was rerun on a fresh one.
+  boolean execute(String host, int port, PrinterTransport.Work work) throws IOException {
+    Conn c = connFor(host, port);
+    c.lock.lock();
+    try {
+      boolean fresh = ensureOpen(c);
+      try {
+        runWork(c, work);
+        return false;
+      } catch (InterruptedIOException e) {
+        // Timed out: the printer is there but not taking data, a new socket won't help
+        closeQuietly(c, e);
+        throw e;
+      } catch (IOException e) {
+        // Never leave half a job queued for the next one
+        closeQuietly(c, e);
+        if (fresh) throw e;
+        synchronized (c) {
+          c.reconnects++;
+        }
+        ensureOpen(c);
+        runWork(c, work);
+        return true;
+      }
+    } finally {
+      synchronized (c) {
+        c.lastUsed = System.currentTimeMillis();
+        c.jobs++;
+      }
+      c.lock.unlock();
+    }
+  }
+
+  // Waits until every byte of the job has been handed to the socket
+  private void runWork(Conn c, PrinterTransport.Work work) throws IOException {
+    Out out = new Out(c);
+    work.run(out, new In(c));
+    out.flush();
+  }
+
+  // True when a new connection had to be made
+  private boolean ensureOpen(Conn c) throws IOException {
+    synchronized (c) {
+      if (c.isOpen() && c.connected) return false;
+    }
+    closeQuietly(c, null);
+    SocketChannel ch = SocketChannel.open();
+    boolean done;
+    try {
+      ch.configureBlocking(false);
+      // socket() setters: SocketChannel.setOption needs API 24
+      ch.socket().setTcpNoDelay(true);
+      ch.socket().setKeepAlive(true);
+      // Resolved on every connect so a printer that changed its DHCP lease is found
+      done = ch.connect(new InetSocketAddress(c.host, c.port));
+    } catch (IOException | RuntimeException e) {
+      try { ch.close(); } catch (IOException ignored) {}
+      throw e instanceof IOException ? (IOException) e : new IOException("Cannot connect to " + c.key + ": " + e.getMessage());
+    }
+    long now = System.currentTimeMillis();
+    synchronized (c) {
+      c.channel = ch;
+      c.failure = null;
+      c.connected = done;
+      c.connectDeadline = now + connectTimeoutMs;
+      c.lastProgress = now;
+      c.lastUsed = now;
+      c.out.clear();
+      c.queued = 0;
+      c.inHead = 0;
+      c.inCount = 0;
+    }
+    post(() -> register(c, ch));
+    synchronized (c) {
+      while (!c.connected && c.failure == null && c.channel == ch) {
+        long left = c.connectDeadline - System.currentTimeMillis() + TICK_MS;
+        if (left <= 0) break;
+        await(c, left);
+      }
+      if (c.failure != null) throw c.failure;
+      if (!c.connected) {
+        IOException e = new SocketTimeoutException("Connect to " + c.key + " timed out");
+        fail(c, ch, e);
+        throw e;
+      }
+    }
+    return true;
+  }
+
+  private static void await(Conn c, long ms) throws IOException {
+    try {
+      c.wait(ms);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted");
+    }
+  }
+
+  void closeAll() {
+    List<Conn> all;
+    synchronized (this) {
+      all = new ArrayList<>(conns.values());
+    }
+    for (Conn c : all) closeQuietly(c, null);
+  }
+
+  private void closeQuietly(Conn c, IOException why) {
+    synchronized (c) {
+      if (c.channel != null) fail(c, c.channel, why != null ? why : new IOException("Connection closed"));
+    }
+  }
+
+  // Kills the given channel if it is still the connection's current one; wakes waiters
+  private static void fail(Conn c, SocketChannel ch, IOException why) {
+    synchronized (c) {
+      if (c.channel != ch) return;
+      if (c.failure == null) c.failure = why;
+      c.connected = false;
+      c.out.clear();
+      c.queued = 0;
+      c.notifyAll();
+    }
+    try { ch.close(); } catch (IOException ignored) {}
+  }
+
+  // "host:port" -> { open, jobs, reconnects } for diagnostics
+  synchronized Map<String, long[]> stats() {
+    Map<String, long[]> out = new LinkedHashMap<>();
+    for (Conn c : conns.values()) {
+      synchronized (c) {
+        out.put(c.key, new long[] { c.isOpen() && c.connected ? 1 : 0, c.jobs, c.reconnects });
+      }
+    }
+    return out;
+  }
+
+  // ---- selector thread ----
+
+  private void run(Selector s) {
+    try {
+      while (s.isOpen()) {
+        s.select(TICK_MS);
+        Runnable t;
+        while ((t = tasks.poll()) != null) {
+          try {
+            t.run();
+          } catch (CancelledKeyException ignored) {
+            // Channel closed by a job thread meanwhile
+          }
+        }
+        Iterator<SelectionKey> it = s.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey k = it.next();
+          it.remove();
+          try {
+            handle(k);
+          } catch (CancelledKeyException ignored) {
+            // Same
+          }
+        }
+        checkTimers(s);
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      // Selector gone: connections fail on their timers, the next job reopens it
+      synchronized (this) {
+        if (selector == s) selector = null;
+      }
+    }
+  }
+
+  private void register(Conn c, SocketChannel ch) {
+    try {
+      synchronized (c) {
+        if (c.channel != ch || !ch.isOpen()) return;
+        int ops = !c.connected ? SelectionKey.OP_CONNECT
+          : c.out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+        ch.register(selector, ops, c);
+      }
+    } catch (IOException e) {
+      fail(c, ch, e);
+    }
+  }
+
+  // Called by writers after queueing bytes
+  private void wantWrite(Conn c, SocketChannel ch) throws IOException {
+    post(() -> {
+      SelectionKey k = ch.keyFor(selector);
+      if (k == null || !k.isValid()) return;
+      try {
+        flushQueue(c, ch, k);
+      } catch (IOException e) {
+        fail(c, ch, e);
+      }
+    });
+  }
+
+  private void handle(SelectionKey k) {
+    Conn c = (Conn) k.attachment();
+    SocketChannel ch = (SocketChannel) k.channel();
+    if (!k.isValid()) return;
+    try {
+      if (k.isConnectable() && ch.finishConnect()) {
+        synchronized (c) {
+          c.connected = true;
+          c.lastProgress = System.currentTimeMillis();
+          c.notifyAll();
+        }
+        k.interestOps(SelectionKey.OP_READ);
+      }
+      if (k.isValid() && k.isReadable()) read(c, ch);
+      if (k.isValid() && k.isWritable()) flushQueue(c, ch, k);
+    } catch (IOException e) {
+      fail(c, ch, e);
+    }
+  }
+
+  // Status replies (DLE EOT) and ASB bytes; a full buffer keeps the newest
+  private void read(Conn c, SocketChannel ch) throws IOException {
+    readBuffer.clear();
+    int n = ch.read(readBuffer);
+    if (n < 0) throw new IOException("Printer " + c.key + " closed the connection");
+    synchronized (c) {
+      for (int i = 0; i < n; i++) {
+        if (c.inCount == c.in.length) {
+          c.inHead = (c.inHead + 1) % c.in.length;
+          c.inCount--;
+        }
+        c.in[(c.inHead + c.inCount) % c.in.length] = readBuffer.get(i);
+        c.inCount++;
+      }
+      c.notifyAll();
+    }
+  }
+
+  private void flushQueue(Conn c, SocketChannel ch, SelectionKey k) throws IOException {
+    synchronized (c) {
+      if (c.channel != ch || !c.connected) return;
+      ByteBuffer b;
+      while ((b = c.out.peek()) != null) {
+        int n = ch.write(b);
+        if (n > 0) {
+          c.queued -= n;
+          c.lastProgress = System.currentTimeMillis();
+        }
+        if (b.hasRemaining()) break; // socket buffer full: wait for OP_WRITE
+        c.out.poll();
+      }
+      k.interestOps(c.out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      c.notifyAll();
+    }
+  }
+
+  private void checkTimers(Selector s) {
+    long now = System.currentTimeMillis();
+    List<Conn> all;
+    synchronized (this) {
+      all = new ArrayList<>(conns.values());
+    }
+    for (Conn c : all) {
+      SocketChannel ch;
+      IOException why = null;
+      synchronized (c) {
+        ch = c.channel;
+        if (ch == null || !ch.isOpen()) continue;
+        if (!c.connected && now > c.connectDeadline) {
+          why = new SocketTimeoutException("Connect to " + c.key + " timed out");
+        } else if (c.queued > 0 && now - c.lastProgress > writeTimeoutMs) {
+          why = new SocketTimeoutException("Printer " + c.key + " stopped taking data");
+        } else if (c.connected && c.queued == 0 && idleMs > 0 && now - c.lastUsed > idleMs && !c.lock.isLocked()) {
+          why = new IOException("Idle");
+        }
+      }
+      if (why != null) fail(c, ch, why);
+    }
+  }
+
+  // ---- job-side streams ----
+
+  private final class Out extends OutputStream {
+    private final Conn c;
+    private final SocketChannel ch;
+
+    Out(Conn c) {
+      this.c = c;
+      synchronized (c) {
+        this.ch = c.channel;
+      }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        int n = Math.min(len, HIGH_WATER);
+        synchronized (c) {
+          // Backpressure: the printer's window is closed, let the queue drain first
+          while (c.queued >= HIGH_WATER && alive()) await(c, TICK_MS);
+          check();
+          ByteBuffer copy = ByteBuffer.allocate(n);
+          copy.put(b, off, n).flip();
+          if (c.queued == 0) c.lastProgress = System.currentTimeMillis();
+          c.out.add(copy);
+          c.queued += n;
+        }
+        wantWrite(c, ch);
+        off += n;
+        len -= n;
+      }
+    }
+
+    // Returns once everything queued is in the socket (not necessarily printed)
+    @Override
+    public void flush() throws IOException {
+      synchronized (c) {
+        while (c.queued > 0 && alive()) await(c, TICK_MS);
+        check();
+      }
+    }
+
+    private boolean alive() {
+      return c.channel == ch && c.failure == null;
+    }
+
+    private void check() throws IOException {
+      if (c.channel != ch) throw new IOException("Connection to " + c.key + " was replaced");
+      if (c.failure != null) throw c.failure;
+    }
+  }
+
+  private final class In extends InputStream {
+    private final Conn c;
+
+    In(Conn c) {
+      this.c = c;
+    }
+
+    @Override
+    public int available() {
+      synchronized (c) {
+        return c.inCount;
+      }
+    }
+
+    // Blocks up to writeTimeoutMs; callers poll available() first
+    @Override
+    public int read() throws IOException {
+      synchronized (c) {
+        long deadline = System.currentTimeMillis() + writeTimeoutMs;
+        while (c.inCount == 0) {
+          if (c.failure != null) throw c.failure;
+          long left = deadline - System.currentTimeMillis();
+          if (left <= 0) throw new SocketTimeoutException("No reply from " + c.key);
+          await(c, left);
+        }
+        int b = c.in[c.inHead] & 0xff;
+        c.inHead = (c.inHead + 1) % c.in.length;
+        c.inCount--;
+        return b;
+      }
+    }
+  }
+}
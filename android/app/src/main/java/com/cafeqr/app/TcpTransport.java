@@ -0,0 +1,59 @@
+package com.cafeqr.app;
+
+import java.io.IOException;
+
+// Raw TCP (port 9100) to a network printer through the shared selector pool.
+// Network printers are addressed as "tcp://host[:port]" wherever a Bluetooth
+// address is accepted.
+final class TcpTransport implements PrinterTransport {
+
+  static final String SCHEME = "tcp://";
+
+  private final TcpConnectionPool pool;
+  final String host;
+  final int port;
+
+  TcpTransport(TcpConnectionPool pool, String host, int port) {
+    this.pool = pool;
+    this.host = host;
+    this.port = port;
+  }
+
+  static boolean isTcp(String address) {
+    return address != null && address.regionMatches(true, 0, SCHEME, 0, SCHEME.length());
+  }
+
+  // "tcp://192.168.1.50", "tcp://kitchen.local:9100", "tcp://[fe80::1]:9100"
+  static TcpTransport parse(TcpConnectionPool pool, String address) throws IOException {
+    if (!isTcp(address)) throw new IOException("Not a tcp:// printer address: " + address);
+    String rest = address.substring(SCHEME.length());
+    int slash = rest.indexOf('/');
+    if (slash >= 0) rest = rest.substring(0, slash);
+    String host = rest;
+    int port = TcpConnectionPool.DEFAULT_PORT;
+    int colon = rest.lastIndexOf(':');
+    int bracket = rest.lastIndexOf(']');
+    // A port follows the last colon, unless the host is a bare IPv6 address
+    if (colon > bracket && (bracket >= 0 || rest.indexOf(':') == colon)) {
+      host = rest.substring(0, colon);
+      try {
+        port = Integer.parseInt(rest.substring(colon + 1));
+      } catch (NumberFormatException e) {
+        throw new IOException("Bad port in " + address);
+      }
+    }
+    if (host.startsWith("[") && host.endsWith("]")) host = host.substring(1, host.length() - 1);
+    if (host.isEmpty() || port <= 0 || port > 65535) throw new IOException("Bad printer address " + address);
+    return new TcpTransport(pool, host, port);
+  }
+
+  @Override
+  public String name() {
+    return "tcp";
+  }
+
+  @Override
+  public boolean execute(Work work) throws IOException {
+    return pool.execute(host, port, work);
+  }
+}
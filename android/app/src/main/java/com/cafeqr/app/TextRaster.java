@@ -0,0 +1,361 @@
+package com.cafeqr.app;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.text.BreakIterator;
+import java.text.Bidi;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Text -> 1-bit ESC/POS raster for scripts the printer's code pages lack
+// (Hindi, Tamil, Arabic...). Each word is drawn once per style into an atlas
+// of packed 1-bit strips; ticket rows are then built by copying strips into
+// place, so a line costs a few bit copies instead of a Canvas bitmap, and
+// only the rows that need it are images. Words rather than single glyphs are
+// the atlas unit because Indic and Arabic shaping joins glyphs within a word.
+// NotoSans (public/fonts, packaged as assets) is the face; glyphs it lacks
+// come from the system's Noto fallback fonts.
+final class TextRaster {
+
+  private static final String TAG = "TextRaster";
+  private static final String[] REGULAR = { "NotoSans-Regular.ttf", "public/fonts/NotoSans-Regular.ttf" };
+  private static final String[] BOLD = { "NotoSans-Bold.ttf", "public/fonts/NotoSans-Bold.ttf" };
+  private static final int DEFAULT_MAX_BYTES = 512 * 1024;
+  private static final int THRESHOLD = 128;
+
+  static final int LEFT = 0;
+  static final int CENTER = 1;
+  static final int RIGHT = 2;
+
+  private static TextRaster instance;
+
+  static synchronized TextRaster get(Context ctx) {
+    if (instance == null) instance = new TextRaster(ctx.getApplicationContext().getAssets());
+    return instance;
+  }
+
+  // The paper a ticket is composed for: dots wide, cols text columns
+  static final class Page {
+    final int dots;
+    final int cols;
+    final boolean tall;       // ticket printed with double-height text
+    final RasterEncoder.Mode mode;
+
+    Page(int dots, int cols, boolean tall, RasterEncoder.Mode mode) {
+      this.dots = dots;
+      this.cols = cols;
+      this.tall = tall;
+      this.mode = mode;
+    }
+
+    int colDots() {
+      return Math.max(1, dots / cols);
+    }
+  }
+
+  // One font size/weight; strips drawn in it are lineHeight rows tall
+  private static final class Style {
+    final String key;
+    final Paint paint;
+    final int lineHeight;
+    final int baseline;
+    final int space;
+
+    Style(String key, Paint paint, int lineHeight, int baseline) {
+      this.key = key;
+      this.paint = paint;
+      this.lineHeight = lineHeight;
+      this.baseline = baseline;
+      this.space = Math.max(1, Math.round(paint.measureText(" ")));
+    }
+  }
+
+  // A word packed MSB-first, 1 = black, lineHeight rows
+  private static final class Strip {
+    final int width;
+    final int bpr;
+    final byte[] bits;
+
+    Strip(int width, int bpr, byte[] bits) {
+      this.width = width;
+      this.bpr = bpr;
+      this.bits = bits;
+    }
+  }
+
+  private final Typeface regular;
+  private final Typeface bold;
+  private final Map<String, Style> styles = new HashMap<>();
+  private final LinkedHashMap<String, Strip> atlas = new LinkedHashMap<>(256, 0.75f, true);
+  private int maxBytes = DEFAULT_MAX_BYTES;
+  private int bytes;
+  private long hits;
+  private long misses;
+  private Bitmap scratch;
+  private Canvas canvas;
+  private int[] pixels = new int[0];
+
+  private TextRaster(AssetManager assets) {
+    Typeface r = load(assets, REGULAR);
+    Typeface b = load(assets, BOLD);
+    regular = r != null ? r : Typeface.DEFAULT;
+    bold = b != null ? b : r != null ? Typeface.create(r, Typeface.BOLD) : Typeface.DEFAULT_BOLD;
+  }
+
+  private static Typeface load(AssetManager assets, String[] paths) {
+    for (String p : paths) {
+      try {
+        return Typeface.createFromAsset(assets, p);
+      } catch (RuntimeException ignored) {
+        // not packaged at this path
+      }
+    }
+    Log.w(TAG, "NotoSans not in assets, using the system font");
+    return null;
+  }
+
+  // True when s has characters no single-byte code page prints as sent
+  static boolean needsRaster(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) > 0xff) return true;
+    }
+    return false;
+  }
+
+  // One ticket row in the composer's column grid, as ESC/POS image bytes:
+  // lead (already-formatted ASCII such as "2 x ") starts row 1, text wraps
+  // within textCols after it, right (may be null) ends row 1 at the margin.
+  synchronized byte[] columns(Page page, String lead, String text, int textCols, String right,
+                              boolean bold, int align) {
+    int col = page.colDots();
+    Style st = style(col * 2, bold, page.tall);
+    int x0 = lead.length() * col;
+    int area = Math.max(col, Math.min(page.dots - x0, textCols * col));
+    byte[] bits = layout(st, lead, text, right, x0, area, page.dots, align);
+    return RasterEncoder.pack(bits, page.dots, bits.length / bpr(page.dots), page.mode);
+  }
+
+  // Free-form lines [{ text, bold?, align?: "left" | "center" | "right", size? }]
+  // as one image dots wide, for the web layer to splice into printRaw bytes
+  synchronized byte[] lines(JSONArray lines, int dots, RasterEncoder.Mode mode) {
+    ByteArrayOutputStream bits = new ByteArrayOutputStream();
+    for (int i = 0; i < lines.length(); i++) {
+      JSONObject l = lines.optJSONObject(i);
+      if (l == null) continue;
+      String a = l.optString("align", "left");
+      int align = "center".equals(a) ? CENTER : "right".equals(a) ? RIGHT : LEFT;
+      int size = Math.max(8, Math.min(96, l.optInt("size", 24)));
+      Style st = style(size, l.optBoolean("bold", false), false);
+      byte[] b = layout(st, "", l.optString("text", ""), null, 0, dots, dots, align);
+      bits.write(b, 0, b.length);
+    }
+    byte[] all = bits.toByteArray();
+    return RasterEncoder.pack(all, dots, all.length / bpr(dots), mode);
+  }
+
+  synchronized void configure(Integer maxBytes) {
+    if (maxBytes != null && maxBytes > 0) this.maxBytes = maxBytes;
+    trim();
+  }
+
+  synchronized JSObject stats() {
+    JSObject o = new JSObject();
+    o.put("words", atlas.size());
+    o.put("bytes", bytes);
+    o.put("maxBytes", maxBytes);
+    o.put("hits", hits);
+    o.put("misses", misses);
+    return o;
+  }
+
+  private static int bpr(int dots) {
+    return (dots + 7) / 8;
+  }
+
+  // Word-wraps text into rows of area dots starting at x0 and copies each
+  // word's strip into place. Right-to-left paragraphs fill rows from the right.
+  private byte[] layout(Style st, String lead, String text, String right, int x0, int area, int dots, int align) {
+    List<List<Strip>> rows = new ArrayList<>();
+    List<Integer> widths = new ArrayList<>();
+    List<Strip> row = new ArrayList<>();
+    int used = 0;
+    for (String word : words(text)) {
+      for (Strip s : pieces(st, word, area)) {
+        int need = row.isEmpty() ? s.width : used + st.space + s.width;
+        if (!row.isEmpty() && need > area) {
+          rows.add(row);
+          widths.add(used);
+          row = new ArrayList<>();
+          need = s.width;
+        }
+        row.add(s);
+        used = need;
+      }
+    }
+    rows.add(row);
+    widths.add(row.isEmpty() ? 0 : used);
+
+    boolean rtl = !text.isEmpty() && !new Bidi(text, Bidi.DIRECTION_DEFAULT_LEFT_TO_RIGHT).baseIsLeftToRight();
+    int bpr = bpr(dots);
+    int h = st.lineHeight;
+    byte[] bits = new byte[bpr * h * rows.size()];
+    for (int r = 0; r < rows.size(); r++) {
+      int y = r * h;
+      int w = widths.get(r);
+      int x = align == CENTER ? x0 + (area - w) / 2
+        : align == RIGHT || rtl ? x0 + area - w
+        : x0;
+      List<Strip> words = rows.get(r);
+      // Left to right on paper; an RTL row's first word is its rightmost
+      for (int i = 0; i < words.size(); i++) {
+        Strip s = words.get(rtl ? words.size() - 1 - i : i);
+        blit(bits, bpr, x, y, s, h);
+        x += s.width + st.space;
+      }
+    }
+    if (!lead.isEmpty()) blit(bits, bpr, 0, 0, strip(st, lead), h);
+    if (right != null && !right.isEmpty()) {
+      Strip s = strip(st, right);
+      blit(bits, bpr, Math.max(0, dots - s.width), 0, s, h);
+    }
+    return bits;
+  }
+
+  private static List<String> words(String text) {
+    List<String> out = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean space = i == text.length() || Character.isWhitespace(text.charAt(i));
+      if (space && start >= 0) {
+        out.add(text.substring(start, i));
+        start = -1;
+      } else if (!space && start < 0) {
+        start = i;
+      }
+    }
+    return out;
+  }
+
+  // A word wider than a row is cut between grapheme clusters
+  private List<Strip> pieces(Style st, String word, int area) {
+    Strip whole = strip(st, word);
+    List<Strip> out = new ArrayList<>(1);
+    if (whole.width <= area) {
+      out.add(whole);
+      return out;
+    }
+    BreakIterator it = BreakIterator.getCharacterInstance();
+    it.setText(word);
+    int start = 0;
+    int prev = 0;
+    for (int end = it.next(); end != BreakIterator.DONE; end = it.next()) {
+      if (prev > start && st.paint.measureText(word, start, end) > area) {
+        out.add(strip(st, word.substring(start, prev)));
+        start = prev;
+      }
+      prev = end;
+    }
+    out.add(strip(st, word.substring(start)));
+    return out;
+  }
+
+  private Style style(int size, boolean bold, boolean tall) {
+    String key = size + (bold ? "b" : "r") + (tall ? "t" : "");
+    Style st = styles.get(key);
+    if (st != null) return st;
+    Paint p = new Paint(Paint.ANTI_ALIAS_FLAG);
+    p.setColor(Color.BLACK);
+    p.setTypeface(bold ? this.bold : regular);
+    int ts = tall ? size * 2 : size;
+    p.setTextSize(ts);
+    if (tall) p.setTextScaleX(0.5f); // double height, same advance as the grid
+    // Room for Indic vowel signs above and descenders below the Latin box
+    st = new Style(key, p, Math.round(ts * 1.5f), Math.round(ts * 1.1f));
+    styles.put(key, st);
+    return st;
+  }
+
+  // From the atlas, or drawn once and kept
+  private Strip strip(Style st, String word) {
+    String key = st.key + '|' + word;
+    Strip s = atlas.get(key);
+    if (s != null) {
+      hits++;
+      return s;
+    }
+    misses++;
+    s = draw(st, word);
+    atlas.put(key, s);
+    bytes += s.bits.length;
+    trim();
+    return s;
+  }
+
+  private Strip draw(Style st, String word) {
+    int w = Math.max(1, (int) Math.ceil(st.paint.measureText(word)));
+    int h = st.lineHeight;
+    if (scratch == null || scratch.getWidth() < w || scratch.getHeight() < h) {
+      if (scratch != null) scratch.recycle();
+      scratch = Bitmap.createBitmap(Math.max(w, scratch == null ? 256 : scratch.getWidth()),
+        Math.max(h, scratch == null ? 64 : scratch.getHeight()), Bitmap.Config.ALPHA_8);
+      canvas = new Canvas(scratch);
+    }
+    scratch.eraseColor(Color.TRANSPARENT);
+    canvas.drawText(word, 0, st.baseline, st.paint);
+    if (pixels.length < w * h) pixels = new int[w * h];
+    scratch.getPixels(pixels, 0, w, 0, 0, w, h);
+    int bpr = (w + 7) / 8;
+    byte[] bits = new byte[bpr * h];
+    for (int y = 0; y < h; y++) {
+      int row = y * w;
+      int base = y * bpr;
+      for (int x = 0; x < w; x++) {
+        if (Color.alpha(pixels[row + x]) >= THRESHOLD) bits[base + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+      }
+    }
+    return new Strip(w, bpr, bits);
+  }
+
+  // ORs s into dst at (dx, dy); s's bytes are shifted to dx's bit offset
+  private static void blit(byte[] dst, int dstBpr, int dx, int dy, Strip s, int rows) {
+    dx = Math.max(0, dx);
+    int shift = dx & 7;
+    for (int y = 0; y < rows; y++) {
+      int src = y * s.bpr;
+      int out = (dy + y) * dstBpr;
+      for (int i = 0; i < s.bpr; i++) {
+        int v = s.bits[src + i] & 0xff;
+        if (v == 0) continue;
+        int at = (dx >> 3) + i;
+        if (at >= dstBpr) break;
+        dst[out + at] |= (byte) (v >>> shift);
+        if (shift != 0 && at + 1 < dstBpr) dst[out + at + 1] |= (byte) (v << (8 - shift));
+      }
+    }
+  }
+
+  private void trim() {
+    Iterator<Map.Entry<String, Strip>> it = atlas.entrySet().iterator();
+    while (bytes > maxBytes && it.hasNext()) {
+      bytes -= it.next().getValue().bits.length;
+      it.remove();
+    }
+  }
+}
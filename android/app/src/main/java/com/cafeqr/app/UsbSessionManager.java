@@ -0,0 +1,275 @@
+package com.cafeqr.app;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Keeps USB printer sessions (open connection, claimed interface, OUT endpoint)
+// alive between jobs. Devices are enumerated only after an attach event or on
+// first use, sessions are dropped on ACTION_USB_DEVICE_DETACHED, and the
+// permission broadcast is awaited instead of skipping the device.
+class UsbSessionManager {
+
+  private static final String TAG = "UsbSessions";
+  static final String ACTION_USB_PERMISSION = "com.cafeqr.app.USB_PERMISSION";
+  private static final int TRANSFER_TIMEOUT_MS = 5000;
+  private static final int MAX_TRANSFER = 16 * 1024; // bulkTransfer limit before API 28
+  private static final long PERMISSION_WAIT_MS = 10_000;
+
+  private static UsbSessionManager instance;
+
+  static synchronized UsbSessionManager get(Context ctx) {
+    if (instance == null) instance = new UsbSessionManager(ctx.getApplicationContext());
+    return instance;
+  }
+
+  static final class Session {
+    final UsbDevice device;
+    final UsbDeviceConnection conn;
+    final UsbInterface iface;
+    final UsbEndpoint out;
+
+    Session(UsbDevice device, UsbDeviceConnection conn, UsbInterface iface, UsbEndpoint out) {
+      this.device = device;
+      this.conn = conn;
+      this.iface = iface;
+      this.out = out;
+    }
+
+    void close() {
+      try { conn.releaseInterface(iface); } catch (Exception ignored) {}
+      try { conn.close(); } catch (Exception ignored) {}
+    }
+  }
+
+  private final Context ctx;
+  private final UsbManager mgr;
+  private final Map<String, Session> sessions = new HashMap<>();
+  private final Map<String, CountDownLatch> pendingPermission = new HashMap<>();
+  private boolean scanNeeded = true;
+
+  private final BroadcastReceiver receiver = new BroadcastReceiver() {
+    @Override
+    public void onReceive(Context c, Intent intent) {
+      UsbDevice dev = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+      String action = intent.getAction();
+      if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(action)) {
+        if (dev != null) drop(dev.getDeviceName());
+      } else if (UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(action)) {
+        synchronized (UsbSessionManager.this) {
+          scanNeeded = true;
+        }
+      } else if (ACTION_USB_PERMISSION.equals(action) && dev != null) {
+        boolean granted = intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false);
+        Log.d(TAG, "USB permission " + (granted ? "granted" : "denied") + " for " + dev.getDeviceName());
+        CountDownLatch latch;
+        synchronized (UsbSessionManager.this) {
+          if (granted) scanNeeded = true;
+          latch = pendingPermission.remove(dev.getDeviceName());
+        }
+        if (latch != null) latch.countDown();
+      }
+    }
+  };
+
+  private UsbSessionManager(Context ctx) {
+    this.ctx = ctx;
+    this.mgr = (UsbManager) ctx.getSystemService(Context.USB_SERVICE);
+    IntentFilter f = new IntentFilter();
+    f.addAction(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+    f.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
+    f.addAction(ACTION_USB_PERMISSION);
+    ContextCompat.registerReceiver(ctx, receiver, f, ContextCompat.RECEIVER_NOT_EXPORTED);
+  }
+
+  // Sends data to the first available USB printer. Returns false when there is
+  // none (or the transfer failed, in which case the session is dropped).
+  boolean write(byte[] data) throws IOException {
+    return execute((out, in) -> out.write(data));
+  }
+
+  // Runs work against the first USB printer whose transfer succeeds (there is
+  // no status back-channel, so in is null). False when no printer took it.
+  boolean execute(PrinterTransport.Work work) throws IOException {
+    if (mgr == null) return false;
+    for (Session s : sessions()) {
+      BulkOutputStream out = new BulkOutputStream(s);
+      synchronized (s) {
+        try {
+          work.run(out, null);
+          return true;
+        } catch (IOException e) {
+          if (!out.failed) throw e; // the job's own source failed, not the printer
+          failed(s);
+        }
+      }
+    }
+    return false;
+  }
+
+  boolean hasPrinter() {
+    return mgr != null && !sessions().isEmpty();
+  }
+
+  // bulkTransfer as an OutputStream, split into MAX_TRANSFER pieces
+  private static final class BulkOutputStream extends OutputStream {
+    private final Session s;
+    boolean failed;
+
+    BulkOutputStream(Session s) {
+      this.s = s;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      int end = off + len;
+      while (off < end) {
+        int sent = s.conn.bulkTransfer(s.out, b, off, Math.min(MAX_TRANSFER, end - off), TRANSFER_TIMEOUT_MS);
+        if (sent <= 0) {
+          failed = true;
+          throw new IOException("bulkTransfer failed on " + s.device.getDeviceName());
+        }
+        off += sent;
+      }
+    }
+  }
+
+  private void failed(Session s) {
+    Log.w(TAG, "bulkTransfer failed on " + s.device.getDeviceName() + ", dropping session");
+    drop(s.device.getDeviceName());
+    synchronized (this) {
+      scanNeeded = true; // still attached? reopen on the next job
+    }
+  }
+
+  // Cached sessions, enumerating devices only when something changed
+  private List<Session> sessions() {
+    List<UsbDevice> needPermission = new ArrayList<>();
+    List<Session> out;
+    synchronized (this) {
+      if (scanNeeded) {
+        scanNeeded = false;
+        scan(needPermission);
+      }
+      out = new ArrayList<>(sessions.values());
+    }
+    if (out.isEmpty() && !needPermission.isEmpty()) {
+      // First job after plugging a printer in: wait for the user to answer the dialog
+      for (UsbDevice dev : needPermission) {
+        if (awaitPermission(dev)) {
+          synchronized (this) {
+            scanNeeded = false;
+            scan(new ArrayList<>());
+            out = new ArrayList<>(sessions.values());
+          }
+          if (!out.isEmpty()) break;
+        }
+      }
+    }
+    return out;
+  }
+
+  private void scan(List<UsbDevice> needPermission) {
+    for (UsbDevice dev : mgr.getDeviceList().values()) {
+      String name = dev.getDeviceName();
+      if (sessions.containsKey(name)) continue;
+      UsbInterface iface = null;
+      UsbEndpoint out = null;
+      // Prefer a printer-class interface, else any interface with a bulk OUT endpoint
+      for (int pass = 0; pass < 2 && out == null; pass++) {
+        for (int i = 0; i < dev.getInterfaceCount() && out == null; i++) {
+          UsbInterface cand = dev.getInterface(i);
+          if (pass == 0 && cand.getInterfaceClass() != UsbConstants.USB_CLASS_PRINTER) continue;
+          for (int a = 0; a < cand.getEndpointCount(); a++) {
+            UsbEndpoint ep = cand.getEndpoint(a);
+            if (ep.getDirection() == UsbConstants.USB_DIR_OUT && ep.getType() == UsbConstants.USB_ENDPOINT_XFER_BULK) {
+              iface = cand;
+              out = ep;
+              break;
+            }
+          }
+        }
+      }
+      if (out == null) continue;
+      if (!mgr.hasPermission(dev)) {
+        requestPermission(dev);
+        needPermission.add(dev);
+        continue;
+      }
+      UsbDeviceConnection conn = mgr.openDevice(dev);
+      if (conn == null) continue;
+      if (!conn.claimInterface(iface, true)) {
+        conn.close();
+        continue;
+      }
+      sessions.put(name, new Session(dev, conn, iface, out));
+      PrinterIndex.get(ctx).recordUsb(name, dev.getProductName());
+      Log.d(TAG, "Opened USB printer session " + name);
+    }
+  }
+
+  private void requestPermission(UsbDevice dev) {
+    String name = dev.getDeviceName();
+    if (pendingPermission.containsKey(name)) return;
+    pendingPermission.put(name, new CountDownLatch(1));
+    // Must be mutable so the system can attach EXTRA_PERMISSION_GRANTED; explicit for API 34
+    Intent i = new Intent(ACTION_USB_PERMISSION).setPackage(ctx.getPackageName());
+    int flags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S ? PendingIntent.FLAG_MUTABLE : 0;
+    mgr.requestPermission(dev, PendingIntent.getBroadcast(ctx, 0, i, flags));
+  }
+
+  private boolean awaitPermission(UsbDevice dev) {
+    CountDownLatch latch;
+    synchronized (this) {
+      latch = pendingPermission.get(dev.getDeviceName());
+    }
+    if (latch == null) return mgr.hasPermission(dev);
+    try {
+      latch.await(PERMISSION_WAIT_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return mgr.hasPermission(dev);
+  }
+
+  private synchronized void drop(String deviceName) {
+    Session s = sessions.remove(deviceName);
+    pendingPermission.remove(deviceName);
+    if (s != null) {
+      s.close();
+      Log.d(TAG, "Closed USB printer session " + deviceName);
+    }
+  }
+
+  synchronized void closeAll() {
+    for (Session s : sessions.values()) s.close();
+    sessions.clear();
+    scanNeeded = true;
+  }
+}
@@ -0,0 +1,24 @@
+package com.cafeqr.app;
+
+import java.io.IOException;
+
+// Bulk OUT endpoint of the first attached USB printer (no status back-channel)
+final class UsbTransport implements PrinterTransport {
+
+  private final UsbSessionManager sessions;
+
+  UsbTransport(UsbSessionManager sessions) {
+    this.sessions = sessions;
+  }
+
+  @Override
+  public String name() {
+    return "usb";
+  }
+
+  @Override
+  public boolean execute(Work work) throws IOException {
+    if (!sessions.execute(work)) throw new IOException("No USB printer");
+    return false;
+  }
+}
@@ -0,0 +1,66 @@
+package woyou.aidlservice.jiuiv5;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+// One command of the vendor's commitPrint() batch; same wire layout as the
+// Sunmi SDK class so IWoyouService stays compatible.
+public class TransBean implements Parcelable {
+
+  private byte type;
+  private String text = "";
+  private byte[] data;
+  private int datalength;
+
+  public TransBean() {}
+
+  public TransBean(byte type, String text, byte[] data) {
+    this.type = type;
+    this.text = text;
+    if (data != null) {
+      this.datalength = data.length;
+      this.data = data.clone();
+    }
+  }
+
+  protected TransBean(Parcel in) {
+    type = in.readByte();
+    text = in.readString();
+    datalength = in.readInt();
+    if (datalength > 0) {
+      data = new byte[datalength];
+      in.readByteArray(data);
+    }
+  }
+
+  public byte getType() { return type; }
+
+  public String getText() { return text; }
+
+  public byte[] getData() { return data; }
+
+  @Override
+  public void writeToParcel(Parcel dest, int flags) {
+    dest.writeByte(type);
+    dest.writeString(text);
+    dest.writeInt(datalength);
+    if (datalength > 0) dest.writeByteArray(data);
+  }
+
+  @Override
+  public int describeContents() {
+    return 0;
+  }
+
+  public static final Creator<TransBean> CREATOR = new Creator<TransBean>() {
+    @Override
+    public TransBean createFromParcel(Parcel in) {
+      return new TransBean(in);
+    }
+
+    @Override
+    public TransBean[] newArray(int size) {
+      return new TransBean[size];
+    }
+  };
+}
@@ -0,0 +1,184 @@
+package com.cafeqr.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class EscPosSegmenterTest {
+
+  private static byte[] bytes(int... b) {
+    byte[] out = new byte[b.length];
+    for (int i = 0; i < b.length; i++) out[i] = (byte) b[i];
+    return out;
+  }
+
+  private static byte[] lines(int count, int width) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < count; i++) {
+      for (int k = 0; k < width - 1; k++) out.write('a' + (i % 26));
+      out.write('\n');
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] join(byte[]... parts) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (byte[] p : parts) out.write(p, 0, p.length);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void commandLength_fixedCommands() {
+    assertEquals(2, EscPosSegmenter.commandLength(bytes(0x1b, '@'), 0));
+    assertEquals(3, EscPosSegmenter.commandLength(bytes(0x1b, 'a', 1), 0));
+    assertEquals(3, EscPosSegmenter.commandLength(bytes(0x1d, '!', 0x11), 0));
+    assertEquals(4, EscPosSegmenter.commandLength(bytes(0x1d, 'L', 0, 0), 0));
+    assertEquals(2, EscPosSegmenter.commandLength(bytes(0x1c, '.'), 0));
+    assertEquals(3, EscPosSegmenter.commandLength(bytes(0x10, 0x04, 1), 0));
+    assertEquals(2, EscPosSegmenter.commandLength(bytes(0x1b, 'L'), 0));
+    assertEquals(2, EscPosSegmenter.commandLength(bytes(0x1b, 'S'), 0));
+  }
+
+  @Test
+  public void commandLength_cutDependsOnMode() {
+    assertEquals(3, EscPosSegmenter.commandLength(bytes(0x1d, 'V', 0), 0));
+    assertEquals(4, EscPosSegmenter.commandLength(bytes(0x1d, 'V', 66, 3), 0));
+  }
+
+  @Test
+  public void commandLength_countsPayloads() {
+    // GS v 0: raster of 2 bytes x 3 rows
+    assertEquals(8 + 6, EscPosSegmenter.commandLength(bytes(0x1d, 'v', '0', 0, 2, 0, 3, 0), 0));
+    // GS ( k with pL pH = 260
+    assertEquals(5 + 260, EscPosSegmenter.commandLength(bytes(0x1d, '(', 'k', 4, 1), 0));
+    // ESC * 33: 24-dot columns, 3 bytes each
+    assertEquals(5 + 2 * 3, EscPosSegmenter.commandLength(bytes(0x1b, '*', 33, 2, 0), 0));
+    // GS k m=4: NUL-terminated barcode
+    assertEquals(8, EscPosSegmenter.commandLength(bytes(0x1d, 'k', 4, 'A', 'B', 'C', 'D', 0), 0));
+    // GS k m=73: length byte
+    assertEquals(4 + 5, EscPosSegmenter.commandLength(bytes(0x1d, 'k', 73, 5), 0));
+  }
+
+  @Test
+  public void commandLength_unknownOrTruncatedIsZero() {
+    assertEquals(0, EscPosSegmenter.commandLength(bytes(0x1b, 'Z', 0), 0));
+    assertEquals(0, EscPosSegmenter.commandLength(bytes(0x1b), 0));
+    assertEquals(0, EscPosSegmenter.commandLength(bytes(0x1d, 'v', '0', 0), 0));
+    assertEquals(0, EscPosSegmenter.commandLength(bytes(0x1d, 'k', 4, 'A', 'B'), 0));
+  }
+
+  @Test
+  public void commandLength_atOffset() {
+    byte[] d = bytes('x', 'y', 0x1b, 'E', 1);
+    assertEquals(3, EscPosSegmenter.commandLength(d, 2));
+  }
+
+  @Test
+  public void plan_shortJobIsOneSegment() {
+    assertNull(EscPosSegmenter.plan(lines(4, 32), 1024));
+    assertNull(EscPosSegmenter.plan(new byte[0], 1024));
+  }
+
+  @Test
+  public void plan_cutsAfterLineFeeds() {
+    byte[] data = lines(100, 32);
+    EscPosSegmenter.Plan plan = EscPosSegmenter.plan(data, 256);
+    assertNotNull(plan);
+    assertTrue(plan.count() > 1);
+    assertEquals(0, plan.start(0));
+    assertEquals(data.length, plan.end(plan.count() - 1));
+    for (int i = 1; i < plan.count(); i++) {
+      assertEquals('\n', data[plan.start(i) - 1]);
+      assertEquals(plan.end(i - 1), plan.start(i));
+      assertTrue(plan.start(i) - plan.start(i - 1) >= 256);
+    }
+  }
+
+  @Test
+  public void plan_leavesNoTinyTail() {
+    byte[] data = lines(9, 32); // 288 bytes: a cut at 256 would leave 32 < 64
+    assertNull(EscPosSegmenter.plan(data, 256));
+  }
+
+  @Test
+  public void plan_neverCutsInsideRaster() {
+    // Raster full of LF bytes between two blocks of text
+    byte[] raster = new byte[8 + 64 * 16];
+    raster[0] = 0x1d;
+    raster[1] = 'v';
+    raster[2] = '0';
+    raster[4] = 64;
+    raster[6] = 16;
+    Arrays.fill(raster, 8, raster.length, (byte) '\n');
+    byte[] data = join(lines(4, 32), raster, lines(40, 32));
+    int rasterFrom = 128;
+    int rasterTo = rasterFrom + raster.length;
+    EscPosSegmenter.Plan plan = EscPosSegmenter.plan(data, 64);
+    assertNotNull(plan);
+    for (int i = 1; i < plan.count(); i++) {
+      int s = plan.start(i);
+      assertFalse("cut at " + s, s > rasterFrom && s < rasterTo);
+    }
+  }
+
+  @Test
+  public void plan_neverCutsInsideRasterAfterPageMode() {
+    // ESC L takes no parameter: the raster right after it must still be skipped whole
+    byte[] raster = new byte[8 + 64 * 32];
+    raster[0] = 0x1d;
+    raster[1] = 'v';
+    raster[2] = '0';
+    raster[4] = 64;
+    raster[6] = 32;
+    Arrays.fill(raster, 8, raster.length, (byte) '\n');
+    byte[] data = join(bytes(0x1b, 'L'), raster, lines(40, 32));
+    int rasterFrom = 2;
+    int rasterTo = rasterFrom + raster.length;
+    EscPosSegmenter.Plan plan = EscPosSegmenter.plan(data, 64);
+    assertNotNull(plan);
+    for (int i = 1; i < plan.count(); i++) {
+      int s = plan.start(i);
+      assertFalse("cut at " + s, s > rasterFrom && s < rasterTo);
+    }
+  }
+
+  @Test
+  public void plan_prefixReplaysModes() {
+    byte[] data = join(bytes(0x1b, 'a', 1, 0x1b, 'E', 1, 0x1b, 'a', 2), lines(40, 32));
+    EscPosSegmenter.Plan plan = EscPosSegmenter.plan(data, 256);
+    assertNotNull(plan);
+    assertArrayEquals(new byte[0], plan.prefixes[0]);
+    // Latest value of each mode, in the order they were last set
+    assertArrayEquals(bytes(0x1b, 'E', 1, 0x1b, 'a', 2), plan.prefixes[1]);
+  }
+
+  @Test
+  public void plan_resetForgetsModes() {
+    byte[] data = join(bytes(0x1b, 'E', 1, 0x1b, '@'), lines(40, 32));
+    EscPosSegmenter.Plan plan = EscPosSegmenter.plan(data, 256);
+    assertNotNull(plan);
+    assertEquals(0, plan.prefixes[1].length);
+  }
+
+  @Test
+  public void plan_unknownCommandStopsCutting() {
+    byte[] head = lines(20, 32);
+    byte[] data = join(head, bytes(0x1b, 'Z'), lines(40, 32));
+    EscPosSegmenter.Plan plan = EscPosSegmenter.plan(data, 256);
+    assertNotNull(plan);
+    for (int i = 1; i < plan.count(); i++) assertTrue(plan.start(i) <= head.length);
+    assertEquals(data.length, plan.end(plan.count() - 1));
+  }
+
+  @Test
+  public void plan_textBytesAreNotCommands() {
+    byte[] data = ("Total 12.50\n").repeat(60).getBytes(StandardCharsets.US_ASCII);
+    EscPosSegmenter.Plan plan = EscPosSegmenter.plan(data, 200);
+    assertNotNull(plan);
+    for (int i = 1; i < plan.count(); i++) assertEquals(0, plan.start(i) % 12);
+  }
+}
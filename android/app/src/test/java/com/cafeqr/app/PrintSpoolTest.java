@@ -0,0 +1,144 @@
+package com.cafeqr.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+
+public class PrintSpoolTest {
+
+  private static File newDir() throws IOException {
+    File dir = Files.createTempDirectory("spool").toFile();
+    dir.deleteOnExit();
+    return dir;
+  }
+
+  private static File journal(File dir) {
+    return new File(dir, "journal.bin");
+  }
+
+  private static PrintJob job(String id, PrintJob.Priority priority) {
+    return new PrintJob(id, "AA:BB:CC:DD:EE:FF", 0, priority, j -> "bt");
+  }
+
+  private static PrintSpool add(PrintSpool spool, String id, byte[] data) throws IOException {
+    spool.add(job(id, PrintJob.Priority.RECEIPT), "AA:BB:CC:DD:EE:FF", null, PrintPayload.of(data));
+    return spool;
+  }
+
+  @Test
+  public void unfinishedJobsSurviveReopen() throws IOException {
+    File dir = newDir();
+    PrintSpool spool = new PrintSpool(dir);
+    assertTrue(spool.open().isEmpty());
+    spool.add(job("a", PrintJob.Priority.KOT), "AA:BB:CC:DD:EE:FF", "kitchen", PrintPayload.of(new byte[] { 1, 2, 3 }));
+    add(spool, "b", new byte[] { 4 });
+    spool.markDone("a", true);
+    add(spool, "c", new byte[] { 5 }); // its fsync also makes the DONE durable
+
+    List<PrintSpool.Entry> live = new PrintSpool(dir).open();
+    assertEquals(2, live.size());
+    assertEquals("b", live.get(0).id);
+    assertEquals("c", live.get(1).id);
+    assertArrayEquals(new byte[] { 4 }, live.get(0).data);
+    assertEquals("AA:BB:CC:DD:EE:FF", live.get(0).address);
+    assertNull(live.get(0).nameContains);
+  }
+
+  @Test
+  public void keepsPriorityAndStreamedRefs() throws IOException {
+    File dir = newDir();
+    PrintSpool spool = new PrintSpool(dir);
+    spool.open();
+    File payload = new File(dir, "ticket.bin");
+    spool.add(job("r", PrintJob.Priority.REPORT), null, "xp", PrintPayload.ofFile(payload, false));
+
+    PrintSpool.Entry e = new PrintSpool(dir).open().get(0);
+    assertEquals(PrintJob.Priority.REPORT, e.priority);
+    assertNull(e.data);
+    assertEquals("file:" + payload.getAbsolutePath(), e.ref);
+    assertNull(e.address);
+    assertEquals("xp", e.nameContains);
+  }
+
+  @Test
+  public void tornTailIsDropped() throws IOException {
+    File dir = newDir();
+    PrintSpool spool = new PrintSpool(dir);
+    spool.open();
+    add(spool, "a", new byte[] { 1, 2, 3 });
+    long afterA = journal(dir).length();
+    add(spool, "b", new byte[100]);
+    try (RandomAccessFile raf = new RandomAccessFile(journal(dir), "rw")) {
+      raf.setLength(afterA + 20); // crash in the middle of b's frame
+    }
+
+    List<PrintSpool.Entry> live = new PrintSpool(dir).open();
+    assertEquals(1, live.size());
+    assertEquals("a", live.get(0).id);
+    assertEquals(afterA, journal(dir).length());
+  }
+
+  @Test
+  public void badChecksumEndsRecovery() throws IOException {
+    File dir = newDir();
+    PrintSpool spool = new PrintSpool(dir);
+    spool.open();
+    add(spool, "a", new byte[] { 1 });
+    long afterA = journal(dir).length();
+    add(spool, "b", new byte[] { 2 });
+    add(spool, "c", new byte[] { 3 });
+    try (RandomAccessFile raf = new RandomAccessFile(journal(dir), "rw")) {
+      long at = afterA + 6; // inside b's body
+      raf.seek(at);
+      int v = raf.read();
+      raf.seek(at);
+      raf.write(v ^ 0xff);
+    }
+
+    // Nothing after a bad frame can be trusted, c included
+    List<PrintSpool.Entry> live = new PrintSpool(dir).open();
+    assertEquals(1, live.size());
+    assertEquals("a", live.get(0).id);
+  }
+
+  @Test
+  public void openRewritesToLiveJobs() throws IOException {
+    File dir = newDir();
+    PrintSpool spool = new PrintSpool(dir);
+    spool.open();
+    add(spool, "a", new byte[1000]);
+    add(spool, "b", new byte[] { 1 });
+    spool.markDone("a", false);
+    add(spool, "c", new byte[] { 2 });
+    long before = journal(dir).length();
+
+    PrintSpool reopened = new PrintSpool(dir);
+    assertEquals(2, reopened.open().size());
+    assertEquals(2, reopened.pendingCount());
+    assertTrue(journal(dir).length() < before - 1000);
+    assertEquals(2, new PrintSpool(dir).open().size());
+  }
+
+  @Test
+  public void compactsOnceEverythingIsDone() throws IOException {
+    File dir = newDir();
+    PrintSpool spool = new PrintSpool(dir);
+    spool.open();
+    add(spool, "big", new byte[600 * 1024]);
+    assertTrue(journal(dir).length() > 512 * 1024);
+    spool.markDone("big", true);
+
+    assertEquals(0, spool.pendingCount());
+    assertEquals(0, journal(dir).length());
+    add(spool, "next", new byte[] { 7 });
+    List<PrintSpool.Entry> live = new PrintSpool(dir).open();
+    assertEquals(1, live.size());
+    assertEquals("next", live.get(0).id);
+  }
+}
@@ -0,0 +1,119 @@
+package com.cafeqr.app;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Print jobs over TcpConnectionPool to loopback printers, four client threads
+// at once. With printers=4 every thread has its own printer and all of them
+// share the pool's single selector thread; with printers=1 they queue for one
+// printer as print workers would. keepAlive=false opens a plain socket for
+// each job instead of going through the pool, i.e. what a connect-per-ticket
+// transport pays.
+//
+//   ./gradlew -PwithBench :printer-bench:jmh -Pjmh.includes=NetworkTransportBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(4)
+public class NetworkTransportBenchmark {
+
+  @Param({ "1", "4" })
+  public int printers;
+
+  @Param({ "1024", "8192" })
+  public int ticketBytes;
+
+  @Param({ "true", "false" })
+  public boolean keepAlive;
+
+  private LoopbackPrinter[] farm;
+  private TcpConnectionPool pool;
+  private byte[] ticket;
+  private final AtomicInteger nextClient = new AtomicInteger();
+
+  @State(Scope.Thread)
+  public static class Client {
+    TcpTransport transport;
+    int port;
+
+    @Setup(Level.Trial)
+    public void pick(NetworkTransportBenchmark b) throws IOException {
+      LoopbackPrinter p = b.farm[b.nextClient.getAndIncrement() % b.printers];
+      transport = TcpTransport.parse(b.pool, p.address());
+      port = p.port();
+    }
+  }
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Outcome {
+    public long retriedJobs;
+    public long statusReplies;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+      retriedJobs = 0;
+      statusReplies = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    pool = new TcpConnectionPool();
+    ticket = WriteStrategyBenchmark.ticket(ticketBytes);
+    farm = new LoopbackPrinter[printers];
+    for (int i = 0; i < printers; i++) farm[i] = new LoopbackPrinter(SimulatedPrinter.preset("lan"));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    pool.closeAll();
+    for (LoopbackPrinter p : farm) p.close();
+  }
+
+  // What PrintDispatcher does for tcp:// printers
+  @Benchmark
+  public int job(Client c, Outcome o) throws IOException {
+    if (!keepAlive) return connectPerJob(c, o);
+    final int[] status = { -1 };
+    boolean retried = c.transport.execute((out, in) -> {
+      PacedWriter.send(out, ticket, PacingProfile.NETWORK);
+      status[0] = PacedWriter.settle(out, in, PacingProfile.NETWORK);
+    });
+    if (retried) o.retriedJobs++;
+    if (status[0] >= 0) o.statusReplies++;
+    return status[0];
+  }
+
+  private int connectPerJob(Client c, Outcome o) throws IOException {
+    try (Socket s = new Socket()) {
+      s.connect(new InetSocketAddress("127.0.0.1", c.port), TcpConnectionPool.DEFAULT_CONNECT_TIMEOUT_MS);
+      PacedWriter.send(s.getOutputStream(), ticket, PacingProfile.NETWORK);
+      int status = PacedWriter.settle(s.getOutputStream(), s.getInputStream(), PacingProfile.NETWORK);
+      if (status >= 0) o.statusReplies++;
+      return status;
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package com.cafeqr.app;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// One print job per invocation against a simulated printer, for every pacing
+// profile x printer preset x ticket size. Throughput is jobs/s; SampleTime
+// gives the p50/p90/p99/p999 job latency. The aux counters show what speed
+// costs: bytes the printer lost and jobs that came out garbled.
+//
+//   ./gradlew -PwithBench :printer-bench:jmh
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class WriteStrategyBenchmark {
+
+  @Param({ "legacy", "balanced", "fast" })
+  public String profile;
+
+  @Param({ "bt-clone", "bt-good", "stalling", "flaky-link", "usb" })
+  public String printer;
+
+  @Param({ "1024", "8192" })
+  public int ticketBytes;
+
+  private PacingProfile pacing;
+  private SimulatedPrinter sim;
+  private byte[] ticket;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Outcome {
+    public long droppedBytes;
+    public long garbledJobs;
+    public long retriedJobs;
+    public long statusReplies;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+      droppedBytes = 0;
+      garbledJobs = 0;
+      retriedJobs = 0;
+      statusReplies = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    pacing = PacingProfile.preset(profile);
+    sim = new SimulatedPrinter(SimulatedPrinter.preset(printer));
+    ticket = ticket(ticketBytes);
+  }
+
+  @Setup(Level.Iteration)
+  public void freshPrinter() {
+    sim.reset();
+  }
+
+  // What PrintDispatcher does for Bluetooth: ESC @, paced chunks, settle
+  @Benchmark
+  public int paced(Outcome o) throws IOException {
+    final int[] status = { -1 };
+    long before = sim.dropped.get();
+    boolean retried = sim.execute((out, in) -> status[0] = PacedWriter.write(out, in, ticket, pacing));
+    tally(o, before, retried, status[0]);
+    return status[0];
+  }
+
+  // The streamed path (files, chunked uploads) with the same pacing
+  @Benchmark
+  public int pacedStream(Outcome o) throws IOException {
+    final int[] status = { -1 };
+    long before = sim.dropped.get();
+    boolean retried = sim.execute((out, in) ->
+      status[0] = PacedWriter.write(out, in, new ByteArrayInputStream(ticket), pacing));
+    tally(o, before, retried, status[0]);
+    return status[0];
+  }
+
+  // What the USB route does: one unpaced copy, then wait for the printer
+  @Benchmark
+  public int unpaced(Outcome o) throws IOException {
+    final int[] status = { -1 };
+    long before = sim.dropped.get();
+    boolean retried = sim.execute((out, in) -> {
+      PacedWriter.copy(new ByteArrayInputStream(ticket), out);
+      status[0] = PacedWriter.settle(out, in, pacing);
+    });
+    tally(o, before, retried, status[0]);
+    return status[0];
+  }
+
+  private void tally(Outcome o, long droppedBefore, boolean retried, int status) {
+    long lost = sim.dropped.get() - droppedBefore;
+    o.droppedBytes += lost;
+    if (lost > 0) o.garbledJobs++;
+    if (retried) o.retriedJobs++;
+    if (status >= 0) o.statusReplies++;
+  }
+
+  // Receipt-looking text: 32-column lines, bold headers, a cut at the end
+  static byte[] ticket(int size) {
+    byte[] line = "2 x Masala Dosa            240.00\n".getBytes(StandardCharsets.US_ASCII);
+    byte[] bold = { 0x1b, 'E', 1 };
+    byte[] plain = { 0x1b, 'E', 0 };
+    byte[] cut = { 0x1d, 'V', 0x42, 0 };
+    byte[] out = new byte[size];
+    int n = 0;
+    int lines = 0;
+    while (n < size - cut.length) {
+      byte[] part = lines % 12 == 0 ? bold : lines % 12 == 1 ? plain : line;
+      int len = Math.min(part.length, size - cut.length - n);
+      System.arraycopy(part, 0, out, n, len);
+      n += len;
+      lines++;
+    }
+    System.arraycopy(cut, 0, out, size - cut.length, cut.length);
+    return out;
+  }
+}
@@ -0,0 +1,110 @@
+package com.cafeqr.app;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A network printer on 127.0.0.1: a raw-TCP listener whose connections feed a
+// SimulatedPrinter, with status replies (DLE EOT) sent back over the socket.
+// Stands in for a 9100 printer so TcpConnectionPool runs against real sockets.
+final class LoopbackPrinter implements Closeable {
+
+  final SimulatedPrinter sim;
+  final AtomicLong connections = new AtomicLong();
+
+  private final ServerSocket server;
+  private final List<Socket> clients = new CopyOnWriteArrayList<>();
+  private volatile boolean closed;
+
+  LoopbackPrinter(SimulatedPrinter.Config cfg) throws IOException {
+    this.sim = new SimulatedPrinter(cfg);
+    this.server = new ServerSocket(0, 16, InetAddress.getLoopbackAddress());
+    Thread t = new Thread(this::acceptLoop, "loopback-printer-" + port());
+    t.setDaemon(true);
+    t.start();
+  }
+
+  int port() {
+    return server.getLocalPort();
+  }
+
+  // As the app addresses it
+  String address() {
+    return TcpTransport.SCHEME + "127.0.0.1:" + port();
+  }
+
+  // Drops every client connection, like a printer power-cycling; keeps listening
+  void dropClients() {
+    for (Socket s : clients) closeQuietly(s);
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    closeQuietly(server);
+    dropClients();
+  }
+
+  private void acceptLoop() {
+    while (!closed) {
+      Socket s;
+      try {
+        s = server.accept();
+      } catch (IOException e) {
+        return;
+      }
+      connections.incrementAndGet();
+      clients.add(s);
+      Thread t = new Thread(() -> serve(s), "loopback-client-" + port());
+      t.setDaemon(true);
+      t.start();
+    }
+  }
+
+  // Socket bytes go to the printer; a second thread carries its replies back
+  private void serve(Socket s) {
+    try {
+      InputStream from = s.getInputStream();
+      OutputStream to = s.getOutputStream();
+      sim.execute((out, in) -> {
+        Thread replies = new Thread(() -> {
+          try {
+            while (!s.isClosed()) {
+              if (in.available() > 0) {
+                to.write(in.read());
+                to.flush();
+              } else {
+                PacedWriter.pause(1);
+              }
+            }
+          } catch (IOException ignored) {
+            // client went away
+          }
+        }, "loopback-status-" + port());
+        replies.setDaemon(true);
+        replies.start();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = from.read(buf)) > 0) out.write(buf, 0, n);
+      });
+    } catch (IOException ignored) {
+      // client went away
+    } finally {
+      clients.remove(s);
+      closeQuietly(s);
+    }
+  }
+
+  private static void closeQuietly(Closeable c) {
+    try {
+      c.close();
+    } catch (IOException ignored) {}
+  }
+}
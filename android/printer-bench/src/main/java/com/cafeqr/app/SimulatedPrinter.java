@@ -0,0 +1,256 @@
+package com.cafeqr.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+// In-memory thermal printer behind a PrinterTransport, for benchmarking write
+// strategies off-device. Bytes land in a receive buffer that the print head
+// drains at the link's baud rate; the head can stall (paper feed, cutter),
+// bytes sent right after ESC @ are ignored while the firmware resets, and a
+// full buffer either drops bytes (cheap clones without flow control) or blocks
+// the writer (RTS/CTS). DLE EOT 1 is answered once the buffer has drained.
+final class SimulatedPrinter implements PrinterTransport {
+
+  static final int STATUS_OK = 0x12; // fixed bits only: online, no error
+
+  static final class Config {
+    int baud = 115200;          // 10 bits on the wire per byte
+    int bufferSize = 4096;      // receive buffer
+    boolean blockWhenFull;      // flow control; otherwise overflow is dropped
+    int resetBusyMs = 20;       // bytes arriving this soon after ESC @ are lost
+    int stallEveryBytes;        // 0 = never stall
+    int stallMs;
+    boolean answersStatus = true;
+    int dropLinkEveryJobs;      // 0 = link never drops; else every Nth job fails once mid-write
+
+    Config baud(int v) { baud = v; return this; }
+    Config buffer(int v) { bufferSize = v; return this; }
+    Config blockWhenFull(boolean v) { blockWhenFull = v; return this; }
+    Config resetBusyMs(int v) { resetBusyMs = v; return this; }
+    Config stall(int everyBytes, int ms) { stallEveryBytes = everyBytes; stallMs = ms; return this; }
+    Config answersStatus(boolean v) { answersStatus = v; return this; }
+    Config dropLinkEveryJobs(int v) { dropLinkEveryJobs = v; return this; }
+  }
+
+  // Printers seen in the field, roughly
+  static Config preset(String name) {
+    switch (name) {
+      case "bt-clone":  // 58mm no-name: small buffer, no flow control, no status
+        return new Config().baud(115200).buffer(2048).resetBusyMs(60).answersStatus(false);
+      case "bt-good":   // branded BT: flow control and status replies
+        return new Config().baud(230400).buffer(16 * 1024).blockWhenFull(true).resetBusyMs(10);
+      case "stalling":  // feeds and cuts between sections
+        return new Config().baud(115200).buffer(4096).resetBusyMs(30).stall(1024, 40);
+      case "flaky-link":// drops the RFCOMM link now and then
+        return new Config().baud(115200).buffer(8192).blockWhenFull(true).dropLinkEveryJobs(5);
+      case "usb":       // USB full speed, endpoint paces itself
+        return new Config().baud(12_000_000).buffer(64 * 1024).blockWhenFull(true).resetBusyMs(0);
+      case "lan":       // Ethernet/Wi-Fi on 9100: TCP window is the flow control
+        return new Config().baud(2_000_000).buffer(64 * 1024).blockWhenFull(true).resetBusyMs(5);
+      default:
+        throw new IllegalArgumentException("Unknown printer preset: " + name);
+    }
+  }
+
+  final AtomicLong printed = new AtomicLong();
+  final AtomicLong dropped = new AtomicLong();
+  final AtomicLong stalls = new AtomicLong();
+  final AtomicLong reconnects = new AtomicLong();
+
+  private final Config cfg;
+  private final double bytesPerNano;
+
+  // Printer state, guarded by this
+  private double level;          // bytes waiting in the receive buffer
+  private long clock = System.nanoTime();
+  private long busyUntil;        // no draining (stall) or no accepting (reset) until then
+  private boolean resetting;
+  private long sinceStall;
+  private int match;             // progress through ESC @ / DLE EOT 1 in the stream
+  private int statusPending;     // status queries waiting for an answer
+  private int jobs;
+  private boolean linkDown;
+
+  SimulatedPrinter(Config cfg) {
+    this.cfg = cfg;
+    this.bytesPerNano = cfg.baud / 10.0 / 1e9;
+  }
+
+  @Override
+  public String name() {
+    return "sim";
+  }
+
+  @Override
+  public boolean execute(Work work) throws IOException {
+    boolean drop;
+    synchronized (this) {
+      jobs++;
+      drop = cfg.dropLinkEveryJobs > 0 && jobs % cfg.dropLinkEveryJobs == 0;
+      linkDown = false;
+    }
+    try {
+      work.run(new Out(drop), new In());
+      return false;
+    } catch (IOException stale) {
+      if (!drop) throw stale;
+      // Same as the pool: reconnect once and run the whole job again
+      reconnects.incrementAndGet();
+      synchronized (this) {
+        linkDown = false;
+      }
+      work.run(new Out(false), new In());
+      return true;
+    }
+  }
+
+  // Bytes still waiting to be printed
+  synchronized int buffered() {
+    advance();
+    return (int) Math.ceil(level);
+  }
+
+  synchronized void reset() {
+    level = 0;
+    clock = System.nanoTime();
+    busyUntil = 0;
+    resetting = false;
+    sinceStall = 0;
+    match = 0;
+    statusPending = 0;
+    jobs = 0;
+    printed.set(0);
+    dropped.set(0);
+    stalls.set(0);
+    reconnects.set(0);
+  }
+
+  // Print head catches up to now
+  private void advance() {
+    long now = System.nanoTime();
+    long from = Math.max(clock, busyUntil);
+    if (now > from && level > 0) {
+      double done = Math.min(level, (now - from) * bytesPerNano);
+      level -= done;
+      printed.addAndGet((long) done);
+    }
+    if (now >= busyUntil) resetting = false;
+    clock = now;
+  }
+
+  // Accepts up to len bytes; returns how many were taken (the rest dropped or
+  // to be retried by a blocking writer)
+  private synchronized int accept(byte[] b, int off, int len) {
+    advance();
+    if (resetting) {
+      scan(b, off, len);
+      dropped.addAndGet(len);
+      return len;
+    }
+    int room = (int) Math.max(0, cfg.bufferSize - Math.ceil(level));
+    int take = Math.min(room, len);
+    if (take == 0 && cfg.blockWhenFull) return 0;
+    if (!cfg.blockWhenFull) {
+      dropped.addAndGet(len - take);
+      scan(b, off, len);
+      take = len;
+      level += Math.min(room, len);
+    } else {
+      scan(b, off, take);
+      level += take;
+    }
+    if (cfg.stallEveryBytes > 0) {
+      sinceStall += take;
+      if (sinceStall >= cfg.stallEveryBytes) {
+        sinceStall = 0;
+        stalls.incrementAndGet();
+        busyUntil = Math.max(busyUntil, System.nanoTime()) + cfg.stallMs * 1_000_000L;
+      }
+    }
+    return take;
+  }
+
+  // Watches for ESC @ (firmware reset) and DLE EOT 1 (status query)
+  private void scan(byte[] b, int off, int len) {
+    for (int i = off; i < off + len; i++) {
+      int c = b[i] & 0xff;
+      if (match == 0) {
+        match = c == 0x1b ? 1 : c == 0x10 ? 10 : 0;
+      } else if (match == 1) {
+        match = 0;
+        if (c == '@') {
+          level = 0; // reset clears the buffer
+          if (cfg.resetBusyMs > 0) {
+            resetting = true;
+            busyUntil = System.nanoTime() + cfg.resetBusyMs * 1_000_000L;
+          }
+        }
+      } else if (match == 10) {
+        match = c == 0x04 ? 11 : 0;
+      } else {
+        match = 0;
+        if (c == 0x01 && cfg.answersStatus) statusPending++;
+      }
+    }
+  }
+
+  private final class Out extends OutputStream {
+    private final boolean dropMidway;
+    private long written;
+
+    Out(boolean dropMidway) {
+      this.dropMidway = dropMidway;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        synchronized (SimulatedPrinter.this) {
+          if (linkDown) throw new IOException("Broken pipe (simulated)");
+        }
+        if (dropMidway && written > 0) {
+          synchronized (SimulatedPrinter.this) {
+            linkDown = true;
+          }
+          throw new IOException("Broken pipe (simulated)");
+        }
+        int n = accept(b, off, len);
+        written += n;
+        off += n;
+        len -= n;
+        if (len > 0) PacedWriter.pause(1); // flow control held us off
+      }
+    }
+  }
+
+  private final class In extends InputStream {
+    @Override
+    public int available() {
+      synchronized (SimulatedPrinter.this) {
+        advance();
+        return statusPending > 0 && level < 1 ? 1 : 0;
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      while (true) {
+        synchronized (SimulatedPrinter.this) {
+          advance();
+          if (statusPending > 0 && level < 1) {
+            statusPending--;
+            return STATUS_OK;
+          }
+        }
+        PacedWriter.pause(1);
+      }
+    }
+  }
+}
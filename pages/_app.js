@@ -240,6 +240,14 @@ function MyApp({ Component, pageProps }) {
     if (mounted) forceSupabaseSessionRestore().then(() => setReady(true))
   }, [mounted])
 
+  // Cold start tracking: tell the native side once the first real screen has painted
+  useEffect(() => {
+    if (!ready || Capacitor.getPlatform() !== 'android') return
+    requestAnimationFrame(() => {
+      window.Capacitor?.Plugins?.DevicePrinter?.markStartupReady?.().catch(() => {})
+    })
+  }, [ready])
+
   // FCM/web init
   useEffect(() => {
     if (!router.isReady || !ready) return